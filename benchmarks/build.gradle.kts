@@ -0,0 +1,61 @@
+plugins {
+    java
+
+    id("org.openjfx.javafxplugin") version "0.1.0"
+
+    // https://plugins.gradle.org/plugin/me.champeau.jmh
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+// The launcher's version is used to name result files, so it has to be configured first.
+evaluationDependsOn(":launcher")
+
+javafx {
+    version = "21.0.1"
+    modules(
+        "javafx.base",
+        "javafx.graphics",
+        "javafx.media",
+        "javafx.fxml"
+    )
+}
+
+repositories {
+    mavenCentral()
+
+    // Transitive dependencies of the launcher
+    maven {
+        url = uri("https://jitpack.io/")
+    }
+    maven {
+        url = uri("https://repo.opencollab.dev/maven-snapshots/")
+    }
+    maven {
+        url = uri("https://repo.opencollab.dev/maven-releases/")
+    }
+}
+
+dependencies {
+    implementation(project(":launcher"))
+
+    // Writes the Smile payloads a server would send
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile:2.19.1")
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
+// Run with `./gradlew :benchmarks:jmh`, or `-PjmhIncludes=<regex>` to run a subset.
+// Results are written as JSON per launcher version so they can be compared between releases.
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results-${project(":launcher").version}.json")
+    (project.findProperty("jmhIncludes") as? String)?.let { includes.add(it) }
+}
@@ -0,0 +1,52 @@
+package net.coosanta.meldmc.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.coosanta.meldmc.exceptions.ClientJsonNotFoundException;
+import net.coosanta.meldmc.minecraft.launcher.ClientJsonResolver;
+import net.coosanta.meldmc.minecraft.launcher.JsonMerger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and inheritance resolution of client JSONs, from disk and from already parsed trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientJsonBenchmark {
+    private Path versionsDir;
+    private ObjectNode vanilla;
+    private ObjectNode forge;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        versionsDir = Fixtures.createVersionsDir();
+        ObjectMapper mapper = new ObjectMapper();
+        vanilla = (ObjectNode) mapper.readTree(versionsDir.resolve(Fixtures.VANILLA).resolve(Fixtures.VANILLA + ".json").toFile());
+        forge = (ObjectNode) mapper.readTree(versionsDir.resolve(Fixtures.FORGE).resolve(Fixtures.FORGE + ".json").toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteRecursively(versionsDir);
+    }
+
+    @Benchmark
+    public ObjectNode loadVanilla() throws IOException, ClientJsonNotFoundException {
+        return new ClientJsonResolver(versionsDir).loadClientJson(Fixtures.VANILLA);
+    }
+
+    @Benchmark
+    public ObjectNode loadForge() throws IOException, ClientJsonNotFoundException {
+        return new ClientJsonResolver(versionsDir).loadClientJson(Fixtures.FORGE);
+    }
+
+    @Benchmark
+    public ObjectNode mergeForgeIntoVanilla() {
+        return JsonMerger.merge(vanilla, forge);
+    }
+}
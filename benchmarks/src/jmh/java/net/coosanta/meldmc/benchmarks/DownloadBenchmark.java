@@ -0,0 +1,111 @@
+package net.coosanta.meldmc.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import net.coosanta.meldmc.network.DownloadSink;
+import net.coosanta.meldmc.network.ProgressTrackingInputStream;
+import net.coosanta.meldmc.network.http.SinkBodySubscriber;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download throughput against a loopback HTTP server standing in for a mod CDN, so the network is never the bottleneck.
+ * Both variants compute the SHA-512 and report progress, like mod downloads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DownloadBenchmark {
+    @Param({"4194304", "67108864"})
+    public int size;
+
+    private HttpServer server;
+    private HttpClient client;
+    private HttpRequest request;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        byte[] payload = new byte[size];
+        new SplittableRandom(size).nextBytes(payload);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/mod.jar", exchange -> {
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create(
+                "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/mod.jar")).build();
+        target = Files.createTempFile("meld-bench-", ".jar");
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        server.stop(0);
+        client.close();
+        Files.deleteIfExists(target);
+    }
+
+    /**
+     * The path downloads took before: an InputStream body with per-chunk progress, copied with {@code Files.copy}.
+     */
+    @Benchmark
+    public byte[] inputStreamCopy(Blackhole blackhole) throws Exception {
+        MessageDigest digest = sha512();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = new ProgressTrackingInputStream(response.body(), size, false,
+                (delta, total, context) -> blackhole.consume(delta))) {
+            Files.copy(new DigestInputStream(in, digest), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * The body written from the client's buffers into a {@link DownloadSink}, with sampled progress.
+     */
+    @Benchmark
+    public byte[] sinkSubscriber(Blackhole blackhole) throws Exception {
+        MessageDigest digest = sha512();
+        HttpResponse<DownloadSink> response = client.send(request, info -> {
+            try {
+                return new SinkBodySubscriber(DownloadSink.open(target, false, digest,
+                        (delta, total, context) -> blackhole.consume(delta), size));
+            } catch (IOException e) {
+                return SinkBodySubscriber.failing(e);
+            }
+        });
+        return response.body().digest().digest();
+    }
+
+    private static MessageDigest sha512() {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package net.coosanta.meldmc.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Client JSON fixtures shipped with the benchmarks.
+ * <p>
+ * They follow the layout, argument rules and library counts of the vanilla 1.21.1 and Forge 52.0.16 client JSONs; hashes
+ * and sizes are placeholders since nothing is downloaded.
+ */
+final class Fixtures {
+    static final String VANILLA = "1.21.1";
+    static final String FORGE = "1.21.1-forge-52.0.16";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Copies the fixtures into a new versions directory laid out like {@code .minecraft/versions}.
+     */
+    static Path createVersionsDir() throws IOException {
+        Path versionsDir = Files.createTempDirectory("meld-bench-versions");
+        for (String id : List.of(VANILLA, FORGE)) {
+            Path target = versionsDir.resolve(id).resolve(id + ".json");
+            Files.createDirectories(target.getParent());
+            try (InputStream in = Fixtures.class.getResourceAsStream("/versions/" + id + "/" + id + ".json")) {
+                if (in == null) throw new IllegalStateException("Missing fixture: " + id);
+                Files.copy(in, target);
+            }
+        }
+        return versionsDir;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.coosanta.meldmc.benchmarks;
+
+import net.coosanta.meldmc.utility.FileHasher;
+import net.coosanta.meldmc.utility.ResourceUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing throughput at sizes typical for a small library, an average mod and a large mod.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HashingBenchmark {
+    @Param({"65536", "4194304", "67108864"})
+    public int size;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = Files.createTempFile("meld-bench-", ".jar");
+        SplittableRandom random = new SplittableRandom(size);
+        byte[] chunk = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String sha512() throws IOException, NoSuchAlgorithmException {
+        return ResourceUtil.calculateSHA512(file.toFile());
+    }
+
+    @Benchmark
+    public String sha1() throws IOException, NoSuchAlgorithmException {
+        return ResourceUtil.calculateSHA1(file.toFile());
+    }
+
+    @Benchmark
+    public Map<FileHasher.Algorithm, String> sha1AndSha512SinglePass() throws IOException {
+        return FileHasher.hash(file, EnumSet.of(FileHasher.Algorithm.SHA_1, FileHasher.Algorithm.SHA_512));
+    }
+
+    @Benchmark
+    public String fingerprint() throws IOException {
+        return FileHasher.fingerprint(file);
+    }
+}
@@ -0,0 +1,87 @@
+package net.coosanta.meldmc.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.coosanta.meldmc.exceptions.ClientJsonNotFoundException;
+import net.coosanta.meldmc.minecraft.launcher.ClientJsonResolver;
+import net.coosanta.meldmc.minecraft.launcher.CommandBuilder;
+import net.coosanta.meldmc.minecraft.launcher.LaunchArgs;
+import net.coosanta.meldmc.minecraft.launcher.RuleEvaluator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rule evaluation and launch command building for a Forge instance, using the merged Forge and vanilla client JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LaunchCommandBenchmark {
+    private Path versionsDir;
+    private ObjectNode clientData;
+    private List<ObjectNode> libraries;
+    private List<ObjectNode> argumentRules;
+    private List<Path> classpath;
+    private LaunchArgs launchArgs;
+    private Path gameDir;
+    private final RuleEvaluator ruleEvaluator = new RuleEvaluator();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ClientJsonNotFoundException {
+        versionsDir = Fixtures.createVersionsDir();
+        gameDir = versionsDir.resolveSibling("meld-bench-instance");
+        clientData = new ClientJsonResolver(versionsDir).loadClientJson(Fixtures.FORGE);
+
+        libraries = new ArrayList<>();
+        classpath = new ArrayList<>();
+        for (JsonNode lib : clientData.get("libraries")) {
+            libraries.add((ObjectNode) lib);
+            classpath.add(Path.of("libraries", lib.path("downloads").path("artifact").path("path").asText()));
+        }
+
+        argumentRules = new ArrayList<>();
+        for (String type : List.of("game", "jvm")) {
+            for (JsonNode arg : clientData.path("arguments").path(type)) {
+                for (JsonNode rule : arg.path("rules")) {
+                    argumentRules.add((ObjectNode) rule);
+                }
+            }
+        }
+
+        launchArgs = LaunchArgs.parse(new String[]{
+                "--username", "Player", "--version", Fixtures.FORGE, "--gameDir", gameDir.toString(),
+                "--assetsDir", "assets", "--assetIndex", "17", "--uuid", "00000000-0000-0000-0000-000000000000",
+                "--accessToken", "0", "--userType", "msa", "--versionType", "release"
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteRecursively(versionsDir);
+    }
+
+    @Benchmark
+    public void passesOsRule(Blackhole blackhole) {
+        for (ObjectNode lib : libraries) {
+            blackhole.consume(ruleEvaluator.passesOsRule(lib));
+        }
+    }
+
+    @Benchmark
+    public void passesRule(Blackhole blackhole) {
+        for (ObjectNode rule : argumentRules) {
+            blackhole.consume(ruleEvaluator.passesRule(rule, launchArgs));
+        }
+    }
+
+    @Benchmark
+    public List<String> buildCommand() {
+        return new CommandBuilder(ruleEvaluator).buildCommand(clientData, classpath, launchArgs, gameDir);
+    }
+}
@@ -0,0 +1,129 @@
+package net.coosanta.meldmc.benchmarks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import net.coosanta.meldmc.network.client.MeldData;
+import net.coosanta.meldmc.network.client.MeldDataFormat;
+import net.coosanta.meldmc.network.client.MeldDataReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reading a Meld server's mod info: binding JSON as the launcher used to, streaming JSON, and streaming Smile in the
+ * compact layout with raw hashes. Payload sizes, plain and gzipped, are printed when each trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MeldDataBenchmark {
+    @Param({"50", "500"})
+    public int mods;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] json;
+    private byte[] smile;
+
+    @Setup(Level.Trial)
+    public void createPayloads() throws IOException {
+        MeldData data = createMeldData(mods);
+        json = mapper.writeValueAsBytes(data);
+        smile = toCompactSmile(data);
+        System.out.printf("%n%d mods: JSON %d bytes (%d gzipped), Smile %d bytes (%d gzipped)%n",
+                mods, json.length, gzip(json).length, smile.length, gzip(smile).length);
+    }
+
+    @Benchmark
+    public MeldData bindJson() throws IOException {
+        return mapper.readValue(json, MeldData.class);
+    }
+
+    @Benchmark
+    public MeldData streamJson() throws IOException {
+        return MeldDataReader.read(new ByteArrayInputStream(json), MeldDataFormat.JSON.factory(), mod -> {
+        });
+    }
+
+    @Benchmark
+    public MeldData streamSmile() throws IOException {
+        return MeldDataReader.read(new ByteArrayInputStream(smile), MeldDataFormat.SMILE.factory(), mod -> {
+        });
+    }
+
+    private static MeldData createMeldData(int count) {
+        SplittableRandom random = new SplittableRandom(count);
+        Map<String, MeldData.ClientMod> modMap = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[64];
+            random.nextBytes(hash);
+            String hex = HexFormat.of().formatHex(hash);
+            boolean fromModrinth = i % 2 == 0;
+            modMap.put(hex, new MeldData.ClientMod(
+                    "1." + i + ".0",
+                    hex,
+                    fromModrinth ? "https://cdn.modrinth.com/data/" + i + "/versions/" + i + "/mod-" + i + ".jar" : null,
+                    fromModrinth ? "https://modrinth.com/mod/mod-" + i : null,
+                    fromModrinth ? "AANobbMI" : null,
+                    "mod-" + i + "-1." + i + ".0.jar",
+                    "Example Mod " + i,
+                    "example_mod_" + i,
+                    "Author " + i + ", Contributor " + (i + 1),
+                    "An example mod that adds things to the game. ".repeat(1 + random.nextInt(8)),
+                    64 * 1024 + random.nextInt(8 * 1024 * 1024)
+            ));
+        }
+        return new MeldData("1.21.1", MeldData.ModLoader.FABRIC, "0.16.14", "fabric-loader-0.16.14-1.21.1", modMap);
+    }
+
+    /**
+     * Writes the layout a server sends when asked for Smile, with hashes as raw bytes rather than 7-bit escaped.
+     */
+    private static byte[] toCompactSmile(MeldData data) throws IOException {
+        SmileFactory factory = SmileFactory.builder().disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT).build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("mcVersion", data.mcVersion());
+            generator.writeStringField("modLoader", data.modLoader().name());
+            generator.writeStringField("modLoaderVersion", data.modLoaderVersion());
+            generator.writeStringField("versionId", data.versionId());
+            generator.writeArrayFieldStart("mods");
+            for (MeldData.ClientMod mod : data.modMap().values()) {
+                generator.writeStartObject();
+                generator.writeStringField("modVersion", mod.modVersion());
+                generator.writeBinaryField("hash", HexFormat.of().parseHex(mod.hash()));
+                generator.writeStringField("url", mod.url());
+                generator.writeStringField("projectUrl", mod.projectUrl());
+                generator.writeStringField("projectId", mod.projectId());
+                generator.writeStringField("filename", mod.filename());
+                generator.writeStringField("modname", mod.modname());
+                generator.writeStringField("modId", mod.modId());
+                generator.writeStringField("authors", mod.authors());
+                generator.writeStringField("description", mod.description());
+                generator.writeNumberField("fileSize", mod.fileSize());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
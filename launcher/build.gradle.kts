@@ -103,6 +103,9 @@ dependencies {
 
     // https://mvnrepository.com/artifact/com.fasterxml.jackson.core/jackson-core
     implementation("com.fasterxml.jackson.core:jackson-core:2.19.1")
+
+    // https://mvnrepository.com/artifact/com.fasterxml.jackson.dataformat/jackson-dataformat-smile
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile:2.19.1")
 }
 
 java {
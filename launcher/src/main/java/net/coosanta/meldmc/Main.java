@@ -3,6 +3,7 @@ package net.coosanta.meldmc;
 import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
 import net.coosanta.meldmc.gui.views.MainWindow;
 import net.coosanta.meldmc.minecraft.launcher.LaunchArgs;
+import net.coosanta.meldmc.network.BandwidthLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +28,7 @@ public class Main {
         }
 
         windowsSize = new Dimension(launchArgs.getWidth(), launchArgs.getHeight());
+        BandwidthLimiter.global().setRate(launchArgs.getMaxDownloadRate());
 
         try {
             GlobalExceptionHandler.installGlobal();
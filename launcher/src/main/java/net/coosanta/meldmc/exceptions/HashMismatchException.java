@@ -0,0 +1,25 @@
+package net.coosanta.meldmc.exceptions;
+
+import java.nio.file.Path;
+
+/**
+ * Thrown when downloaded content does not hash to any of the values it was requested by.
+ */
+public class HashMismatchException extends MeldException {
+    private final String actualHash;
+    private final Path quarantinedFile;
+
+    public HashMismatchException(String filename, String actualHash, Path quarantinedFile) {
+        super("Hash of downloaded file " + filename + " does not match, quarantined at " + quarantinedFile);
+        this.actualHash = actualHash;
+        this.quarantinedFile = quarantinedFile;
+    }
+
+    public String getActualHash() {
+        return actualHash;
+    }
+
+    public Path getQuarantinedFile() {
+        return quarantinedFile;
+    }
+}
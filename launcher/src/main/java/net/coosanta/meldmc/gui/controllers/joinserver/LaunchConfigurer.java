@@ -15,7 +15,8 @@ public final class LaunchConfigurer {
 
     public static Node decideLaunchScreen(String address) {
         GameInstance serverInstance = InstanceManager.getInstance(address);
-        if (serverInstance.getChangedMods().isEmpty() && serverInstance.getDeletedMods().isEmpty()) {
+        if (serverInstance.isScanComplete()
+            && serverInstance.getChangedMods().isEmpty() && serverInstance.getDeletedMods().isEmpty()) {
             return configureAndLaunch(serverInstance);
         } else {
             return new ModDownloadConfirmation(serverInstance);
@@ -1,5 +1,6 @@
 package net.coosanta.meldmc.gui.controllers.joinserver;
 
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
@@ -9,13 +10,17 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
 import net.coosanta.meldmc.gui.nodes.button.MinecraftButton;
 import net.coosanta.meldmc.minecraft.GameInstance;
+import net.coosanta.meldmc.minecraft.ModChanges;
+import net.coosanta.meldmc.network.client.MeldData;
 import net.coosanta.meldmc.utility.ResourceUtil;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 
 import static net.coosanta.meldmc.Main.DESIGN_WIDTH;
 import static net.coosanta.meldmc.gui.controllers.joinserver.LaunchConfigurer.configureAndLaunch;
@@ -50,6 +55,9 @@ public class ModDownloadConfirmation extends BorderPane {
     @FXML
     private MinecraftButton cancel;
 
+    private final Set<String> shownChanged = new HashSet<>();
+    private final Set<String> shownDeleted = new HashSet<>();
+
     public ModDownloadConfirmation(@NotNull GameInstance serverInstance) {
         this.serverInstance = serverInstance;
 
@@ -65,33 +73,74 @@ public class ModDownloadConfirmation extends BorderPane {
         cancel.setOnAction(this::cancelClicked);
         confirm.setOnAction(ð -> configureAndLaunch(serverInstance));
 
-        warning.setText(buildWarningMessage(serverInstance.getAddress()));
-
-        serverInstance.getChangedMods().values().forEach(mod -> {
-            switch (mod.modSource()) {
-                case MODRINTH -> newModrinthMods.getChildren().add(new ModSummary(mod));
-                case CURSEFORGE -> throw new IllegalArgumentException("CurseForge not supported (yet)");
-                case SERVER -> newServerMods.getChildren().add(new ModSummary(mod));
-                case UNTRUSTED -> newUntrustedMods.getChildren().add(new ModSummary(mod));
+        // Subscribe before reading the current state, so nothing published in between is missed. Duplicates are skipped.
+        var scanListener = new GameInstance.ScanListener() {
+            @Override
+            public void onModChanged(MeldData.ClientMod mod) {
+                Platform.runLater(() -> addChangedMod(mod));
             }
-        });
-        serverInstance.getDeletedMods().values().forEach(modPath -> {
-            String modHash;
-            try {
-                modHash = ResourceUtil.calculateSHA512(modPath.toFile());
-            } catch (IOException | NoSuchAlgorithmException e) {
-                throw new RuntimeException("Failed to calculate hash of deleted mod at path " + modPath, e);
+
+            @Override
+            public void onModDeleted(String filename, Path path) {
+                Platform.runLater(() -> addDeletedMod(filename, path));
             }
-            var mod = serverInstance.getCachedMeldData().modMap().get(modHash); // FIXME possible nullptr ex on non-meld or cached servers
-            if (mod != null) {
-                oldDeletedMods.getChildren().add(new ModSummary(mod));
-            } else {
-                var modLabel = new Label(modPath.getFileName().toString());
-                modLabel.getStyleClass().add("black");
-                oldDeletedMods.getChildren().add(modLabel);
+
+            @Override
+            public void onScanComplete(ModChanges changes) {
+                serverInstance.removeScanListener(this);
+                Platform.runLater(() -> scanFinished());
             }
-        });
+        };
+        serverInstance.addScanListener(scanListener);
+
+        serverInstance.getChangedMods().values().forEach(this::addChangedMod);
+        serverInstance.getDeletedMods().forEach(this::addDeletedMod);
+
+        if (serverInstance.isScanComplete()) {
+            serverInstance.removeScanListener(scanListener);
+            scanFinished();
+        } else {
+            confirm.setDisable(true);
+            warning.setText("Checking installed mods...");
+        }
+    }
+
+    private void addChangedMod(MeldData.ClientMod mod) {
+        if (!shownChanged.add(mod.hash())) return;
+
+        switch (mod.modSource()) {
+            case MODRINTH -> newModrinthMods.getChildren().add(new ModSummary(mod));
+            case CURSEFORGE -> throw new IllegalArgumentException("CurseForge not supported (yet)");
+            case SERVER -> newServerMods.getChildren().add(new ModSummary(mod));
+            case UNTRUSTED -> newUntrustedMods.getChildren().add(new ModSummary(mod));
+        }
+        updateSectionVisibility();
+    }
+
+    private void addDeletedMod(String filename, Path modPath) {
+        if (!shownDeleted.add(filename)) return;
+
+        // Hashed by the scan already; reading the jar here would block the FX thread
+        String modHash = serverInstance.getDeletedModHash(filename);
+        var synced = serverInstance.getCachedMeldData();
+        var mod = synced == null || modHash == null ? null : synced.modMap().get(modHash);
+        if (mod != null) {
+            oldDeletedMods.getChildren().add(new ModSummary(mod));
+        } else {
+            var modLabel = new Label(modPath.getFileName().toString());
+            modLabel.getStyleClass().add("black");
+            oldDeletedMods.getChildren().add(modLabel);
+        }
+        updateSectionVisibility();
+    }
+
+    private void scanFinished() {
+        warning.setText(buildWarningMessage(serverInstance.getAddress()));
+        confirm.setDisable(false);
+        updateSectionVisibility();
+    }
 
+    private void updateSectionVisibility() {
         modifyNodeVisibility(modrinthTitle, !newModrinthMods.getChildren().isEmpty());
         modifyNodeVisibility(serverSentTitle, !newServerMods.getChildren().isEmpty());
         modifyNodeVisibility(untrustedTitle, !newUntrustedMods.getChildren().isEmpty());
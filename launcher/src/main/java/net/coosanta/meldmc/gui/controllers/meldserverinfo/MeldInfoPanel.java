@@ -1,5 +1,7 @@
 package net.coosanta.meldmc.gui.controllers.meldserverinfo;
 
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.css.CssMetaData;
 import javafx.css.Styleable;
 import javafx.css.StyleableProperty;
@@ -16,6 +18,7 @@ import net.coosanta.meldmc.gui.nodes.button.MinecraftButton;
 import net.coosanta.meldmc.gui.views.MainWindow;
 import net.coosanta.meldmc.minecraft.InstanceManager;
 import net.coosanta.meldmc.minecraft.ServerInfo;
+import net.coosanta.meldmc.network.client.MeldClientRegistry;
 import net.coosanta.meldmc.network.client.MeldData;
 import net.coosanta.meldmc.utility.ResourceUtil;
 import net.coosanta.meldmc.utility.ScaleFactorCssProperty;
@@ -26,10 +29,16 @@ import java.awt.Desktop;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class MeldInfoPanel extends BorderPane implements ScaleFactorCssProperty.ScaleFactorContainer {
     private static final Logger log = LoggerFactory.getLogger(MeldInfoPanel.class);
+    // Mod entries built per frame, so that large modpacks are listed gradually instead of freezing the window
+    private static final int ENTRIES_PER_FRAME = 16;
     private final ScaleFactorCssProperty scaleFactorProperty;
 
     private final ServerInfo server;
@@ -69,6 +78,11 @@ public class MeldInfoPanel extends BorderPane implements ScaleFactorCssProperty.
     MinecraftButton done;
 
     List<ModEntry> serverMods = new ArrayList<>();
+    // Mods waiting for their entry, from the mod data and from mod data that arrives while the panel is shown
+    private final Queue<MeldData.ClientMod> pendingMods = new ConcurrentLinkedQueue<>();
+    private final Set<String> listedMods = new HashSet<>();
+    private final AnimationTimer entryLoader;
+    private Runnable stopListening;
     @FXML
     private ModEntryInfo modInfo;
 
@@ -104,20 +118,25 @@ public class MeldInfoPanel extends BorderPane implements ScaleFactorCssProperty.
 
         this.scaleFactorProperty = new ScaleFactorCssProperty(this, "factor");
 
-        server.getMeldData().modMap().forEach((key, value) -> {
-            if (!key.equals(value.hash())) {
-                log.error("Mod with id '{}' has mismatching hashes sent from server!", value.modId());
-                return;
+        meldData.modMap().forEach((hash, mod) -> {
+            if (hash.equals(mod.hash())) {
+                pendingMods.add(mod);
+            } else {
+                log.error("Mod with id '{}' has mismatching hashes sent from server!", mod.modId());
             }
-
-            ModEntry modEntry = new ModEntry(value);
-
-            modEntry.setOnMouseClicked(event -> selectMod(modEntry));
-
-            serverMods.add(modEntry);
         });
-
-        modsPanel.getChildren().addAll(serverMods);
+        this.entryLoader = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                MeldData.ClientMod mod;
+                for (int i = 0; i < ENTRIES_PER_FRAME && (mod = pendingMods.poll()) != null; i++) {
+                    addModEntry(mod);
+                }
+                if (pendingMods.isEmpty()) stop();
+            }
+        };
+        entryLoader.start();
+        listenForMods(server);
 
         openInstanceFolder.setOnAction(event -> {
             try {
@@ -138,7 +157,12 @@ public class MeldInfoPanel extends BorderPane implements ScaleFactorCssProperty.
         modSearch.textProperty().addListener((observable, oldValue, newValue) -> searchMod(newValue));
 
         sceneProperty().addListener((obs, oldScene, newScene) -> {
-            if (newScene != null) {
+            if (newScene == null) {
+                entryLoader.stop();
+                stopListening.run();
+            } else {
+                listenForMods(server);
+                entryLoader.start();
                 Stage stage = (Stage) newScene.getWindow();
                 leftScrollpane.setPrefWidth(stage.getWidth() / 3.0);
                 leftScrollpane.setMaxWidth(stage.getWidth() / 3.0);
@@ -152,6 +176,29 @@ public class MeldInfoPanel extends BorderPane implements ScaleFactorCssProperty.
         this.server = server;
     }
 
+    /**
+     * Lists the mods of mod data that arrives while the panel is shown, each as soon as it has been read.
+     */
+    private void listenForMods(ServerInfo server) {
+        if (stopListening != null) stopListening.run();
+        stopListening = server.onModArrived(mod -> {
+            pendingMods.add(mod);
+            Platform.runLater(entryLoader::start);
+        });
+    }
+
+    private void addModEntry(MeldData.ClientMod mod) {
+        if (!listedMods.add(mod.hash())) return;
+
+        ModEntry modEntry = new ModEntry(mod);
+        modEntry.setOnMouseClicked(event -> selectMod(modEntry));
+        serverMods.add(modEntry);
+
+        if (matchesSearch(modEntry, modSearch.getText())) {
+            modsPanel.getChildren().add(modEntry);
+        }
+    }
+
     private void selectMod(ModEntry newSelection) {
         if (selectedMod != null) {
             selectedMod.getStyleClass().remove("entry-selected");
@@ -160,25 +207,45 @@ public class MeldInfoPanel extends BorderPane implements ScaleFactorCssProperty.
         if (newSelection != null) {
             modInfo.updateServer(newSelection.getModData());
             newSelection.getStyleClass().add("entry-selected");
+            if (newSelection.getModData().description() == null) showDescription(newSelection);
         }
 
         selectedMod = newSelection;
     }
 
+    /**
+     * Fetches the description of a mod, which mod data comes without, and shows it if the mod is still selected.
+     */
+    private void showDescription(ModEntry entry) {
+        MeldData.ClientMod mod = entry.getModData();
+        MeldClientRegistry.getOrCreateClient(server).fetchDescription(mod.hash())
+                .thenAccept(description -> Platform.runLater(() -> {
+                    if (selectedMod == entry) modInfo.setDescription(description);
+                }))
+                .exceptionally(e -> {
+                    log.warn("Failed to fetch the description of {}", mod.filename(), e);
+                    return null;
+                });
+    }
+
     private void searchMod(String term) {
         modsPanel.getChildren().clear();
         if (term == null || term.isBlank()) {
             modsPanel.getChildren().addAll(serverMods);
             return;
         }
-        String lowerTerm = term.toLowerCase();
         for (ModEntry entry : serverMods) {
-            if (entry.getModData().modname().toLowerCase().contains(lowerTerm)) {
+            if (matchesSearch(entry, term)) {
                 modsPanel.getChildren().add(entry);
             }
         }
     }
 
+    private static boolean matchesSearch(ModEntry entry, String term) {
+        if (term == null || term.isBlank()) return true;
+        return entry.getModData().modname().toLowerCase().contains(term.toLowerCase());
+    }
+
     @Override
     public StyleableProperty<Number> getScaleFactorProperty() {
         return scaleFactorProperty.property();
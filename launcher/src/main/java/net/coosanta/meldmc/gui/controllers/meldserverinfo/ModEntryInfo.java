@@ -114,4 +114,11 @@ public class ModEntryInfo extends VBox {
         authors.setText(clientMod.authors());
         description.setText(clientMod.description());
     }
+
+    /**
+     * Shows the description of the mod last {@linkplain #updateServer shown}, which is fetched once it is selected.
+     */
+    public void setDescription(String text) {
+        description.setText(text);
+    }
 }
@@ -8,14 +8,14 @@ import net.coosanta.meldmc.minecraft.launcher.ClientLauncher;
 import net.coosanta.meldmc.minecraft.launcher.LaunchArgs;
 import net.coosanta.meldmc.network.ProgressCallback;
 import net.coosanta.meldmc.network.UnifiedProgressTracker;
+import net.coosanta.meldmc.network.client.DeltaBase;
+import net.coosanta.meldmc.network.client.MeldClient;
 import net.coosanta.meldmc.network.client.MeldClientRegistry;
 import net.coosanta.meldmc.network.client.MeldData;
 import net.coosanta.meldmc.network.client.WebModsDownloader;
-import net.coosanta.meldmc.utility.ResourceUtil;
 import net.querz.nbt.io.NBTUtil;
 import net.querz.nbt.tag.CompoundTag;
 import net.querz.nbt.tag.ListTag;
-import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,9 +25,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
@@ -40,14 +40,26 @@ public class GameInstance {
     );
 
     private final String address;
-    private @Nullable MeldData cachedMeldData; // FIXME cache updating automatically instead of on confirmation of downloading mods
+    // What the instance's mods were last synced to; only replaced once a sync is committed
+    private @Nullable MeldData cachedMeldData;
     private @Nullable MeldData meldData;
     private final Path instanceDir;
     private final Path meldJson;
     private final Path modsDir;
-
-    private final Map<String, MeldData.ClientMod> changedMods = new HashMap<>();
-    private final Map<String, Path> deletedMods = new HashMap<>();
+    private final ModHashIndex modHashIndex;
+
+    private final ModScanner modScanner;
+    private final ModStaging modStaging;
+
+    private final Map<String, MeldData.ClientMod> changedMods = new ConcurrentHashMap<>();
+    private final Map<String, Path> deletedMods = new ConcurrentHashMap<>();
+    // K: file name. V: SHA-512 of the deleted mod, as hashed by the scan
+    private final Map<String, String> deletedModHashes = new ConcurrentHashMap<>();
+    private final List<ScanListener> scanListeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger scanGeneration = new AtomicInteger();
+    private volatile CompletableFuture<ModChanges> scanFuture = CompletableFuture.completedFuture(ModChanges.NONE);
+    // Files of arriving mods still being hashed; the next scan waits for them instead of hashing them a second time
+    private final Set<CompletableFuture<Void>> preparing = ConcurrentHashMap.newKeySet();
     boolean modLoaderChanged;
     boolean modLoaderVersionChanged;
     boolean mcVersionChanged;
@@ -63,15 +75,26 @@ public class GameInstance {
 
         this.modsDir = getInstanceDir().resolve("mods");
 
+        this.modHashIndex = ModHashIndex.open(instanceDir.resolve("mod-index.json"), modsDir);
+        this.modScanner = new ModScanner(modsDir, modHashIndex);
+        this.modStaging = new ModStaging(modsDir, instanceDir.resolve("staging-index.json"));
+
         if (Files.exists(meldJson)) {
             this.cachedMeldData = readInstanceData();
         }
     }
 
-    public void setMeldData(MeldData meldData) {
+    /**
+     * Sets the server's mod data and starts comparing it against the mods directory in the background.
+     * <p>
+     * Scans run one after another; results of a scan that was superseded by a newer call are dropped. Progress is
+     * published to {@link ScanListener}s while the scan runs, so callers never have to wait on disk access.
+     *
+     * @param meldData mod data received from the Meld server
+     * @return future completed with the changes once the whole mods directory has been checked
+     */
+    public CompletableFuture<ModChanges> setMeldData(MeldData meldData) {
         this.meldData = meldData;
-        createInstanceDirectory();
-        addServersDat();
         if (!Objects.equals(cachedMeldData, meldData)) {
             boolean noCachedData = cachedMeldData == null;
             modLoaderChanged = noCachedData || cachedMeldData.modLoader() != meldData.modLoader();
@@ -79,61 +102,195 @@ public class GameInstance {
             mcVersionChanged = noCachedData || !cachedMeldData.mcVersion().equals(meldData.mcVersion());
         }
 
+        int generation = scanGeneration.incrementAndGet();
         changedMods.clear();
         deletedMods.clear();
+        deletedModHashes.clear();
+
+        var listener = new ModScanner.Listener() {
+            @Override
+            public void onChanged(MeldData.ClientMod mod) {
+                if (scanGeneration.get() != generation) return;
+                if (changedMods.put(mod.hash(), mod) == null) {
+                    scanListeners.forEach(l -> l.onModChanged(mod));
+                }
+            }
+
+            @Override
+            public void onDeleted(String filename, Path path, String hash) {
+                if (scanGeneration.get() != generation) return;
+                deletedModHashes.put(filename, hash);
+                if (deletedMods.put(filename, path) == null) {
+                    scanListeners.forEach(l -> l.onModDeleted(filename, path));
+                }
+            }
+        };
+
+        // Chained onto the previous scan so two scans never rename files in the same directory at once.
+        CompletableFuture<ModChanges> scan = scanFuture
+                .handle((unused, ex) -> null)
+                .thenCompose(v -> CompletableFuture.allOf(preparing.toArray(new CompletableFuture[0])))
+                .thenRunAsync(() -> {
+                    recoverModsDirectory();
+                    createInstanceDirectory();
+                    addServersDat();
+                }, FILE_OPERATIONS_EXECUTOR)
+                .thenCompose(v -> modScanner.scan(meldData, listener))
+                .thenApply(changes -> {
+                    if (scanGeneration.get() == generation) {
+                        log.debug("Detected {} new or changed mods", changes.changedMods().size());
+                        scanListeners.forEach(l -> l.onScanComplete(changes));
+                    }
+                    return changes;
+                });
+        scanFuture = scan;
+        return scan;
+    }
 
-        Map<String, MeldData.ClientMod> newModsByName = meldData.modMap().values().stream()
-                .collect(Collectors.toMap(MeldData.ClientMod::filename, m -> m));
+    /**
+     * Takes over mod data that changed while this instance's changes are known, only checking the mods that differ
+     * instead of scanning the whole mods directory again. A change of Minecraft or loader version, or one arriving
+     * before the changes are known, is {@linkplain #setMeldData set} with a scan instead.
+     *
+     * @return future completed with the changes against the new mod data
+     */
+    public CompletableFuture<ModChanges> updateMeldData(MeldData updated) {
+        MeldData previous = meldData;
+        boolean sameGame = previous != null
+                           && Objects.equals(previous.mcVersion(), updated.mcVersion())
+                           && previous.modLoader() == updated.modLoader()
+                           && Objects.equals(previous.modLoaderVersion(), updated.modLoaderVersion());
+        if (!sameGame || !scanFuture.isDone() || scanFuture.isCompletedExceptionally()) {
+            return setMeldData(updated);
+        }
 
-        // scan files for tampering or extras TODO: Non-blocking, with slow disk handling
-        if (Files.exists(modsDir)) {
-            try (var stream = Files.list(modsDir).filter(Files::isRegularFile)) {
-                stream.forEach(path -> checkChanges(path, newModsByName));
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to scan mods directory", e);
+        this.meldData = updated;
+        int generation = scanGeneration.incrementAndGet();
+        CompletableFuture<ModChanges> update = scanFuture
+                .thenApplyAsync(unused -> applyModDiff(previous, updated, generation), FILE_OPERATIONS_EXECUTOR);
+        scanFuture = update;
+        return update;
+    }
+
+    /**
+     * Updates the known changes with the mods that were removed from or added to the mod data, the same way a scan
+     * would have found them.
+     */
+    private ModChanges applyModDiff(MeldData previous, MeldData updated, int generation) {
+        Set<String> filenames = updated.modMap().values().stream()
+                .map(MeldData.ClientMod::filename)
+                .collect(Collectors.toSet());
+
+        for (var mod : previous.modMap().values()) {
+            if (updated.modMap().containsKey(mod.hash())) continue;
+            changedMods.remove(mod.hash());
+
+            // A mod replaced under the same name is downloaded over the file instead
+            Path path = modsDir.resolve(mod.filename());
+            if (filenames.contains(mod.filename()) || !Files.exists(path)) continue;
+            String hash = modHashIndex.cachedHash(path);
+            if (hash != null) deletedModHashes.put(mod.filename(), hash);
+            if (deletedMods.put(mod.filename(), path) == null && scanGeneration.get() == generation) {
+                scanListeners.forEach(l -> l.onModDeleted(mod.filename(), path));
+            }
+        }
+
+        for (var mod : updated.modMap().values()) {
+            if (previous.modMap().containsKey(mod.hash())) continue;
+            deletedMods.remove(mod.filename());
+            deletedModHashes.remove(mod.filename());
+
+            if (mod.hash().equals(installedHash(modsDir.resolve(mod.filename())))) continue;
+            if (changedMods.put(mod.hash(), mod) == null && scanGeneration.get() == generation) {
+                scanListeners.forEach(l -> l.onModChanged(mod));
             }
         }
+        modHashIndex.save();
 
-        // Add any remaining entries that are missing on disk - all other mods have been removed when checking for changes
-        newModsByName.values()
-                .forEach(mod -> changedMods.put(mod.hash(), mod));
+        ModChanges changes = new ModChanges(Map.copyOf(changedMods), Map.copyOf(deletedMods));
+        if (scanGeneration.get() == generation) {
+            log.debug("Mod data changed, now {} new or changed mods", changes.changedMods().size());
+            scanListeners.forEach(l -> l.onScanComplete(changes));
+        }
+        return changes;
+    }
 
-        log.debug("Detected {} new or changed mods", changedMods.size());
+    /**
+     * @return the SHA-512 of a file in the mods directory, or null if there is none or it cannot be read
+     */
+    private @Nullable String installedHash(Path file) {
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return modHashIndex.hash(file);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.debug("Failed to hash {}", file, e);
+            return null;
+        }
+    }
 
-        saveInstanceData();
+    /**
+     * @return where to hand each mod of the server's mod data while it is still arriving. The file each mod is expected
+     * in is hashed as it arrives, so that by the time the whole mod data is {@linkplain #setMeldData set} its scan
+     * only has to compare
+     */
+    public Consumer<MeldData.ClientMod> arrivingMods() {
+        return mod -> {
+            CompletableFuture<Void> prepared = modScanner.prepare(mod);
+            preparing.add(prepared);
+            prepared.whenComplete((v, ex) -> preparing.remove(prepared));
+        };
     }
 
-    private void checkChanges(Path path, Map<String, MeldData.@NotNull ClientMod> newModsByName) {
-        String name = path.getFileName().toString();
-        var expected = newModsByName.remove(name);
-        if (expected != null) {
-            // Check for change in data and add to changedMods accordingly.
-            try {
-                String currentHash = ResourceUtil.calculateSHA512(path.toFile());
-                if (!currentHash.equals(expected.hash())) {
-                    changedMods.put(expected.hash(), expected);
-                }
-            } catch (IOException | NoSuchAlgorithmException e) {
-                throw new RuntimeException("Failed to hash mod file: " + name, e);
-            }
-        } else {
-            // rename file if hash matches, else delete.
-            try {
-                String currentHash = ResourceUtil.calculateSHA512(path.toFile());
-                var matchEntry = newModsByName.entrySet().stream()
-                        .filter(e -> e.getValue().hash().equals(currentHash))
-                        .findFirst();
-                if (matchEntry.isPresent()) {
-                    String correctName = matchEntry.get().getValue().filename();
-                    Files.move(path, modsDir.resolve(correctName));
-                    newModsByName.remove(matchEntry.get().getKey());
-                } else {
-                    deletedMods.put(name, path);
-                }
-            } catch (IOException | NoSuchAlgorithmException e) {
-                throw new RuntimeException("Failed to process mod file: " + name, e);
-            }
+    /**
+     * Drops all recorded mod hashes and checks every mod file again against the current Meld data.
+     *
+     * @return future completed with the changes once the rescan finishes
+     */
+    public CompletableFuture<ModChanges> rescanMods() {
+        modHashIndex.clear();
+        if (meldData != null) {
+            return setMeldData(meldData);
         }
+        modHashIndex.save();
+        return CompletableFuture.completedFuture(ModChanges.NONE);
+    }
+
+    /**
+     * Receives the results of a mod scan as they are found. Methods are called from background threads.
+     */
+    public interface ScanListener {
+        void onModChanged(MeldData.ClientMod mod);
+
+        void onModDeleted(String filename, Path path);
+
+        default void onScanComplete(ModChanges changes) {
+        }
+    }
+
+    public void addScanListener(ScanListener listener) {
+        scanListeners.add(listener);
+    }
+
+    public void removeScanListener(ScanListener listener) {
+        scanListeners.remove(listener);
+    }
+
+    public boolean isScanComplete() {
+        return scanFuture.isDone();
+    }
+
+    public CompletableFuture<ModChanges> getScanFuture() {
+        return scanFuture;
+    }
+
+    /**
+     * Gets the SHA-512 the last scan found a deleted mod to have, without reading the file.
+     *
+     * @param filename name of a file in {@link #getDeletedMods()}
+     * @return the hash, or null if the file is not about to be deleted
+     */
+    public @Nullable String getDeletedModHash(String filename) {
+        return deletedModHashes.get(filename);
     }
 
     private void createInstanceDirectory() {
@@ -144,17 +301,45 @@ public class GameInstance {
         }
     }
 
-    private void addServersDat() {
-        if (meldData == null) return;
-
-        List<ServerInfo> servers = ServerListManager.getInstance().getServers();
+    private void recoverModsDirectory() {
+        try {
+            modStaging.recover();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to restore mods directory for server: " + address, e);
+        }
+    }
 
-        // Find the server that matches this instance's address
-        ServerInfo matchingServer = servers.stream()
+    /**
+     * @return the server in the server list that matches this instance's address, or null if it was removed
+     */
+    private @Nullable ServerInfo findServerInfo() {
+        return ServerListManager.getInstance().getServers().stream()
                 .filter(server -> address.equals(server.getAddress()))
                 .findFirst()
                 .orElse(null);
+    }
 
+    /**
+     * Gets this instance's server's {@link MeldClient}, creating it again if the registry evicted it since the last
+     * ping.
+     *
+     * @return the client, or null if the server is no longer listed or has no Meld address
+     */
+    private @Nullable MeldClient meldClient() {
+        ServerInfo info = findServerInfo();
+        if (info == null) return MeldClientRegistry.getClient(address);
+        try {
+            return MeldClientRegistry.getOrCreateClient(info);
+        } catch (IllegalArgumentException e) {
+            log.warn("No Meld client for {}: {}", address, e.getMessage());
+            return null;
+        }
+    }
+
+    private void addServersDat() {
+        if (meldData == null) return;
+
+        ServerInfo matchingServer = findServerInfo();
         if (matchingServer == null) {
             log.error("Server with address {} not found in server list", address);
             return;
@@ -181,11 +366,13 @@ public class GameInstance {
 
         ObjectMapper mapper = new ObjectMapper();
 
+        MeldData synced = meldData;
         try {
-            mapper.writeValue(meldJson.toFile(), meldData);
+            mapper.writeValue(meldJson.toFile(), synced);
         } catch (IOException e) {
             throw new RuntimeException("Failed to save MeldData for server: " + address, e);
         }
+        cachedMeldData = synced;
     }
 
     private @Nullable MeldData readInstanceData() {
@@ -293,23 +480,95 @@ public class GameInstance {
     }
 
     public void downloadModsAndLaunch(UnifiedProgressTracker progressTracker, LaunchArgs launchArgs) {
+        if (!isScanComplete()) {
+            log.debug("Waiting for mod scan to finish before downloading");
+            scanFuture.whenComplete((changes, ex) -> {
+                if (ex != null) {
+                    Platform.runLater(() -> GlobalExceptionHandler.handle(ex));
+                } else {
+                    downloadModsAndLaunch(progressTracker, launchArgs);
+                }
+            });
+            return;
+        }
+
+        CompletableFuture.supplyAsync(this::stageMods, FILE_OPERATIONS_EXECUTOR)
+                .thenAccept(pending -> downloadAndLaunch(pending, progressTracker, launchArgs))
+                .exceptionally(ex -> {
+                    log.error("Failed to prepare mods", ex);
+                    Platform.runLater(() -> GlobalExceptionHandler.handle(ex));
+                    return null;
+                });
+    }
+
+    /**
+     * Assembles the new mod set in the staging directory: unchanged mods are linked from the live directory, changed
+     * mods are reused from an earlier failed sync or linked out of the {@link ModStore}. Mods that were already up to
+     * date are offered to the store.
+     *
+     * @return K: SHA-512 hash. V: changed mods that still have to be downloaded into the staging directory
+     */
+    private Map<String, MeldData.ClientMod> stageMods() {
+        if (meldData == null) throw new IllegalStateException("Cannot stage mods: MeldData is null");
+        if (changedMods.isEmpty() && deletedMods.isEmpty()) return Map.of();
+
+        ModStore store = ModStore.getInstance();
+        Map<String, MeldData.ClientMod> pending = new HashMap<>();
+        try {
+            var mods = meldData.modMap().values();
+            modStaging.begin(mods.stream().map(MeldData.ClientMod::filename).collect(Collectors.toSet()));
+
+            for (var mod : mods) {
+                if (!changedMods.containsKey(mod.hash())) {
+                    // Verified by the scan; only linked, never copied, so the store does not double the disk usage
+                    store.ingest(modsDir.resolve(mod.filename()), mod.hash(), false);
+                    modStaging.link(mod.filename());
+                    continue;
+                }
+
+                if (modStaging.isStaged(mod.filename(), mod.hash())) {
+                    log.debug("Reusing {} from an earlier sync", mod.filename());
+                    continue;
+                }
+
+                Path target = modStaging.dir().resolve(mod.filename());
+                try {
+                    if (store.materialize(mod.hash(), target)) {
+                        modStaging.staged(target, mod.hash());
+                        log.debug("Linked {} from the mod store", mod.filename());
+                        continue;
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to take {} from the mod store, downloading it instead", mod.filename(), e);
+                }
+                pending.put(mod.hash(), mod);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to stage mods", e);
+        } finally {
+            store.save();
+        }
+        return pending;
+    }
+
+    private void downloadAndLaunch(Map<String, MeldData.ClientMod> pendingMods, UnifiedProgressTracker progressTracker,
+                                   LaunchArgs launchArgs) {
         // Skip mod downloading if there are no changed mods
-        if (changedMods.isEmpty()) {
+        if (pendingMods.isEmpty()) {
             log.info("No mods to download, proceeding to launch");
-            removeDeletedMods();
-            progressTracker.completeAllProgress();
-            GlobalExceptionHandler.runAsync(
-                    () -> launchGame(launchArgs, progressTracker),
-                    GlobalExceptionHandler.singleThreadExecutor("game-launcher")
-            );
+            GlobalExceptionHandler.runAsync(() -> {
+                commitStagedMods();
+                progressTracker.completeAllProgress();
+                launchGame(launchArgs, progressTracker);
+            }, GlobalExceptionHandler.singleThreadExecutor("game-launcher"));
             return;
         }
 
-        var webMods = getChangedMods().values().stream()
+        var webMods = pendingMods.values().stream()
                 .filter(mod -> mod.modSource() != MeldData.ClientMod.ModSource.SERVER)
                 .collect(Collectors.toSet());
 
-        var serverMods = getChangedMods().values().stream()
+        var serverMods = pendingMods.values().stream()
                 .filter(mod -> mod.modSource() == MeldData.ClientMod.ModSource.SERVER)
                 .collect(Collectors.toSet());
 
@@ -319,9 +578,6 @@ public class GameInstance {
 
         progressTracker.setTotalExpected(totalBytes, totalFiles);
 
-        removeDeletedMods();
-
-        @SuppressWarnings("resource") // closed in whenComplete at end of method.
         var webDownloader = new WebModsDownloader();
 
         webDownloader.setTotalProgressCallback((deltaBytes, total, unused) ->
@@ -332,24 +588,31 @@ public class GameInstance {
 
         progressTracker.setStage(UnifiedProgressTracker.LaunchStage.MODS);
 
-        // Web downloads
+        // Everything is downloaded into the staging directory; the live mods directory is only replaced once complete.
+        Path stagingDir = modStaging.dir();
+
+        var meldClient = meldClient();
+        if (meldClient != null) {
+            meldClient.setProgressCallback((newBytes, total, filename) ->
+                    progressTracker.addBytesProgress(newBytes));
+            webDownloader.setServer(getAddress(), meldClient);
+        }
+
+        // Web downloads, falling back to the Meld server for mods whose web sources all failed
         CompletableFuture<Set<Path>> webDownloadFuture = webMods.isEmpty()
                 ? CompletableFuture.completedFuture(Set.of())
-                : webDownloader.downloadMods(webMods, modsDir);
+                : webDownloader.downloadMods(webMods, stagingDir)
+                .thenCompose(paths -> downloadFailedWebMods(webMods, paths, stagingDir, progressTracker));
 
         // Server downloads
         CompletableFuture<Set<Path>> serverDownloadFuture = CompletableFuture.completedFuture(Set.of());
         if (!serverMods.isEmpty()) {
-            var meldClient = MeldClientRegistry.getClient(getAddress());
             if (meldClient != null) {
-                meldClient.setProgressCallback((newBytes, total, filename) ->
-                        progressTracker.addBytesProgress(newBytes));
-
                 var serverHashes = serverMods.stream()
                         .map(MeldData.ClientMod::hash)
                         .collect(Collectors.toSet());
 
-                serverDownloadFuture = meldClient.downloadFiles(serverHashes, modsDir)
+                serverDownloadFuture = meldClient.downloadFiles(serverHashes, stagingDir, deltaBases(serverMods))
                         .whenComplete((paths, ex) -> {
                             if (paths != null) progressTracker.addFileProgress(serverMods.size());
                         });
@@ -367,24 +630,30 @@ public class GameInstance {
                         log.debug("Downloaded {} web mods.", webPaths.size());
                         log.debug("Downloaded {} server mods.", serverPaths.size());
 
-                        progressTracker.completeAllProgress();
-
                         Set<Path> allDownloaded = Stream
                                 .concat(webPaths.stream(), serverPaths.stream())
                                 .collect(Collectors.toSet());
 
+                        List<String> notDownloaded = pendingMods.values().stream()
+                                .map(MeldData.ClientMod::filename)
+                                .filter(name -> !allDownloaded.contains(stagingDir.resolve(name)))
+                                .toList();
+                        if (!notDownloaded.isEmpty()) {
+                            throw new IOException("Failed to download mods: " + String.join(", ", notDownloaded));
+                        }
+
+                        // Downloads are verified while they are written, so their hashes are known without rereading them
+                        Map<String, MeldData.ClientMod> pendingByName = pendingMods.values().stream()
+                                .collect(Collectors.toMap(MeldData.ClientMod::filename, mod -> mod));
                         for (Path path : allDownloaded) {
-                            try {
-                                String sha = ResourceUtil.calculateSHA512(path.toFile());
-                                if (!changedMods.containsKey(sha)) {
-                                    log.error("Downloaded hashes do not match expected value!");
-                                    // TODO Unequal Hashes - handling of manipulated data
-                                }
-                            } catch (IOException | NoSuchAlgorithmException e) {
-                                throw new RuntimeException(e);
-                            }
+                            var mod = pendingByName.get(path.getFileName().toString());
+                            if (mod == null) continue;
+                            modStaging.staged(path, mod.hash());
                         }
 
+                        commitStagedMods();
+                        progressTracker.completeAllProgress();
+
                         // Launching the game!!!!!
                         GlobalExceptionHandler.runAsync(() -> launchGame(launchArgs, progressTracker),
                                         Executors.newSingleThreadExecutor(GlobalExceptionHandler.threadFactory("game-launcher")))
@@ -401,8 +670,121 @@ public class GameInstance {
                     log.error("Mod download failed", ex);
                     Platform.runLater(() -> GlobalExceptionHandler.handle(ex));
                     return null;
-                })
-                .whenComplete((v, ex) -> webDownloader.close());
+                });
+    }
+
+    /**
+     * Finds the installed versions of mods that are being updated, for the Meld server to send only what changed. A mod
+     * counts as the same if its mod id is; its earlier version is taken from the {@link ModStore} or, if it is still
+     * intact, from the mods directory.
+     *
+     * @return K: hash of an updated mod. V: its earlier version
+     */
+    private Map<String, DeltaBase> deltaBases(Collection<MeldData.ClientMod> mods) {
+        MeldData synced = cachedMeldData;
+        if (synced == null) return Map.of();
+
+        Map<String, MeldData.ClientMod> installedById = new HashMap<>();
+        for (var installed : synced.modMap().values()) {
+            if (installed.modId() != null) installedById.putIfAbsent(installed.modId(), installed);
+        }
+
+        ModStore store = ModStore.getInstance();
+        Map<String, DeltaBase> bases = new HashMap<>();
+        for (var mod : mods) {
+            var installed = installedById.get(mod.modId());
+            if (installed == null || installed.hash().equals(mod.hash())) continue;
+
+            Path live = modsDir.resolve(installed.filename());
+            if (store.contains(installed.hash())) {
+                bases.put(mod.hash(), new DeltaBase(installed.hash(), store.blobPath(installed.hash())));
+            } else if (installed.hash().equals(modHashIndex.cachedHash(live))) {
+                bases.put(mod.hash(), new DeltaBase(installed.hash(), live));
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Requests the web mods that could not be downloaded from any of their sources from the Meld server instead.
+     *
+     * @param downloaded web mods that did arrive
+     * @return future of every downloaded web mod
+     */
+    private CompletableFuture<Set<Path>> downloadFailedWebMods(Set<MeldData.ClientMod> webMods, Set<Path> downloaded,
+                                                               Path stagingDir, UnifiedProgressTracker progressTracker) {
+        var failed = webMods.stream()
+                .filter(mod -> !downloaded.contains(stagingDir.resolve(mod.filename())))
+                .collect(Collectors.toSet());
+        if (failed.isEmpty()) return CompletableFuture.completedFuture(downloaded);
+
+        var meldClient = meldClient();
+        if (meldClient == null) return CompletableFuture.completedFuture(downloaded);
+
+        log.info("Requesting {} mods that failed to download from the web from the Meld server", failed.size());
+        var hashes = failed.stream().map(MeldData.ClientMod::hash).collect(Collectors.toSet());
+        return meldClient.downloadFiles(hashes, stagingDir)
+                .thenApply(fromServer -> {
+                    progressTracker.addFileProgress(fromServer.size());
+                    Set<Path> all = new HashSet<>(downloaded);
+                    all.addAll(fromServer);
+                    return all;
+                });
+    }
+
+    /**
+     * Swaps the staged mod set in, then carries the verified hashes over to the live directory's index and the store.
+     * The Meld data is saved as the instance's from then on.
+     */
+    private void commitStagedMods() {
+        if (meldData == null) return;
+        if (changedMods.isEmpty() && deletedMods.isEmpty()) {
+            saveInstanceData();
+            return;
+        }
+
+        try {
+            modStaging.commit(meldData.modMap().values().stream().map(MeldData.ClientMod::filename).toList());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to replace mods directory", e);
+        }
+
+        deletedMods.values().forEach(modHashIndex::invalidate);
+        deletedMods.clear();
+        deletedModHashes.clear();
+
+        ModStore store = ModStore.getInstance();
+        for (var mod : changedMods.values()) {
+            Path path = modsDir.resolve(mod.filename());
+            try {
+                modHashIndex.record(path, mod.hash());
+                store.ingest(path, mod.hash(), true);
+            } catch (IOException e) {
+                log.warn("Failed to index {}", path, e);
+            }
+        }
+        changedMods.clear();
+
+        modHashIndex.save();
+        store.save();
+        saveInstanceData();
+    }
+
+    /**
+     * Restores the mods directory as it was before the last sync and rescans it.
+     *
+     * @return future completed with the rescan, or with no changes if there was nothing to roll back to
+     */
+    public CompletableFuture<ModChanges> rollbackMods() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return modStaging.rollback();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to roll back mods directory", e);
+            }
+        }, FILE_OPERATIONS_EXECUTOR).thenCompose(rolledBack -> rolledBack
+                ? rescanMods()
+                : CompletableFuture.completedFuture(ModChanges.NONE));
     }
 
     private void launchGame(LaunchArgs launchArgs, UnifiedProgressTracker progressTracker) {
@@ -456,15 +838,4 @@ public class GameInstance {
     public Map<String, Path> getDeletedMods() {
         return deletedMods;
     }
-
-    public void removeDeletedMods() {
-        for (Path file : deletedMods.values()) {
-            try {
-                Files.deleteIfExists(file);
-            } catch (IOException e) {
-                log.warn("Failed to delete mod file: {}", file, e);
-            }
-        }
-        deletedMods.clear();
-    }
 }
@@ -15,6 +15,6 @@ public class InstanceManager {
     }
 
     public static void newInstance(String address) {
-        instances.putIfAbsent(address, new GameInstance(address));
+        instances.computeIfAbsent(address, GameInstance::new);
     }
 }
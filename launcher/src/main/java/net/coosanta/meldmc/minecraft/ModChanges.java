@@ -0,0 +1,20 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.network.client.MeldData;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Difference between an instance's mods directory and the mods its Meld server expects.
+ *
+ * @param changedMods K: SHA-512 hash. V: mod that is missing or outdated and has to be downloaded
+ * @param deletedMods K: file name. V: file in the mods directory that is not part of the server's mod set
+ */
+public record ModChanges(Map<String, MeldData.ClientMod> changedMods, Map<String, Path> deletedMods) {
+    public static final ModChanges NONE = new ModChanges(Map.of(), Map.of());
+
+    public boolean isEmpty() {
+        return changedMods.isEmpty() && deletedMods.isEmpty();
+    }
+}
@@ -0,0 +1,344 @@
+package net.coosanta.meldmc.minecraft;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.coosanta.meldmc.utility.FileHasher;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent hash cache for the files of one directory, stored as a JSON file. Mods are indexed by SHA-512, libraries by
+ * SHA-1.
+ * <p>
+ * Entries are keyed by path relative to the indexed directory and are only trusted while the file's size, modification
+ * time and file key still match what was recorded when the file was hashed. An entry is not trusted when:
+ * <ul>
+ *     <li>any of those attributes differ (the file was replaced, rewritten or touched),</li>
+ *     <li>the file was modified within {@link #RACY_WINDOW_MILLIS} of being hashed, since coarse timestamps cannot prove
+ *     that a later write did not happen within the same tick; files the launcher {@linkplain #record recorded} after
+ *     writing and verifying them are exempt,</li>
+ *     <li>the index file was written by a different {@link #FORMAT_VERSION} or cannot be read.</li>
+ * </ul>
+ * In {@link VerificationMode#FAST}, an entry whose size and modification time are unchanged but whose file key differs
+ * (e.g. the directory was restored from a backup or copied) gets a second chance: if a
+ * {@linkplain FileHasher#fingerprint fingerprint} of the file's first and last blocks still matches, the recorded hash
+ * is kept without reading the whole file. A changed size or modification time always means rehashing, since the
+ * fingerprint cannot see edits in the middle of a file. {@link VerificationMode#FULL} always rehashes and is meant for
+ * files that are shared or could be incomplete. {@link #clear()} drops every entry, which forces a full rescan on the
+ * next lookup.
+ */
+public class ModHashIndex {
+    private static final Logger log = LoggerFactory.getLogger(ModHashIndex.class);
+
+    static final int FORMAT_VERSION = 3;
+    static final long RACY_WINDOW_MILLIS = 2000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path indexFile;
+    private final Path baseDir;
+    private final FileHasher.Algorithm algorithm;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private volatile boolean loaded;
+
+    private ModHashIndex(Path indexFile, Path baseDir, FileHasher.Algorithm algorithm) {
+        this.indexFile = indexFile;
+        this.baseDir = baseDir;
+        this.algorithm = algorithm;
+    }
+
+    public enum VerificationMode {
+        /**
+         * Trust a recorded hash if the file's size, modification time and fingerprint still match.
+         */
+        FAST,
+        /**
+         * Rehash whenever the file's attributes changed.
+         */
+        FULL
+    }
+
+    /**
+     * Opens the index without touching the disk. The index file is read on first use; if it is missing, unreadable or
+     * from another format version the index starts empty.
+     *
+     * @param indexFile file the index is persisted to
+     * @param baseDir   directory whose files are indexed
+     * @return the index
+     */
+    public static ModHashIndex open(Path indexFile, Path baseDir) {
+        return open(indexFile, baseDir, FileHasher.Algorithm.SHA_512);
+    }
+
+    /**
+     * Opens an index of a different hash than SHA-512, see {@link #open(Path, Path)}.
+     */
+    public static ModHashIndex open(Path indexFile, Path baseDir, FileHasher.Algorithm algorithm) {
+        return new ModHashIndex(indexFile, baseDir, algorithm);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            // Only published once the entries are in, so no other thread sees an empty index meanwhile
+            load();
+            loaded = true;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) return;
+
+        try {
+            IndexFile stored = MAPPER.readValue(indexFile.toFile(), IndexFile.class);
+            if (stored.version() != FORMAT_VERSION || stored.entries() == null) {
+                log.info("Discarding mod hash index {} (format {} != {})", indexFile, stored.version(), FORMAT_VERSION);
+                dirty = true;
+            } else {
+                entries.putAll(stored.entries());
+            }
+        } catch (IOException e) {
+            log.warn("Mod hash index {} is unreadable, rescanning", indexFile, e);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns the hash of a file in {@link VerificationMode#FAST}.
+     *
+     * @param file file inside the indexed directory
+     * @return lowercase hex hash of the file
+     */
+    public String hash(Path file) throws IOException, NoSuchAlgorithmException {
+        return hash(file, VerificationMode.FAST);
+    }
+
+    /**
+     * Returns the hash of a file, only reading its contents if the recorded entry no longer matches.
+     *
+     * @param file file inside the indexed directory
+     * @param mode whether a matching fingerprint is enough to keep a recorded hash of an unchanged size and
+     *             modification time
+     * @return lowercase hex hash of the file
+     */
+    public String hash(Path file, VerificationMode mode) throws IOException, NoSuchAlgorithmException {
+        ensureLoaded();
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String key = keyOf(file);
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(attrs)) {
+            return entry.hash();
+        }
+
+        // Only the file key changed: a copy or restore keeps contents, size and modification time
+        boolean relocated = entry != null && !entry.racy() && entry.sameStat(attrs);
+        if (mode == VerificationMode.FAST && relocated && entry.fingerprint() != null) {
+            String fingerprint = FileHasher.fingerprint(file);
+            BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+            if (fingerprint.equals(entry.fingerprint()) && Entry.sameFile(attrs, after)) {
+                put(key, Entry.of(entry.hash(), fingerprint, after));
+                return entry.hash();
+            }
+        }
+
+        String hash = FileHasher.hash(file, algorithm);
+        String fingerprint = FileHasher.fingerprint(file);
+
+        // Re-read in case the file changed while it was being hashed; such a result is returned but never trusted.
+        BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+        if (Entry.sameFile(attrs, after)) {
+            put(key, Entry.of(hash, fingerprint, after));
+        } else {
+            invalidate(file);
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes many files through the index, reading at most {@code parallelism} of them at the same time.
+     *
+     * @return K: file. V: its hash. Files that could not be read are left out
+     */
+    public CompletableFuture<Map<Path, String>> hashAll(Collection<Path> files, VerificationMode mode, int parallelism,
+                                                       Executor executor) {
+        Map<Path, String> results = new ConcurrentHashMap<>();
+        Queue<Path> pending = new ConcurrentLinkedQueue<>(files);
+
+        int workers = Math.min(files.size(), Math.max(1, parallelism));
+        CompletableFuture<?>[] tasks = new CompletableFuture[workers];
+        for (int i = 0; i < workers; i++) {
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                Path file;
+                while ((file = pending.poll()) != null) {
+                    try {
+                        results.put(file, hash(file, mode));
+                    } catch (IOException e) {
+                        log.debug("Failed to hash {}", file, e);
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, executor);
+        }
+
+        return CompletableFuture.allOf(tasks).thenApply(v -> results);
+    }
+
+    /**
+     * Returns the recorded hash of a file without reading its contents.
+     *
+     * @param file file inside the indexed directory
+     * @return the hash if the recorded entry still matches the file, otherwise null
+     */
+    public @Nullable String cachedHash(Path file) {
+        ensureLoaded();
+        Entry entry = entries.get(keyOf(file));
+        if (entry == null) return null;
+
+        try {
+            return entry.matches(Files.readAttributes(file, BasicFileAttributes.class)) ? entry.hash() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the hash of a file the launcher wrote, closed and verified itself, e.g. while downloading it. Unlike a
+     * hashed file, the entry is trusted even if the file was just modified: the racy window guards against a write
+     * nobody saw within the same timestamp tick, and nothing else writes a file the launcher has just finished.
+     */
+    public void record(Path file, String hash) throws IOException {
+        ensureLoaded();
+        String fingerprint = FileHasher.fingerprint(file);
+        put(keyOf(file), Entry.verified(hash, fingerprint, Files.readAttributes(file, BasicFileAttributes.class)));
+    }
+
+    /**
+     * Moves an entry after its file was renamed. Renames keep size, modification time and file key, so the entry stays valid.
+     */
+    public void moved(Path from, Path to) {
+        ensureLoaded();
+        Entry entry = entries.remove(keyOf(from));
+        if (entry != null) {
+            put(keyOf(to), entry);
+        }
+    }
+
+    public void invalidate(Path file) {
+        ensureLoaded();
+        if (entries.remove(keyOf(file)) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops entries for every file that is not in {@code present}.
+     */
+    public void retain(Collection<Path> present) {
+        ensureLoaded();
+        Set<String> keys = present.stream().map(this::keyOf).collect(Collectors.toSet());
+        if (entries.keySet().retainAll(keys)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops every entry so that all files are rehashed on their next lookup.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        loaded = true;
+        dirty = true;
+    }
+
+    /**
+     * Writes the index to disk if it changed since it was loaded or last saved.
+     */
+    public synchronized void save() {
+        ensureLoaded();
+        if (!dirty) return;
+
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path tmp = Files.createTempFile(indexFile.getParent(), "mod-index-", ".tmp");
+            try {
+                MAPPER.writeValue(tmp.toFile(), new IndexFile(FORMAT_VERSION, Map.copyOf(entries)));
+                try {
+                    Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            // The index is only a cache, a failed save just means rehashing next time.
+            log.warn("Failed to save mod hash index {}", indexFile, e);
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        if (!entry.equals(entries.put(key, entry))) {
+            dirty = true;
+        }
+    }
+
+    private String keyOf(Path file) {
+        return baseDir.relativize(file).toString().replace('\\', '/');
+    }
+
+    record Entry(String hash, @Nullable String fingerprint, long size, long modified, @Nullable String fileKey,
+                 boolean racy) {
+        static Entry of(String hash, String fingerprint, BasicFileAttributes attrs) {
+            long modified = attrs.lastModifiedTime().toMillis();
+            boolean racy = System.currentTimeMillis() - modified < RACY_WINDOW_MILLIS;
+            return new Entry(hash, fingerprint, attrs.size(), modified, fileKeyOf(attrs), racy);
+        }
+
+        /**
+         * @return an entry for a file whose contents the launcher wrote and verified, never racy
+         */
+        static Entry verified(String hash, String fingerprint, BasicFileAttributes attrs) {
+            return new Entry(hash, fingerprint, attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs),
+                    false);
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return !racy && sameStat(attrs) && Objects.equals(fileKey, fileKeyOf(attrs));
+        }
+
+        /**
+         * @return whether the file still has the recorded size and modification time
+         */
+        boolean sameStat(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+        }
+
+        static boolean sameFile(BasicFileAttributes a, BasicFileAttributes b) {
+            return a.size() == b.size()
+                   && a.lastModifiedTime().equals(b.lastModifiedTime())
+                   && Objects.equals(fileKeyOf(a), fileKeyOf(b));
+        }
+
+        private static @Nullable String fileKeyOf(BasicFileAttributes attrs) {
+            Object key = attrs.fileKey();
+            return key == null ? null : key.toString();
+        }
+    }
+
+    private record IndexFile(int version, Map<String, Entry> entries) {
+    }
+}
@@ -0,0 +1,100 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.network.client.MeldData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Everything needed to turn a mods directory into the server's mod set, planned in one pass before any file is touched.
+ * <p>
+ * Files are matched by name first and then by content through a hash to mod index, so every lookup is constant time
+ * regardless of how many mods the server renamed.
+ *
+ * @param renames   K: file on disk. V: the expected name of the same content; the target is always free
+ * @param deletions K: file name. V: file that is not part of the mod set. Removed by not staging it, see
+ *                  {@link ModStaging}
+ * @param downloads K: SHA-512 hash. V: mod that is missing or outdated
+ */
+public record ModReconciliation(Map<Path, Path> renames, Map<String, Path> deletions,
+                                Map<String, MeldData.ClientMod> downloads) {
+    private static final Logger log = LoggerFactory.getLogger(ModReconciliation.class);
+
+    /**
+     * Plans the reconciliation of a directory.
+     *
+     * @param modsDir    directory the files are in
+     * @param fileHashes K: file in {@code modsDir}. V: its SHA-512 hash
+     * @param expected   mods the directory should contain
+     * @return the plan
+     */
+    public static ModReconciliation plan(Path modsDir, Map<Path, String> fileHashes, Collection<MeldData.ClientMod> expected) {
+        Map<String, MeldData.ClientMod> byName = new HashMap<>(expected.size() * 2);
+        Map<String, MeldData.ClientMod> byHash = new HashMap<>(expected.size() * 2);
+        for (var mod : expected) {
+            byName.put(mod.filename(), mod);
+            byHash.put(mod.hash(), mod);
+        }
+
+        // Sorted for a stable result when several files have the same contents.
+        List<Path> files = new ArrayList<>(fileHashes.keySet());
+        files.sort(Comparator.comparing(path -> path.getFileName().toString()));
+
+        Set<String> occupiedNames = new HashSet<>();
+        Set<String> satisfied = new HashSet<>(); // hashes already present under their expected name
+        List<Path> unknown = new ArrayList<>();
+        Map<String, MeldData.ClientMod> downloads = new LinkedHashMap<>();
+
+        // Claim files with the expected name first, so a rename can never target a file that is still there.
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            var mod = byName.get(name);
+            if (mod == null) {
+                unknown.add(file);
+                continue;
+            }
+            occupiedNames.add(name);
+            if (mod.hash().equals(fileHashes.get(file))) {
+                satisfied.add(mod.hash());
+            } else {
+                downloads.put(mod.hash(), mod);
+            }
+        }
+
+        Map<Path, Path> renames = new LinkedHashMap<>();
+        Map<String, Path> deletions = new LinkedHashMap<>();
+        for (Path file : unknown) {
+            var mod = byHash.get(fileHashes.get(file));
+            if (mod != null && !satisfied.contains(mod.hash()) && !occupiedNames.contains(mod.filename())) {
+                renames.put(file, modsDir.resolve(mod.filename()));
+                satisfied.add(mod.hash());
+                occupiedNames.add(mod.filename());
+            } else {
+                deletions.put(file.getFileName().toString(), file);
+            }
+        }
+
+        for (var mod : expected) {
+            if (!satisfied.contains(mod.hash())) {
+                downloads.putIfAbsent(mod.hash(), mod);
+            }
+        }
+
+        return new ModReconciliation(renames, deletions, downloads);
+    }
+
+    /**
+     * Performs the planned renames, carrying their hash index entries over.
+     */
+    public void applyRenames(ModHashIndex index) throws IOException {
+        for (var rename : renames.entrySet()) {
+            log.debug("Renaming mod {} -> {}", rename.getKey().getFileName(), rename.getValue().getFileName());
+            Files.move(rename.getKey(), rename.getValue());
+            index.moved(rename.getKey(), rename.getValue());
+        }
+    }
+}
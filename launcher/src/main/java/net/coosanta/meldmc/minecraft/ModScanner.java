@@ -0,0 +1,154 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.network.client.MeldData;
+import net.coosanta.meldmc.utility.StorageProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Compares an instance's mods directory against the mods a Meld server expects without blocking the calling thread.
+ * <p>
+ * Files are hashed in parallel through the instance's {@link ModHashIndex}, with the number of concurrent reads bounded
+ * by the {@link StorageProfile} of the disk the mods live on. Mods that are known to need downloading while hashing is
+ * still running are published to the {@link Listener} straight away; renames and deletions are planned by
+ * {@link ModReconciliation} once every file has a hash.
+ */
+class ModScanner {
+    private static final Logger log = LoggerFactory.getLogger(ModScanner.class);
+    private static final ExecutorService SCAN_EXECUTOR = GlobalExceptionHandler.fixedThreadPool(
+            StorageProfile.SSD.ioConcurrency(), "mod-scanner"
+    );
+
+    private final Path modsDir;
+    private final ModHashIndex index;
+
+    ModScanner(Path modsDir, ModHashIndex index) {
+        this.modsDir = modsDir;
+        this.index = index;
+    }
+
+    /**
+     * Receives scan results as they are found. Called from scanner threads.
+     */
+    interface Listener {
+        void onChanged(MeldData.ClientMod mod);
+
+        /**
+         * @param hash the file's SHA-512 as hashed by this scan
+         */
+        void onDeleted(String filename, Path path, String hash);
+    }
+
+    CompletableFuture<ModChanges> scan(MeldData meldData, Listener listener) {
+        Map<String, MeldData.ClientMod> expectedByName = meldData.modMap().values().stream()
+                .collect(Collectors.toMap(MeldData.ClientMod::filename, m -> m));
+
+        return CompletableFuture.supplyAsync(this::listFiles, SCAN_EXECUTOR)
+                .thenCompose(files -> hashAll(files, expectedByName, listener))
+                .thenApplyAsync(hashes -> {
+                    ModChanges result = reconcile(hashes, meldData.modMap().values(), listener);
+                    index.save();
+                    return result;
+                }, SCAN_EXECUTOR);
+    }
+
+    /**
+     * Hashes the file a mod of mod data that is still arriving is expected in, so that the scan of the whole mod data
+     * only has to compare it. Files are only read, never renamed, so this may overlap with a scan.
+     *
+     * @return future completed once the file is in the index, or right away if there is no such file
+     */
+    CompletableFuture<Void> prepare(MeldData.ClientMod mod) {
+        Path file = modsDir.resolve(mod.filename());
+        if (!modsDir.equals(file.getParent())) return CompletableFuture.completedFuture(null);
+
+        return CompletableFuture.runAsync(() -> {
+            if (!Files.isRegularFile(file) || index.cachedHash(file) != null) return;
+            try {
+                index.hash(file);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                log.debug("Failed to hash {} ahead of the scan", file, e);
+            }
+        }, SCAN_EXECUTOR);
+    }
+
+    private List<Path> listFiles() {
+        if (!Files.exists(modsDir)) {
+            index.clear();
+            return List.of();
+        }
+
+        try (var stream = Files.list(modsDir).filter(Files::isRegularFile)) {
+            List<Path> files = stream.toList();
+            index.retain(files);
+            return files;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to scan mods directory", e);
+        }
+    }
+
+    private CompletableFuture<Map<Path, String>> hashAll(List<Path> files, Map<String, MeldData.ClientMod> expectedByName,
+                                                         Listener listener) {
+        Map<Path, String> hashes = new ConcurrentHashMap<>();
+        Queue<Path> pending = new ConcurrentLinkedQueue<>(files);
+
+        int workers = Math.min(files.size(), StorageProfile.detect(modsDir).ioConcurrency());
+        CompletableFuture<?>[] tasks = new CompletableFuture[workers];
+        for (int i = 0; i < workers; i++) {
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                Path file;
+                while ((file = pending.poll()) != null) {
+                    String hash = hash(file);
+                    if (hash == null) continue;
+                    hashes.put(file, hash);
+
+                    // A file with the expected name but different contents will be replaced no matter what else is found
+                    var expected = expectedByName.get(file.getFileName().toString());
+                    if (expected != null && !expected.hash().equals(hash)) {
+                        listener.onChanged(expected);
+                    }
+                }
+            }, SCAN_EXECUTOR);
+        }
+
+        return CompletableFuture.allOf(tasks).thenApply(v -> hashes);
+    }
+
+    private String hash(Path file) {
+        try {
+            return index.hash(file);
+        } catch (NoSuchFileException e) {
+            log.debug("Mod file removed during scan: {}", file);
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to hash mod file: " + file.getFileName(), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ModChanges reconcile(Map<Path, String> hashes, Collection<MeldData.ClientMod> expected, Listener listener) {
+        var plan = ModReconciliation.plan(modsDir, hashes, expected);
+        try {
+            plan.applyRenames(index);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to rename mod files", e);
+        }
+
+        plan.deletions().forEach((filename, path) -> listener.onDeleted(filename, path, hashes.get(path)));
+        plan.downloads().values().forEach(listener::onChanged);
+
+        return new ModChanges(plan.downloads(), plan.deletions());
+    }
+}
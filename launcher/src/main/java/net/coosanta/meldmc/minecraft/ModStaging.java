@@ -0,0 +1,194 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.network.PartialDownload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Assembles the next generation of an instance's mods directory next to it, then swaps it in once it is complete.
+ * <p>
+ * Unchanged mods are hardlinked from the live directory, so staging them costs no copying, and the live directory is
+ * never written to during a sync. A failed or interrupted sync leaves the instance with its previous mods, and whatever
+ * was already verified in the staging directory is reused by the next attempt. The replaced generation is kept as
+ * {@code mods.previous} until the next swap so that it can be restored with {@link #rollback()}.
+ * <p>
+ * Java cannot exchange two directories in one call, so the swap is two renames. {@link #recover()} puts the previous
+ * generation back if the launcher stopped in between.
+ */
+class ModStaging {
+    private static final Logger log = LoggerFactory.getLogger(ModStaging.class);
+
+    private final Path liveDir;
+    private final Path stagingDir;
+    private final Path previousDir;
+    private final ModHashIndex stagingIndex;
+
+    ModStaging(Path liveDir, Path stagingIndexFile) {
+        this.liveDir = liveDir;
+        this.stagingDir = liveDir.resolveSibling(liveDir.getFileName() + ".staging");
+        this.previousDir = liveDir.resolveSibling(liveDir.getFileName() + ".previous");
+        this.stagingIndex = ModHashIndex.open(stagingIndexFile, stagingDir);
+    }
+
+    Path dir() {
+        return stagingDir;
+    }
+
+    /**
+     * Restores the previous generation if a swap was interrupted after the live directory was moved away.
+     */
+    void recover() throws IOException {
+        if (!Files.exists(liveDir) && Files.isDirectory(previousDir)) {
+            log.warn("Mods directory {} is missing after an interrupted update, restoring the previous one", liveDir);
+            Files.move(previousDir, liveDir, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Creates the staging directory, keeping files and partial downloads left over from an earlier attempt only if
+     * they are in the new mod set.
+     *
+     * @param filenames names of every mod in the new generation
+     */
+    void begin(Collection<String> filenames) throws IOException {
+        Files.createDirectories(stagingDir);
+
+        List<Path> kept = new ArrayList<>();
+        try (var stream = Files.list(stagingDir)) {
+            for (Path file : stream.toList()) {
+                String name = file.getFileName().toString();
+                String partOf = PartialDownload.targetName(name);
+                if (!Files.isRegularFile(file)) {
+                    deleteRecursively(file);
+                } else if (filenames.contains(name)) {
+                    kept.add(file);
+                } else if (partOf == null || !filenames.contains(partOf)) {
+                    // Interrupted downloads of mods that are still wanted are resumed, see PartialDownload
+                    deleteRecursively(file);
+                }
+            }
+        }
+        stagingIndex.retain(kept);
+    }
+
+    /**
+     * Carries a mod over from the live directory.
+     */
+    void link(String filename) throws IOException {
+        Path source = liveDir.resolve(filename);
+        Path target = stagingDir.resolve(filename);
+        if (Files.exists(target)) {
+            if (Files.isSameFile(source, target)) return;
+            Files.delete(target);
+        }
+
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug("Cannot hardlink {} into staging, copying instead", filename, e);
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return whether the staging directory already holds the wanted content under this name, e.g. from a failed sync
+     */
+    boolean isStaged(String filename, String hash) {
+        Path file = stagingDir.resolve(filename);
+        if (!Files.isRegularFile(file)) return false;
+
+        try {
+            return hash.equals(stagingIndex.hash(file, ModHashIndex.VerificationMode.FULL));
+        } catch (IOException e) {
+            return false;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records the hash of a file that was verified while it was written into the staging directory.
+     */
+    void staged(Path file, String hash) throws IOException {
+        stagingIndex.record(file, hash);
+    }
+
+    /**
+     * Swaps the staging directory in as the live one, keeping the replaced directory as the previous generation.
+     * Anything in the staging directory that is not a wanted mod, such as a partial download of a source that lost a
+     * race, is deleted first so that it does not turn up among the mods.
+     *
+     * @param filenames names of every mod in the new generation
+     */
+    void commit(Collection<String> filenames) throws IOException {
+        List<Path> kept = new ArrayList<>();
+        try (var stream = Files.list(stagingDir)) {
+            for (Path file : stream.toList()) {
+                if (Files.isRegularFile(file) && filenames.contains(file.getFileName().toString())) {
+                    kept.add(file);
+                } else {
+                    log.debug("Deleting {} from staging, it is not part of the mod set", file.getFileName());
+                    deleteRecursively(file);
+                }
+            }
+        }
+        stagingIndex.retain(kept);
+        stagingIndex.save();
+        deleteRecursively(previousDir);
+
+        boolean hadLive = Files.exists(liveDir);
+        if (hadLive) {
+            Files.move(liveDir, previousDir, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(stagingDir, liveDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (hadLive) {
+                Files.move(previousDir, liveDir, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+
+        stagingIndex.clear();
+        stagingIndex.save();
+        log.debug("Swapped in new mods directory {}", liveDir);
+    }
+
+    /**
+     * Puts the previous generation back. The rolled back generation becomes the staging directory, so syncing again
+     * does not download anything it contained.
+     *
+     * @return false if there is no previous generation
+     */
+    boolean rollback() throws IOException {
+        if (!Files.isDirectory(previousDir)) return false;
+
+        deleteRecursively(stagingDir);
+        stagingIndex.clear();
+        if (Files.exists(liveDir)) {
+            Files.move(liveDir, stagingDir, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(previousDir, liveDir, StandardCopyOption.ATOMIC_MOVE);
+        stagingIndex.save();
+        log.info("Rolled back mods directory {}", liveDir);
+        return true;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return;
+
+        try (var paths = Files.walk(path)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
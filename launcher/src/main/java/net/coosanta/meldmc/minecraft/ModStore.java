@@ -0,0 +1,134 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.Main;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed store of mod jars shared by every Meld instance, keyed by SHA-512.
+ * <p>
+ * Blobs live in {@code meldstore/<first two hex chars>/<hash>.jar} under the game directory. Instances get their files
+ * through {@link #materialize}, which hardlinks the blob into the mods directory and falls back to a copy when the two
+ * are on different file systems. Java has no reflink API, so copy-on-write clones are not attempted.
+ * <p>
+ * Since hardlinked files share their contents with the store, every blob is checked against its key through the
+ * store's own {@link ModHashIndex} before use. A blob that was changed in place is only rehashed once, then evicted.
+ */
+public final class ModStore {
+    private static final Logger log = LoggerFactory.getLogger(ModStore.class);
+
+    private static volatile ModStore instance;
+
+    private final Path storeDir;
+    private final ModHashIndex index;
+
+    ModStore(Path storeDir) {
+        this.storeDir = storeDir;
+        this.index = ModHashIndex.open(storeDir.resolve("index.json"), storeDir);
+    }
+
+    public static ModStore getInstance() {
+        if (instance == null) {
+            synchronized (ModStore.class) {
+                if (instance == null) {
+                    instance = new ModStore(Main.getLaunchArgs().getGameDir().resolve("meldstore"));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param hash SHA-512 of the mod
+     * @return where the blob for a hash is, or would be, stored
+     */
+    public Path blobPath(String hash) {
+        return storeDir.resolve(hash.substring(0, 2)).resolve(hash + ".jar");
+    }
+
+    public boolean contains(String hash) {
+        return Files.isRegularFile(blobPath(hash));
+    }
+
+    /**
+     * Places the stored blob for a hash at {@code target}, replacing whatever is there.
+     *
+     * @param hash   SHA-512 of the wanted mod
+     * @param target file to create
+     * @return true if the store had a valid blob and the target now holds it, false if it has to be downloaded
+     */
+    public boolean materialize(String hash, Path target) throws IOException {
+        Path blob = blobPath(hash);
+        if (!Files.isRegularFile(blob) || !isIntact(hash, blob)) return false;
+
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, blob);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug("Cannot hardlink {} into {}, copying instead", blob.getFileName(), target.getParent(), e);
+            Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a file whose hash is already verified to the store, if it is not there yet.
+     *
+     * @param file  verified file, left in place
+     * @param hash  SHA-512 of the file
+     * @param copy  whether to copy the file when it cannot be hardlinked into the store
+     */
+    public void ingest(Path file, String hash, boolean copy) {
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) return;
+
+        try {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, file);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                if (e instanceof FileAlreadyExistsException) return;
+                if (!copy) return;
+
+                Path tmp = Files.createTempFile(blob.getParent(), "ingest-", ".tmp");
+                try {
+                    Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException ignore) {
+                    // Another instance stored it first
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            index.record(blob, hash);
+        } catch (IOException e) {
+            // The store is only an optimisation, the instance keeps its own file.
+            log.warn("Failed to add {} to the mod store", file.getFileName(), e);
+        }
+    }
+
+    private boolean isIntact(String hash, Path blob) throws IOException {
+        try {
+            if (hash.equals(index.hash(blob, ModHashIndex.VerificationMode.FULL))) return true;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        log.warn("Mod store blob {} does not match its hash, evicting it", blob.getFileName());
+        Files.deleteIfExists(blob);
+        index.invalidate(blob);
+        return false;
+    }
+
+    /**
+     * Persists the store's hash index. Call after a batch of {@link #materialize} or {@link #ingest} calls.
+     */
+    public void save() {
+        index.save();
+    }
+}
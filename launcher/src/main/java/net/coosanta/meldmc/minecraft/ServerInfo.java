@@ -13,7 +13,10 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Represents information about a Minecraft server.
@@ -36,6 +39,7 @@ public class ServerInfo {
     private boolean isHttps;
     private boolean selfSigned;
     private MeldData meldData;
+    private final List<Consumer<MeldData.ClientMod>> modListeners = new CopyOnWriteArrayList<>();
 
     /**
      * Creates a new server info instance with the given name and address.
@@ -118,7 +122,48 @@ public class ServerInfo {
 
     public synchronized void setMeldData(MeldData meldData) {
         this.meldData = meldData;
-        InstanceManager.getInstance(address).setMeldData(meldData);
+        InstanceManager.getInstance(address).setMeldData(meldData)
+                .exceptionally(e -> {
+                    log.error("Failed to scan mods for server {}", address, e);
+                    return null;
+                });
+    }
+
+    /**
+     * @return where to hand each mod of the server's mod data while it is still arriving, before it is
+     * {@linkplain #setMeldData set}: to the instance, which starts comparing it, and to the
+     * {@linkplain #onModArrived listeners}
+     */
+    public Consumer<MeldData.ClientMod> arrivingMods() {
+        Consumer<MeldData.ClientMod> instance = InstanceManager.getInstance(address).arrivingMods();
+        return mod -> {
+            instance.accept(mod);
+            modListeners.forEach(listener -> listener.accept(mod));
+        };
+    }
+
+    /**
+     * Listens for the mods of mod data while it is arriving, e.g. to list them as they are read.
+     *
+     * @param listener called with each mod, on a download thread
+     * @return removes the listener again
+     */
+    public Runnable onModArrived(Consumer<MeldData.ClientMod> listener) {
+        modListeners.add(listener);
+        return () -> modListeners.remove(listener);
+    }
+
+    /**
+     * Takes over mod data that changed since it was last {@linkplain #setMeldData set}, e.g. after a change notice,
+     * letting the instance check only the mods that differ.
+     */
+    public synchronized void updateMeldData(MeldData meldData) {
+        this.meldData = meldData;
+        InstanceManager.getInstance(address).updateMeldData(meldData)
+                .exceptionally(e -> {
+                    log.error("Failed to update mods for server {}", address, e);
+                    return null;
+                });
     }
 
     public void setFavicon(@Nullable byte[] favicon) {
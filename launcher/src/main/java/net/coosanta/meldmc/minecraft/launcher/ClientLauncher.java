@@ -2,7 +2,6 @@ package net.coosanta.meldmc.minecraft.launcher;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.coosanta.meldmc.exceptions.ClientJsonNotFoundException;
-import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
 import net.coosanta.meldmc.minecraft.GameInstance;
 import net.coosanta.meldmc.network.UnifiedProgressTracker;
 import org.slf4j.Logger;
@@ -13,7 +12,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 
 import static net.coosanta.meldmc.network.UnifiedProgressTracker.LaunchStage.LIBRARIES;
 import static net.coosanta.meldmc.network.UnifiedProgressTracker.LaunchStage.STARTING;
@@ -28,7 +26,6 @@ public class ClientLauncher {
     static final Path nativesDir;
 
     private final UnifiedProgressTracker progressTracker;
-    private final ExecutorService downloadExecutor;
 
     private final ClientJsonResolver jsonResolver;
     private final LibraryDownloader libraryDownloader;
@@ -74,14 +71,10 @@ public class ClientLauncher {
     public ClientLauncher(UnifiedProgressTracker progressTracker) {
         createDirectories();
 
-        this.downloadExecutor = GlobalExceptionHandler.fixedThreadPool(
-                3 * Runtime.getRuntime().availableProcessors(),
-                "library-downloader");
-
         var ruleEvaluator = new RuleEvaluator();
 
         this.jsonResolver = new ClientJsonResolver(versionsDir);
-        this.libraryDownloader = new LibraryDownloader(librariesDir, nativesDir, downloadExecutor, ruleEvaluator, progressTracker);
+        this.libraryDownloader = new LibraryDownloader(librariesDir, nativesDir, ruleEvaluator, progressTracker);
         this.commandBuilder = new CommandBuilder(ruleEvaluator);
         this.progressTracker = progressTracker;
     }
@@ -109,7 +102,7 @@ public class ClientLauncher {
 
         ObjectNode clientData = jsonResolver.loadClientJson(instance.getMeldData().versionId());
 
-        List<Path> classpath = libraryDownloader.downloadLibraries(clientData);
+        List<Path> classpath = libraryDownloader.downloadLibraries(clientData, launchArgs.getLibraryMirrors());
 
         addClientJarToClasspath(clientData, classpath);
 
@@ -151,18 +144,4 @@ public class ClientLauncher {
             log.error("Client jar download failed.", e);
         }
     }
-
-    public void shutdown() {
-        if (downloadExecutor != null && !downloadExecutor.isShutdown()) {
-            downloadExecutor.shutdown();
-            try {
-                if (!downloadExecutor.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS)) {
-                    downloadExecutor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                downloadExecutor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }
-    }
 }
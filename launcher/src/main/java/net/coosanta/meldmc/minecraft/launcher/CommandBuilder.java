@@ -31,9 +31,16 @@ public class CommandBuilder {
      * Build the complete launch command
      */
     public List<String> buildCommand(ObjectNode clientData, List<Path> classpath, LaunchArgs launchArgs, GameInstance instance) {
+        return buildCommand(clientData, classpath, launchArgs, instance.getInstanceDir());
+    }
+
+    /**
+     * Build the complete launch command for a game directory
+     */
+    public List<String> buildCommand(ObjectNode clientData, List<Path> classpath, LaunchArgs launchArgs, Path gameDir) {
         List<String> command = new ArrayList<>();
 
-        buildPlaceholders(launchArgs, classpath, instance);
+        buildPlaceholders(launchArgs, classpath, gameDir);
 
         var javaExec = JavaLocator.javaPathFromPid();
         if (javaExec.isEmpty())
@@ -126,10 +133,10 @@ public class CommandBuilder {
         return false;
     }
 
-    private void buildPlaceholders(LaunchArgs launchArgs, List<Path> classpath, GameInstance instance) {
+    private void buildPlaceholders(LaunchArgs launchArgs, List<Path> classpath, Path gameDir) {
         placeholders.put("auth_player_name", launchArgs.getUsername());
         placeholders.put("version_name", launchArgs.getVersion());
-        placeholders.put("game_directory", instance.getInstanceDir().toString());
+        placeholders.put("game_directory", gameDir.toString());
         placeholders.put("assets_root", launchArgs.getAssetsDir().toString());
         placeholders.put("assets_index_name", launchArgs.getAssetIndex());
         placeholders.put("auth_uuid", launchArgs.getUuid());
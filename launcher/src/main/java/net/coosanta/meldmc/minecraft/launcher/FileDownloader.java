@@ -1,43 +1,152 @@
 package net.coosanta.meldmc.minecraft.launcher;
 
+import net.coosanta.meldmc.network.DownloadJob;
+import net.coosanta.meldmc.network.DownloadManager;
+import net.coosanta.meldmc.network.DownloadSink;
+import net.coosanta.meldmc.network.PartialDownload;
 import net.coosanta.meldmc.network.ProgressCallback;
-import net.coosanta.meldmc.network.ProgressTrackingInputStream;
+import net.coosanta.meldmc.network.http.DownloadPolicy;
+import net.coosanta.meldmc.network.http.SharedHttpClient;
+import net.coosanta.meldmc.network.http.SinkBodySubscriber;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
+/**
+ * Downloads launcher files, such as libraries and client jars, through the launcher's {@link SharedHttpClient}, with
+ * requests to each host capped by its {@link net.coosanta.meldmc.network.http.HostConcurrencyLimiter}.
+ */
 public class FileDownloader {
+    private static final DownloadPolicy POLICY = DownloadPolicy.DEFAULT;
+
+    /**
+     * Downloads a file that the launch is waiting for, ahead of any other queued download.
+     */
     public static void downloadFile(String urlString, Path destination) throws IOException {
-        downloadFile(urlString, destination, null);
+        DownloadManager.placeAt(submit(List.of(urlString), destination, DownloadManager.Priority.CRITICAL, -1).await(),
+                destination);
     }
 
-    public static void downloadFile(String urlString, Path destination, ProgressCallback progressCallback) throws IOException {
-        Files.createDirectories(destination.getParent());
+    /**
+     * Queues a download with the {@link DownloadManager}. Downloads of the same first source are shared, so the job's
+     * result may be where another caller asked for the file; see {@link DownloadManager#placeAt}.
+     *
+     * @param sources       URLs of the file, in order of preference
+     * @param expectedBytes size of the file, -1 if unknown
+     * @return the job, completed with the downloaded file
+     */
+    public static DownloadJob<Path> submit(List<String> sources, Path destination, DownloadManager.Priority priority,
+                                           long expectedBytes) {
+        return DownloadManager.getInstance().submit("url:" + sources.getFirst(), priority,
+                destination.getFileName().toString(), expectedBytes,
+                progress -> downloadFile(sources, destination, expectedBytes, progress));
+    }
 
-        URI uri = URI.create(urlString);
-        URLConnection connection = uri.toURL().openConnection();
+    /**
+     * Downloads a file according to {@link DownloadPolicy#DEFAULT}, trying each source in turn.
+     * <p>
+     * Data is written through a {@link PartialDownload}, so a retry, or the next launch, continues where an interrupted
+     * attempt stopped. The partial data is tied to the first source; a mirror only continues it if it serves the same
+     * file, as checked by {@code If-Range}.
+     *
+     * @param sources          URLs of the file, in order of preference
+     * @param expectedBytes    size of the file, -1 if unknown
+     * @param progressCallback receives the number of bytes downloaded since its last call
+     * @return future of the downloaded file; cancelling it aborts the request in flight
+     */
+    private static CompletableFuture<Path> downloadFile(List<String> sources, Path destination, long expectedBytes,
+                                                        ProgressCallback progressCallback) {
+        Executor ioExecutor = DownloadManager.getInstance().ioExecutor();
+        // Completed when the download is cancelled, to abort the request
+        CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        CompletableFuture<Path> download = CompletableFuture
+                .runAsync(() -> createParent(destination), ioExecutor)
+                .thenCompose(unused -> POLICY.executeAsync(sources, source -> download(URI.create(source),
+                        sources.getFirst(), destination, expectedBytes, progressCallback, abandoned, ioExecutor)));
+        download.whenComplete((path, ex) -> {
+            if (download.isCancelled()) abandoned.complete(null);
+        });
+        return download;
+    }
 
-        long contentLength = -1;
-        if (connection instanceof HttpURLConnection) {
-            contentLength = connection.getContentLengthLong();
-        }
+    private static CompletableFuture<Path> download(URI uri, String identity, Path destination, long expectedBytes,
+                                                    ProgressCallback progressCallback, CompletableFuture<Void> abandoned,
+                                                    Executor ioExecutor) {
+        // The host slot is held until the file is in place, and released while waiting to retry.
+        return SharedHttpClient.limiter().submit(uri, () -> CompletableFuture
+                .supplyAsync(() -> openPartial(destination, identity, expectedBytes), ioExecutor)
+                .thenCompose(partial -> {
+                    if (partial.isComplete()) {
+                        // Every byte arrived before the last attempt was cut short
+                        return CompletableFuture.supplyAsync(() -> complete(partial), ioExecutor);
+                    }
 
-        try (InputStream in = connection.getInputStream()) {
-            InputStream downloadStream = in;
+                    HttpRequest.Builder request = HttpRequest.newBuilder()
+                            .uri(uri)
+                            .header("User-Agent", SharedHttpClient.USER_AGENT)
+                            .timeout(POLICY.readTimeout())
+                            .GET();
+                    partial.addRangeHeaders(request::header);
 
-            if (progressCallback != null && contentLength > 0) {
-                var trackingStream = new ProgressTrackingInputStream(in, contentLength, true, progressCallback);
-                trackingStream.setCurrentFileName(destination.getFileName().toString());
-                downloadStream = trackingStream;
+                    // A body cut short fails the exchange, so the partial data only has to be moved into place
+                    var exchange = SharedHttpClient.get().sendAsync(request.build(),
+                            info -> bodyHandler(partial, progressCallback, info));
+                    abandoned.thenRun(() -> exchange.cancel(true));
+                    return exchange.thenApplyAsync(response -> complete(partial), ioExecutor);
+                }));
+    }
+
+    /**
+     * Picks where the body goes once the response headers are known: appended to the partial data if the server
+     * honoured the range, otherwise into a fresh file. A 416 that gets this far means the partial data is the whole
+     * file already, so its body is ignored.
+     */
+    private static HttpResponse.BodySubscriber<DownloadSink> bodyHandler(PartialDownload partial,
+                                                                        ProgressCallback progressCallback,
+                                                                        HttpResponse.ResponseInfo info) {
+        try {
+            boolean append = partial.beginResponse(info.statusCode(), info.headers()::firstValue);
+            if (info.statusCode() == 416) {
+                return HttpResponse.BodySubscribers.replacing(null);
             }
+            long contentLength = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+            DownloadSink sink = partial.openSink(append, null, progressCallback, contentLength);
+            return POLICY.guardStalls(new SinkBodySubscriber(sink));
+        } catch (IOException e) {
+            return SinkBodySubscriber.failing(e);
+        }
+    }
+
+    private static void createParent(Path destination) {
+        try {
+            Files.createDirectories(destination.getParent());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static PartialDownload openPartial(Path destination, String identity, long expectedBytes) {
+        try {
+            return PartialDownload.open(destination, identity, expectedBytes, null);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
 
-            Files.copy(downloadStream, destination, StandardCopyOption.REPLACE_EXISTING);
+    private static Path complete(PartialDownload partial) {
+        try {
+            partial.complete();
+        } catch (IOException e) {
+            throw new CompletionException(e);
         }
+        return partial.target();
     }
 }
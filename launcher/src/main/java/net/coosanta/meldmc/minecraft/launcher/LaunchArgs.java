@@ -1,9 +1,12 @@
 package net.coosanta.meldmc.minecraft.launcher;
 
+import net.coosanta.meldmc.network.BandwidthLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import static net.coosanta.meldmc.Main.DESIGN_HEIGHT;
 import static net.coosanta.meldmc.Main.DESIGN_WIDTH;
@@ -33,6 +36,11 @@ public class LaunchArgs {
     private String quickPlayMultiplayer;
     private String quickPlayRealms;
 
+    // Maven repositories tried, in order, when a library cannot be downloaded from its own URL.
+    private final List<String> libraryMirrors = new ArrayList<>();
+    // Combined download rate in bytes per second, 0 for no limit.
+    private long maxDownloadRate;
+
     public static LaunchArgs parse(String[] args) {
         LaunchArgs la = new LaunchArgs();
 
@@ -61,6 +69,9 @@ public class LaunchArgs {
                 case "--quickPlayMultiplayer" -> la.quickPlayMultiplayer = next(args, ++i, a);
                 case "--quickPlayRealms" -> la.quickPlayRealms = next(args, ++i, a);
 
+                case "--libraryMirror" -> la.libraryMirrors.add(next(args, ++i, a));
+                case "--maxDownloadRate" -> la.maxDownloadRate = parseRate(next(args, ++i, a), "--maxDownloadRate");
+
                 default -> log.debug("Unknown arg ignored: {}", a);
             }
         }
@@ -83,6 +94,14 @@ public class LaunchArgs {
         }
     }
 
+    private static long parseRate(String v, String key) {
+        try {
+            return BandwidthLimiter.parseRate(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate for " + key + ": " + v, e);
+        }
+    }
+
     public String getUsername() {
         return username;
     }
@@ -154,4 +173,12 @@ public class LaunchArgs {
     public String getQuickPlayRealms() {
         return quickPlayRealms;
     }
+
+    public List<String> getLibraryMirrors() {
+        return libraryMirrors;
+    }
+
+    public long getMaxDownloadRate() {
+        return maxDownloadRate;
+    }
 }
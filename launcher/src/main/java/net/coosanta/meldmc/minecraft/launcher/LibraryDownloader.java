@@ -4,18 +4,22 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.minecraft.ModHashIndex;
+import net.coosanta.meldmc.network.DownloadJob;
+import net.coosanta.meldmc.network.DownloadManager;
 import net.coosanta.meldmc.network.UnifiedProgressTracker;
-import net.coosanta.meldmc.utility.ResourceUtil;
+import net.coosanta.meldmc.utility.FileHasher;
+import net.coosanta.meldmc.utility.StorageProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -26,22 +30,28 @@ public class LibraryDownloader {
 
     private final Path librariesDir;
     private final Path nativesDir;
-    private final ExecutorService downloadExecutor;
+    private final ExecutorService ioExecutor;
     private final RuleEvaluator ruleEvaluator;
     private final UnifiedProgressTracker progressTracker;
+    private final ModHashIndex libraryIndex;
 
-    public LibraryDownloader(Path librariesDir, Path nativesDir, ExecutorService downloadExecutor, RuleEvaluator ruleEvaluator, UnifiedProgressTracker progressTracker) {
+    public LibraryDownloader(Path librariesDir, Path nativesDir, RuleEvaluator ruleEvaluator, UnifiedProgressTracker progressTracker) {
         this.librariesDir = librariesDir;
         this.nativesDir = nativesDir;
-        this.downloadExecutor = downloadExecutor;
+        this.ioExecutor = DownloadManager.getInstance().ioExecutor();
         this.ruleEvaluator = ruleEvaluator;
         this.progressTracker = progressTracker;
+        this.libraryIndex = ModHashIndex.open(
+                librariesDir.resolveSibling("library-index.json"), librariesDir, FileHasher.Algorithm.SHA_1
+        );
     }
 
     /**
      * Download all required libraries and return classpath
+     *
+     * @param mirrors base URLs of Maven repositories to fall back to, in order, when a library's own URL fails
      */
-    public List<Path> downloadLibraries(ObjectNode clientData) {
+    public List<Path> downloadLibraries(ObjectNode clientData, List<String> mirrors) {
         if (!clientData.has("libraries")) return List.of();
 
         ArrayNode libraries = (ArrayNode) clientData.get("libraries");
@@ -59,11 +69,13 @@ public class LibraryDownloader {
             entries.add(new LibraryEntry(lib, artifact, isNative, path));
         }
 
+        Set<Path> validFiles = findValidFiles(entries);
+
         // First pass - compute sizes
         long totalBytes = 0;
         int count = 0;
         for (LibraryEntry e : entries) {
-            if (Files.exists(e.path) && isValidFile(e.artifact, e.path)) continue;
+            if (validFiles.contains(e.path)) continue;
             totalBytes += e.artifact.has("size") ? e.artifact.get("size").asLong() : 0;
             count++;
         }
@@ -77,11 +89,11 @@ public class LibraryDownloader {
         for (LibraryEntry e : entries) {
             if (!e.isNative) classpath.add(e.path);
 
-            boolean existsValid = Files.exists(e.path) && isValidFile(e.artifact, e.path);
+            boolean existsValid = validFiles.contains(e.path);
             if (existsValid && e.isNative) {
                 tasks.add(extractAsync(e.path));
             } else if (!existsValid) {
-                tasks.add(downloadAndMaybeExtract(e.lib, e.artifact, e.path, e.isNative));
+                tasks.add(downloadAndMaybeExtract(e.lib, e.artifact, e.path, e.isNative, mirrors));
             }
         }
 
@@ -144,7 +156,7 @@ public class LibraryDownloader {
     }
 
     private CompletableFuture<Void> extractAsync(Path libPath) {
-        return GlobalExceptionHandler.runAsync(() -> extractNative(libPath), downloadExecutor);
+        return GlobalExceptionHandler.runAsync(() -> extractNative(libPath), ioExecutor);
     }
 
     private void extractNative(Path libPath) {
@@ -156,30 +168,33 @@ public class LibraryDownloader {
         }
     }
 
-    private CompletableFuture<Void> downloadAndMaybeExtract(ObjectNode lib, ObjectNode artifactNode, Path libPath, boolean isNative) {
-        return GlobalExceptionHandler.runAsync(() -> {
-            try {
-                String url = getLibraryUrl(artifactNode, lib);
-                Files.createDirectories(libPath.getParent());
-
-                if (progressTracker != null) {
-                    FileDownloader.downloadFile(url, libPath, (bytesRead, totalSize, context) -> {
-                        progressTracker.addBytesProgress(bytesRead);
-                    });
-                    progressTracker.addFileProgress(1);
-                } else {
-                    FileDownloader.downloadFile(url, libPath);
-                }
-
-                log.debug("Downloaded library: {}", lib.path("name").asText());
+    private CompletableFuture<Void> downloadAndMaybeExtract(ObjectNode lib, ObjectNode artifactNode, Path libPath,
+                                                            boolean isNative, List<String> mirrors) {
+        String name = lib.path("name").asText();
+        long size = artifactNode.has("size") ? artifactNode.get("size").asLong() : -1;
 
-                if (isNative) extractNative(libPath);
+        DownloadJob<Path> job = FileDownloader.submit(getLibrarySources(artifactNode, lib, libPath, mirrors), libPath,
+                DownloadManager.Priority.HIGH, size);
+        if (progressTracker != null) {
+            job.onProgress((deltaBytes, total, context) -> progressTracker.addBytesProgress(deltaBytes));
+        }
 
-            } catch (Exception e) {
-                log.error("Failed to download library: {}", lib.path("name").asText(), e);
-                throw new RuntimeException(e);
-            }
-        }, downloadExecutor);
+        return job.result()
+                .thenAcceptAsync(path -> {
+                    try {
+                        DownloadManager.placeAt(path, libPath);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    if (progressTracker != null) progressTracker.addFileProgress(1);
+                    log.debug("Downloaded library: {}", name);
+
+                    if (isNative) extractNative(libPath);
+                }, ioExecutor)
+                .exceptionally(ex -> {
+                    log.error("Failed to download library: {}", name, ex);
+                    throw ex instanceof CompletionException ce ? ce : new CompletionException(ex);
+                });
     }
 
     private Path getLibraryPath(ObjectNode artifactNode, ObjectNode lib) {
@@ -206,6 +221,21 @@ public class LibraryDownloader {
         return "https://libraries.minecraft.net/" + buildUrlFromName(lib);
     }
 
+    /**
+     * @return the library's own URL followed by the same Maven path on every mirror
+     */
+    private List<String> getLibrarySources(ObjectNode artifactNode, ObjectNode lib, Path libPath, List<String> mirrors) {
+        List<String> sources = new ArrayList<>();
+        sources.add(getLibraryUrl(artifactNode, lib));
+
+        String repoPath = librariesDir.relativize(libPath).toString().replace('\\', '/');
+        for (String mirror : mirrors) {
+            String url = (mirror.endsWith("/") ? mirror : mirror + "/") + repoPath;
+            if (!sources.contains(url)) sources.add(url);
+        }
+        return sources;
+    }
+
     private String buildUrlFromName(ObjectNode lib) {
         String[] parts = lib.get("name").asText().split(":");
         String group = parts[0], artifact = parts[1], version = parts[2];
@@ -214,23 +244,46 @@ public class LibraryDownloader {
                + artifact + "-" + version + classifier + ".jar";
     }
 
-    private boolean isValidFile(ObjectNode artifactNode, Path file) {
-        try {
-            String expectedSha1 = artifactNode.has("sha1") ? artifactNode.get("sha1").asText(null) : null;
-            Long expectedSize = artifactNode.has("size") ? artifactNode.get("size").asLong() : null;
-
-            if (expectedSha1 != null && expectedSize != null) {
-                return expectedSha1.equals(ResourceUtil.calculateSHA1(file.toFile())) && expectedSize == Files.size(file);
-            }
-            if (expectedSha1 != null) {
-                return expectedSha1.equals(ResourceUtil.calculateSHA1(file.toFile()));
+    /**
+     * Checks every library that is already on disk against its expected size and SHA-1. Sizes are compared first so that
+     * files which are obviously wrong are never hashed, and hashes are cached in the library index so unchanged files are
+     * not read at all.
+     *
+     * @return paths of the libraries that do not need downloading
+     */
+    private Set<Path> findValidFiles(List<LibraryEntry> entries) {
+        Set<Path> valid = new HashSet<>();
+        Map<Path, String> expectedHashes = new HashMap<>();
+        for (LibraryEntry e : entries) {
+            if (!Files.exists(e.path)) continue;
+
+            String expectedSha1 = e.artifact.has("sha1") ? e.artifact.get("sha1").asText(null) : null;
+            if (e.artifact.has("size")) {
+                try {
+                    if (e.artifact.get("size").asLong() != Files.size(e.path)) continue;
+                } catch (IOException ex) {
+                    continue;
+                }
             }
-            if (expectedSize != null) {
-                return expectedSize == Files.size(file);
+
+            if (expectedSha1 == null) {
+                valid.add(e.path);
+            } else {
+                expectedHashes.put(e.path, expectedSha1);
             }
-            return Files.exists(file);
-        } catch (Exception e) {
-            return false;
         }
+        if (expectedHashes.isEmpty()) return valid;
+
+        var hashes = libraryIndex.hashAll(expectedHashes.keySet(), ModHashIndex.VerificationMode.FAST,
+                StorageProfile.detect(librariesDir).ioConcurrency(), ioExecutor).join();
+        expectedHashes.forEach((path, expected) -> {
+            if (expected.equals(hashes.get(path))) {
+                valid.add(path);
+            } else {
+                libraryIndex.invalidate(path);
+            }
+        });
+        libraryIndex.save();
+        return valid;
     }
 }
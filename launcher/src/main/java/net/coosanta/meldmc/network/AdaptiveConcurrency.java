@@ -0,0 +1,76 @@
+package net.coosanta.meldmc.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes how many downloads run at once from what the network actually delivers, AIMD style: while jobs are waiting, the
+ * limit grows by one per measurement window as long as that keeps raising the combined throughput, and it is halved when
+ * servers show signs of overload such as timeouts, 429 or 5xx responses.
+ */
+final class AdaptiveConcurrency {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrency.class);
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // Throughput has to grow by this much for another increase, so noise does not ratchet the limit up
+    private static final double MIN_GAIN = 1.05;
+
+    private final int min;
+    private final int max;
+    private volatile int limit;
+
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+    private double lastThroughput = -1;
+
+    AdaptiveConcurrency(int initial, int min, int max) {
+        this.min = min;
+        this.max = max;
+        this.limit = Math.clamp(initial, min, max);
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * Records received bytes.
+     *
+     * @param backlogged whether jobs are waiting for a slot, i.e. a higher limit would be used
+     * @return whether the limit was raised
+     */
+    synchronized boolean onBytes(long bytes, boolean backlogged) {
+        if (bytes > 0) windowBytes += bytes;
+
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) return false;
+
+        double throughput = windowBytes * 1e9 / elapsed;
+        windowStart = now;
+        windowBytes = 0;
+
+        boolean raise = backlogged && limit < max && (lastThroughput < 0 || throughput > lastThroughput * MIN_GAIN);
+        lastThroughput = throughput;
+        if (!raise) return false;
+
+        limit++;
+        log.debug("Raised download concurrency to {} at {} KiB/s", limit, (long) throughput / 1024);
+        return true;
+    }
+
+    /**
+     * Halves the limit after a failure that suggests the servers or the link are overloaded.
+     */
+    synchronized void onCongestion() {
+        int lowered = Math.max(min, limit / 2);
+        if (lowered == limit) return;
+
+        limit = lowered;
+        windowStart = System.nanoTime();
+        windowBytes = 0;
+        lastThroughput = -1;
+        log.debug("Lowered download concurrency to {}", limit);
+    }
+}
@@ -0,0 +1,82 @@
+package net.coosanta.meldmc.network;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the combined rate of all downloads. Writers call {@link #acquire} before writing and are held back once they get
+ * ahead of the rate, which in turn stops them reading from the network and lets TCP flow control slow the sender down.
+ * Body subscribers must not block the HTTP client's threads, so they {@link #reserve} instead and delay asking for more
+ * data by the time it returns.
+ * <p>
+ * Up to a quarter of a second's worth of data may be written in a burst.
+ */
+public final class BandwidthLimiter {
+    private static final BandwidthLimiter GLOBAL = new BandwidthLimiter();
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private volatile long bytesPerSecond;
+    private long nextFree = System.nanoTime();
+
+    /**
+     * @return the limiter shared by every {@link DownloadSink}
+     */
+    public static BandwidthLimiter global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param bytesPerSecond maximum rate, 0 or less for no limit
+     */
+    public void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Waits until {@code bytes} may be written without exceeding the rate.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos <= 0) return;
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    /**
+     * Accounts for {@code bytes} without waiting.
+     *
+     * @return nanoseconds to wait before more data should be received, 0 or less if none
+     */
+    public long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0 || bytes <= 0) return 0;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFree = Math.max(nextFree, now - BURST_NANOS) + bytes * 1_000_000_000L / rate;
+            return nextFree - now;
+        }
+    }
+
+    /**
+     * Parses a rate such as {@code 500K} or {@code 2.5M}, in bytes per second with binary suffixes.
+     */
+    public static long parseRate(String value) {
+        String v = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (v.endsWith("K")) multiplier = 1024;
+        else if (v.endsWith("M")) multiplier = 1024 * 1024;
+        else if (v.endsWith("G")) multiplier = 1024 * 1024 * 1024;
+        if (multiplier != 1) v = v.substring(0, v.length() - 1);
+        return (long) (Double.parseDouble(v) * multiplier);
+    }
+}
@@ -0,0 +1,129 @@
+package net.coosanta.meldmc.network;
+
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Rebuilds a file from an earlier version of it and a delta, so that a patch release of a mod costs only the bytes
+ * that changed. Like {@link VerifyingFileWriter}, the result is hashed while it is written and only put in place if the
+ * hash is the expected one; otherwise it is quarantined.
+ * <p>
+ * A delta ({@value #MEDIA_TYPE}) is big-endian: the magic {@code MDLT}, a version byte, then operations, each starting
+ * with an opcode byte:
+ * <ul>
+ *     <li>{@code 1} copy: a long offset and an int length of bytes to take from the earlier version,</li>
+ *     <li>{@code 2} data: an int length followed by that many new bytes,</li>
+ *     <li>{@code 0} end: the file is complete.</li>
+ * </ul>
+ */
+public final class DeltaPatcher {
+    public static final String MEDIA_TYPE = "application/x-meld-delta";
+
+    private static final int MAGIC = 0x4D444C54; // "MDLT"
+    private static final int VERSION = 1;
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int DATA = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DeltaPatcher() {
+    }
+
+    /**
+     * Applies {@code delta} to {@code base}, writing the result to {@code target}. The delta is read up to its end
+     * operation but not closed.
+     *
+     * @param expectedHash  SHA-512 the result must have
+     * @param quarantineDir where a result with another hash is kept
+     * @throws HashMismatchException if the result's hash is not the expected one; the target is left untouched
+     * @throws IOException           if the delta is malformed, refers past the end of the base, or reading or writing
+     *                               fails
+     */
+    public static void apply(Path base, InputStream delta, Path target, String expectedHash, Path quarantineDir)
+            throws IOException, HashMismatchException {
+        DataInputStream in = new DataInputStream(delta);
+        if (in.readInt() != MAGIC) throw new IOException("Not a delta");
+        int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported delta version " + version);
+
+        MessageDigest digest = VerifyingFileWriter.sha512();
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, ".download-", ".tmp");
+        try {
+            try (FileChannel source = FileChannel.open(base, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int op;
+                while ((op = in.read()) != END) {
+                    switch (op) {
+                        case COPY -> copy(source, in.readLong(), in.readInt(), out, digest, buffer);
+                        case DATA -> data(in, in.readInt(), out, digest, buffer);
+                        case -1 -> throw new EOFException("Delta ended before its end operation");
+                        default -> throw new IOException("Unknown delta operation " + op);
+                    }
+                }
+            }
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            if (!hash.equals(expectedHash)) {
+                throw VerifyingFileWriter.quarantine(tmp, target, hash, quarantineDir);
+            }
+            VerifyingFileWriter.moveIntoPlace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copy(FileChannel source, long offset, int length, FileChannel out, MessageDigest digest,
+                             byte[] buffer) throws IOException {
+        if (offset < 0 || length < 0 || offset > source.size() - length) {
+            throw new IOException("Delta copies " + length + " bytes at " + offset + " of a " + source.size()
+                                  + " byte file");
+        }
+
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+            int read = source.read(chunk, position);
+            if (read < 0) throw new EOFException("Base file shrank while applying a delta");
+            position += read;
+            write(out, digest, buffer, read);
+        }
+    }
+
+    private static void data(InputStream in, int length, FileChannel out, MessageDigest digest, byte[] buffer)
+            throws IOException {
+        if (length < 0) throw new IOException("Negative delta data length " + length);
+
+        int remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read < 0) throw new EOFException("Delta ended inside its data");
+            // Only these bytes come over the network; copies are local
+            BandwidthLimiter.global().acquire(read);
+            remaining -= read;
+            write(out, digest, buffer, read);
+        }
+    }
+
+    private static void write(FileChannel out, MessageDigest digest, byte[] buffer, int length) throws IOException {
+        digest.update(buffer, 0, length);
+        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+        while (chunk.hasRemaining()) {
+            out.write(chunk);
+        }
+    }
+}
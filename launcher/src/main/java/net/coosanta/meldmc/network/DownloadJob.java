@@ -0,0 +1,102 @@
+package net.coosanta.meldmc.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * One caller's view of a download queued with the {@link DownloadManager}. Several jobs may share a transfer.
+ */
+public class DownloadJob<T> {
+    private final DownloadManager manager;
+    private final DownloadManager.Entry<T> entry;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final List<ProgressCallback> listeners = new ArrayList<>();
+    private boolean released;
+
+    DownloadJob(DownloadManager manager, DownloadManager.Entry<T> entry) {
+        this.manager = manager;
+        this.entry = entry;
+        entry.result.whenComplete((value, ex) -> {
+            if (ex == null) result.complete(value);
+            else result.completeExceptionally(ex);
+        });
+    }
+
+    /**
+     * @return future of the transfer's result; cancelled by {@link #cancel()}
+     */
+    public CompletableFuture<T> result() {
+        return result;
+    }
+
+    /**
+     * Waits for the transfer, for callers that are already on a background thread.
+     */
+    public T await() throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + entry.name);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Download of " + entry.name + " was cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IOException("Failed to download " + entry.name, e.getCause());
+        }
+    }
+
+    /**
+     * Receives the number of bytes transferred since its last call, starting with the bytes already transferred.
+     * Negative when the transfer discards data, e.g. before a retry.
+     */
+    public synchronized DownloadJob<T> onProgress(ProgressCallback listener) {
+        if (released) return this;
+        listeners.add(listener);
+        entry.listeners.add(listener);
+        long done = entry.bytesDone.get();
+        if (done != 0) listener.onProgress(done, entry.expectedBytes, entry.name);
+        return this;
+    }
+
+    /**
+     * Stops waiting for the download. The transfer itself is cancelled once no other job shares it.
+     */
+    public synchronized void cancel() {
+        if (released) return;
+        released = true;
+        entry.listeners.removeAll(listeners);
+        result.cancel(false);
+        manager.release(entry);
+    }
+
+    public DownloadManager.State state() {
+        return entry.state;
+    }
+
+    public DownloadManager.Priority priority() {
+        return entry.priority;
+    }
+
+    public long bytesDone() {
+        return entry.bytesDone.get();
+    }
+
+    /**
+     * @return size of the download, -1 if unknown
+     */
+    public long expectedBytes() {
+        return entry.expectedBytes;
+    }
+
+    public String name() {
+        return entry.name;
+    }
+}
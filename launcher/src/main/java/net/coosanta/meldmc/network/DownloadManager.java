@@ -0,0 +1,341 @@
+package net.coosanta.meldmc.network;
+
+import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every download of the launcher from one queue: libraries, client files, web mods and Meld server transfers.
+ * <p>
+ * Jobs start in order of {@link Priority}. Within a priority the largest download goes first, so that a big jar does not
+ * start last and hold up the whole batch, while about half of the slots are kept for the smallest ones so they are not
+ * stuck behind the large ones. How many jobs run at once is tuned between {@value #MIN_ACTIVE} and {@value #MAX_ACTIVE}
+ * by {@link AdaptiveConcurrency}, and the combined rate can be capped with the {@link BandwidthLimiter}.
+ * <p>
+ * A job submitted with the key of one that is still queued or running joins it instead of starting a second transfer,
+ * e.g. the same library or the same mod hash wanted by two callers. Each caller gets its own {@link DownloadJob} to follow
+ * progress or cancel; the transfer is only cancelled once every caller sharing it has cancelled.
+ * <p>
+ * Blocking work belonging to downloads, such as writing, hashing and extracting files, runs on {@link #ioExecutor()}.
+ */
+public final class DownloadManager {
+    private static final Logger log = LoggerFactory.getLogger(DownloadManager.class);
+
+    public static final int MIN_ACTIVE = 2;
+    public static final int INITIAL_ACTIVE = 8;
+    public static final int MAX_ACTIVE = 32;
+
+    private static final DownloadManager INSTANCE = new DownloadManager(
+            new AdaptiveConcurrency(INITIAL_ACTIVE, MIN_ACTIVE, MAX_ACTIVE)
+    );
+
+    public enum Priority {
+        /**
+         * Needed before anything else can start, e.g. the client JSON.
+         */
+        CRITICAL,
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * Starts a transfer. Runs once, when the job's turn comes.
+     */
+    @FunctionalInterface
+    public interface Transfer<T> {
+        /**
+         * @param progress receives the number of bytes transferred since its last call; negative when data is discarded
+         * @return future of the result; cancelled if every caller cancels the job
+         */
+        CompletableFuture<T> start(ProgressCallback progress);
+    }
+
+    /**
+     * A transfer that blocks its thread, run on {@link #ioExecutor()}. It is interrupted if the job is cancelled.
+     */
+    @FunctionalInterface
+    public interface BlockingTransfer<T> {
+        T run(ProgressCallback progress) throws Exception;
+    }
+
+    private final AdaptiveConcurrency concurrency;
+    private final ExecutorService ioExecutor = Executors.newCachedThreadPool(
+            GlobalExceptionHandler.threadFactory("download-io")
+    );
+
+    // Guarded by this
+    private final Map<Priority, TreeSet<Entry<?>>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, Entry<?>> inFlight = new HashMap<>();
+    private long nextSequence;
+    private int queued;
+    private int active;
+    private int largeActive;
+
+    DownloadManager(AdaptiveConcurrency concurrency) {
+        this.concurrency = concurrency;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new TreeSet<>(Comparator.<Entry<?>>comparingLong(e -> -e.expectedBytes)
+                    .thenComparingLong(e -> e.sequence)));
+        }
+    }
+
+    public static DownloadManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the executor for blocking work that belongs to downloads
+     */
+    public ExecutorService ioExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Queues a transfer, or joins the queued or running one with the same key.
+     *
+     * @param key           identifies what is downloaded, e.g. {@code "url:<url>"} or {@code "sha512:<hash>"}. Null to
+     *                      never share the transfer
+     * @param priority      raises the priority of a queued job this joins, never lowers it
+     * @param name          shown in progress updates and logs
+     * @param expectedBytes size of the download, -1 if unknown
+     */
+    public <T> DownloadJob<T> submit(@Nullable String key, Priority priority, String name, long expectedBytes,
+                                     Transfer<T> transfer) {
+        Entry<T> entry;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Entry<T> existing = key == null ? null : (Entry<T>) inFlight.get(key);
+            if (existing != null) {
+                existing.interested++;
+                if (existing.state == State.QUEUED && priority.compareTo(existing.priority) < 0) {
+                    queues.get(existing.priority).remove(existing);
+                    existing.priority = priority;
+                    queues.get(priority).add(existing);
+                }
+                log.debug("Joined in-flight download of {}", existing.name);
+                return new DownloadJob<>(this, existing);
+            }
+
+            entry = new Entry<>(this, key, name, priority, nextSequence++, expectedBytes, transfer);
+            if (key != null) inFlight.put(key, entry);
+            queues.get(priority).add(entry);
+            queued++;
+        }
+        dispatch();
+        return new DownloadJob<>(this, entry);
+    }
+
+    /**
+     * Like {@link #submit}, for transfers that block a thread.
+     */
+    public <T> DownloadJob<T> submitBlocking(@Nullable String key, Priority priority, String name, long expectedBytes,
+                                             BlockingTransfer<T> transfer) {
+        return submit(key, priority, name, expectedBytes, progress -> runInterruptibly(() -> transfer.run(progress)));
+    }
+
+    /**
+     * Runs blocking work that belongs to a download on {@link #ioExecutor()}. Cancelling the returned future interrupts
+     * it.
+     */
+    public <T> CompletableFuture<T> runInterruptibly(Callable<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = ioExecutor.submit(() -> {
+            try {
+                result.complete(work.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((value, ex) -> {
+            if (result.isCancelled()) task.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * Makes a downloaded file available at {@code target} as well, for callers that joined a transfer into another
+     * location. Hardlinks where possible and copies otherwise.
+     *
+     * @return {@code target}
+     */
+    public static Path placeAt(Path downloaded, Path target) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(downloaded, target)) return target;
+
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, downloaded);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(downloaded, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    /**
+     * Reports a failure that suggests the servers or the link are overloaded, e.g. a timeout or a 429 or 5xx response,
+     * so fewer downloads are run at once.
+     */
+    public void reportCongestion() {
+        concurrency.onCongestion();
+    }
+
+    /**
+     * @return how many downloads may currently run at once
+     */
+    public int concurrencyLimit() {
+        return concurrency.limit();
+    }
+
+    private void dispatch() {
+        List<Entry<?>> starting = new ArrayList<>();
+        synchronized (this) {
+            int limit = concurrency.limit();
+            while (active < limit && queued > 0) {
+                Entry<?> entry = pollNext(limit);
+                entry.state = State.RUNNING;
+                active++;
+                starting.add(entry);
+            }
+        }
+        starting.forEach(this::start);
+    }
+
+    /**
+     * Takes the next job of the highest waiting priority: the largest one, unless large jobs already hold about half the
+     * slots, then the smallest one.
+     */
+    private Entry<?> pollNext(int limit) {
+        for (TreeSet<Entry<?>> queue : queues.values()) {
+            if (queue.isEmpty()) continue;
+
+            boolean small = largeActive >= (limit + 1) / 2;
+            Entry<?> entry = small ? queue.pollLast() : queue.pollFirst();
+            entry.large = !small;
+            if (entry.large) largeActive++;
+            queued--;
+            return entry;
+        }
+        throw new IllegalStateException("Queue count out of sync");
+    }
+
+    private boolean removeQueued(Entry<?> entry) {
+        if (!queues.get(entry.priority).remove(entry)) return false;
+        queued--;
+        return true;
+    }
+
+    private void onBytes(long deltaBytes) {
+        boolean backlogged;
+        synchronized (this) {
+            backlogged = queued > 0 && active >= concurrency.limit();
+        }
+        if (concurrency.onBytes(deltaBytes, backlogged)) {
+            dispatch();
+        }
+    }
+
+    private <T> void start(Entry<T> entry) {
+        CompletableFuture<T> running;
+        try {
+            running = entry.transfer.start(entry::progress);
+        } catch (Throwable t) {
+            running = CompletableFuture.failedFuture(t);
+        }
+
+        synchronized (this) {
+            entry.running = running;
+        }
+        if (entry.result.isCancelled()) running.cancel(true);
+
+        running.whenComplete((value, ex) -> {
+            synchronized (this) {
+                active--;
+                if (entry.large) largeActive--;
+                if (entry.key != null) inFlight.remove(entry.key, entry);
+            }
+            if (ex == null) {
+                entry.state = State.DONE;
+                entry.result.complete(value);
+            } else {
+                entry.state = entry.result.isCancelled() ? State.CANCELLED : State.FAILED;
+                entry.result.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }
+            dispatch();
+        });
+    }
+
+    /**
+     * Called by a {@link DownloadJob} that is no longer wanted by its caller.
+     */
+    void release(Entry<?> entry) {
+        CompletableFuture<?> running;
+        synchronized (this) {
+            if (--entry.interested > 0 || entry.result.isDone()) return;
+
+            if (entry.key != null) inFlight.remove(entry.key, entry);
+            if (removeQueued(entry)) {
+                entry.state = State.CANCELLED;
+            }
+            running = entry.running;
+        }
+
+        log.debug("Cancelled download of {}", entry.name);
+        entry.result.cancel(false);
+        if (running != null) running.cancel(true);
+    }
+
+    static final class Entry<T> {
+        final DownloadManager manager;
+        final @Nullable String key;
+        final String name;
+        final long sequence;
+        final long expectedBytes;
+        final Transfer<T> transfer;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicLong bytesDone = new AtomicLong();
+        final List<ProgressCallback> listeners = new CopyOnWriteArrayList<>();
+
+        volatile Priority priority;
+        volatile State state = State.QUEUED;
+
+        // Guarded by the manager
+        int interested = 1;
+        boolean large;
+        CompletableFuture<T> running;
+
+        Entry(DownloadManager manager, @Nullable String key, String name, Priority priority, long sequence,
+              long expectedBytes, Transfer<T> transfer) {
+            this.manager = manager;
+            this.key = key;
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.expectedBytes = expectedBytes;
+            this.transfer = transfer;
+        }
+
+        void progress(long deltaBytes, long total, Object... context) {
+            bytesDone.addAndGet(deltaBytes);
+            manager.onBytes(deltaBytes);
+            for (ProgressCallback listener : listeners) {
+                listener.onProgress(deltaBytes, expectedBytes, name);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.coosanta.meldmc.network;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a download to a file through a {@link FileChannel}, updating an optional digest from the same buffers.
+ * <p>
+ * Buffers handed over by {@link java.net.http.HttpClient} are written as they are; stream sources are copied through
+ * one large buffer per thread rather than the few kilobytes {@code Files.copy} uses. Progress is reported at most every
+ * {@value #PROGRESS_INTERVAL_MS} ms as the number of bytes written since the last report, and once more on close, instead
+ * of on every read.
+ * <p>
+ * Only {@link #transferFrom} waits for the {@link BandwidthLimiter}, since its thread is the one reading from the
+ * network. Callers of {@link #write} receive their buffers some other way and throttle where they receive them, see
+ * {@link net.coosanta.meldmc.network.http.SinkBodySubscriber}.
+ * <p>
+ * Not thread safe; a sink is fed by one thread at a time.
+ */
+public final class DownloadSink implements Closeable {
+    public static final int BUFFER_SIZE = 1 << 20;
+    public static final long PROGRESS_INTERVAL_MS = 100;
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MS);
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final @Nullable MessageDigest digest;
+    private final @Nullable ProgressCallback progress;
+    private final long total;
+
+    private long size;
+    private long unreportedBytes;
+    private long lastReport = System.nanoTime();
+
+    private DownloadSink(Path file, FileChannel channel, @Nullable MessageDigest digest,
+                         @Nullable ProgressCallback progress, long total) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.digest = digest;
+        this.progress = progress;
+        this.total = total;
+        this.size = channel.size();
+    }
+
+    /**
+     * @param file     file to write, created if missing
+     * @param append   whether to continue after the existing content instead of replacing it
+     * @param digest   updated with every byte written, if not null. Existing content is not added to it
+     * @param progress receives the number of bytes written since its last call
+     * @param total    passed on to {@code progress}
+     */
+    public static DownloadSink open(Path file, boolean append, @Nullable MessageDigest digest,
+                                    @Nullable ProgressCallback progress, long total) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        return new DownloadSink(file, channel, digest, progress, total);
+    }
+
+    /**
+     * Writes the remaining bytes of {@code buffer}, leaving it consumed.
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        if (digest != null) digest.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        written(length);
+    }
+
+    /**
+     * Copies {@code in} to the file until its end, no faster than the {@link BandwidthLimiter} allows. The stream is not
+     * closed.
+     *
+     * @return number of bytes copied
+     */
+    public long transferFrom(InputStream in) throws IOException {
+        byte[] buffer = BUFFER.get();
+        long copied = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (read == 0) continue;
+            BandwidthLimiter.global().acquire(read);
+            write(ByteBuffer.wrap(buffer, 0, read));
+            copied += read;
+        }
+        return copied;
+    }
+
+    private void written(long bytes) {
+        size += bytes;
+        if (progress == null) return;
+
+        unreportedBytes += bytes;
+        long now = System.nanoTime();
+        if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+            reportProgress(now);
+        }
+    }
+
+    private void reportProgress(long now) {
+        if (progress != null && unreportedBytes != 0) {
+            progress.onProgress(unreportedBytes, total, file.getFileName().toString());
+        }
+        unreportedBytes = 0;
+        lastReport = now;
+    }
+
+    /**
+     * @return size of the file so far, including content that was there before an append
+     */
+    public long size() {
+        return size;
+    }
+
+    public @Nullable MessageDigest digest() {
+        return digest;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Reports the remaining progress and closes the file. Written data is not forced to the disk.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            reportProgress(System.nanoTime());
+        } finally {
+            channel.close();
+        }
+    }
+}
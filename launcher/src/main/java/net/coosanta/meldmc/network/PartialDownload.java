@@ -0,0 +1,243 @@
+package net.coosanta.meldmc.network;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.coosanta.meldmc.network.http.HttpStatusException;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A download that survives interruptions. Data is written to {@code <target>.part}, next to a small
+ * {@code <target>.part.json} sidecar recording where it came from, its expected size and hash, and the validator
+ * (ETag or Last-Modified) of the response it belongs to.
+ * <p>
+ * The next attempt at the same download asks for the remaining bytes with a {@code Range} request guarded by
+ * {@code If-Range}. If the server ignores the range, or the file changed since, it answers with the whole file and the
+ * partial data is thrown away. A partial file whose sidecar is missing or describes a different download is never
+ * resumed.
+ */
+public class PartialDownload {
+    private static final Logger log = LoggerFactory.getLogger(PartialDownload.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
+    private static final Pattern UNSATISFIED_RANGE = Pattern.compile("bytes \\*/(\\d+)");
+
+    public static final String PART_SUFFIX = ".part";
+    public static final String SIDECAR_SUFFIX = ".part.json";
+
+    private final Path target;
+    private final Path partFile;
+    private final Path sidecarFile;
+    private Sidecar sidecar;
+    private long offset;
+
+    private PartialDownload(Path target, Sidecar sidecar) {
+        this.target = target;
+        this.partFile = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        this.sidecarFile = target.resolveSibling(target.getFileName() + SIDECAR_SUFFIX);
+        this.sidecar = sidecar;
+    }
+
+    /**
+     * Picks up the partial data of an earlier attempt, if it belongs to the same download.
+     *
+     * @param target       file the download ends up in
+     * @param source       URL or other identifier of the content
+     * @param expectedSize size of the complete file, -1 if unknown
+     * @param expectedHash hash of the complete file, if known
+     */
+    public static PartialDownload open(Path target, String source, long expectedSize, @Nullable String expectedHash)
+            throws IOException {
+        var download = new PartialDownload(target, new Sidecar(source, expectedSize, expectedHash, null, null));
+        download.resumeIfPossible();
+        return download;
+    }
+
+    /**
+     * @return the name of the file a partial download or sidecar belongs to, or null if the name is neither
+     */
+    public static @Nullable String targetName(String fileName) {
+        if (fileName.endsWith(SIDECAR_SUFFIX)) return fileName.substring(0, fileName.length() - SIDECAR_SUFFIX.length());
+        if (fileName.endsWith(PART_SUFFIX)) return fileName.substring(0, fileName.length() - PART_SUFFIX.length());
+        return null;
+    }
+
+    private void resumeIfPossible() throws IOException {
+        if (!Files.isRegularFile(partFile)) {
+            Files.deleteIfExists(sidecarFile);
+            return;
+        }
+
+        Sidecar stored = null;
+        try {
+            stored = MAPPER.readValue(sidecarFile.toFile(), Sidecar.class);
+        } catch (IOException e) {
+            log.debug("Unreadable sidecar {}, restarting download", sidecarFile, e);
+        }
+
+        long partSize = Files.size(partFile);
+        if (stored != null && stored.describes(sidecar) && (sidecar.expectedSize() < 0 || partSize <= sidecar.expectedSize())) {
+            sidecar = stored;
+            offset = partSize;
+            log.debug("Resuming {} at {} bytes", target.getFileName(), offset);
+        } else {
+            discard();
+        }
+    }
+
+    /**
+     * @return number of bytes already downloaded
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return whether every expected byte is already present, so no request is needed
+     */
+    public boolean isComplete() {
+        return offset > 0 && offset == sidecar.expectedSize();
+    }
+
+    /**
+     * Adds the headers that ask for the remaining bytes only.
+     *
+     * @param setHeader e.g. {@code HttpRequest.Builder::header} or {@code URLConnection::setRequestProperty}
+     */
+    public void addRangeHeaders(BiConsumer<String, String> setHeader) {
+        if (offset <= 0) return;
+
+        String validator = sidecar.etag() != null ? sidecar.etag() : sidecar.lastModified();
+        if (validator == null) {
+            // Without a validator there is no way to tell whether the partial data still matches the file
+            offset = 0;
+            return;
+        }
+        setHeader.accept("Range", "bytes=" + offset + "-");
+        setHeader.accept("If-Range", validator);
+    }
+
+    /**
+     * Inspects the response to a request made with {@link #addRangeHeaders} and records its validator.
+     * <p>
+     * A 416 means the partial data reaches the end of the file or beyond. If it is exactly as long as the file, e.g.
+     * because the launcher stopped between writing the last byte and {@link #complete()}, true is returned and the
+     * body, an error page, is not part of the file: the partial data only has to be verified and completed. Otherwise
+     * the partial data is discarded and an {@link IOException} thrown, so the retry starts from the first byte.
+     *
+     * @param statusCode HTTP status of the response
+     * @param header     looks up a response header by name
+     * @return true if the body continues the partial data, or on a 416 that the partial data is the whole file; false
+     * if the body is the whole file
+     */
+    public boolean beginResponse(int statusCode, Function<String, Optional<String>> header) throws IOException {
+        boolean append;
+        if (statusCode == 206 && offset > 0) {
+            Matcher range = CONTENT_RANGE.matcher(header.apply("Content-Range").orElse(""));
+            if (!range.matches() || Long.parseLong(range.group(1)) != offset) {
+                discard(); // The next attempt starts over instead of asking for the same range again
+                throw new IOException("Unexpected Content-Range for " + target.getFileName() + ": "
+                                      + header.apply("Content-Range").orElse("none"));
+            }
+            append = true;
+        } else if (statusCode == 416 && offset > 0) {
+            Matcher range = UNSATISFIED_RANGE.matcher(header.apply("Content-Range").orElse(""));
+            long size = sidecar.expectedSize() >= 0 ? sidecar.expectedSize()
+                    : range.matches() ? Long.parseLong(range.group(1)) : -1;
+            if (offset != size) {
+                discard();
+                throw new IOException("Partial data of " + target.getFileName() + " does not fit the file, "
+                                      + "restarting it: " + offset + " bytes of " + size);
+            }
+            log.debug("{} was already downloaded completely", target.getFileName());
+            sidecar = new Sidecar(sidecar.source(), size, sidecar.hash(), sidecar.etag(), sidecar.lastModified());
+            return true;
+        } else if (statusCode == 200) {
+            if (offset > 0) log.debug("Server sent all of {} again, restarting", target.getFileName());
+            append = false;
+            offset = 0;
+        } else {
+            throw new HttpStatusException(statusCode, target.getFileName().toString());
+        }
+
+        sidecar = new Sidecar(sidecar.source(), sidecar.expectedSize(), sidecar.hash(),
+                header.apply("ETag").orElse(null), header.apply("Last-Modified").orElse(null));
+        Files.createDirectories(sidecarFile.getParent());
+        MAPPER.writeValue(sidecarFile.toFile(), sidecar);
+        return append;
+    }
+
+    /**
+     * Writes the response body to the partial file. If this throws, the data written so far is kept for the next attempt.
+     *
+     * @param append whether to continue the partial data, as returned by {@link #beginResponse}
+     */
+    public void write(InputStream in, boolean append) throws IOException {
+        try (DownloadSink sink = openSink(append, null, null, -1)) {
+            sink.transferFrom(in);
+            offset = sink.size();
+        }
+    }
+
+    /**
+     * Opens the partial file for writing the response body. The data a sink writes is not reflected in
+     * {@link #offset()}; use {@link DownloadSink#size()} instead.
+     *
+     * @param append whether to continue the partial data, as returned by {@link #beginResponse}
+     * @see DownloadSink#open
+     */
+    public DownloadSink openSink(boolean append, @Nullable MessageDigest digest, @Nullable ProgressCallback progress,
+                                 long total) throws IOException {
+        Files.createDirectories(partFile.getParent());
+        return DownloadSink.open(partFile, append, digest, progress, total);
+    }
+
+    /**
+     * Moves the finished file into place.
+     */
+    public void complete() throws IOException {
+        try {
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(sidecarFile);
+    }
+
+    /**
+     * Deletes the partial data and its sidecar.
+     */
+    public void discard() throws IOException {
+        Files.deleteIfExists(partFile);
+        Files.deleteIfExists(sidecarFile);
+        offset = 0;
+    }
+
+    public Path target() {
+        return target;
+    }
+
+    public Path partFile() {
+        return partFile;
+    }
+
+    private record Sidecar(String source, long expectedSize, @Nullable String hash, @Nullable String etag,
+                           @Nullable String lastModified) {
+        boolean describes(Sidecar wanted) {
+            return source.equals(wanted.source())
+                   && expectedSize == wanted.expectedSize()
+                   && Objects.equals(hash, wanted.hash());
+        }
+    }
+}
@@ -5,7 +5,9 @@ import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
 import net.coosanta.meldmc.gui.controllers.serverselection.ServerEntry;
 import net.coosanta.meldmc.minecraft.InstanceManager;
 import net.coosanta.meldmc.minecraft.ServerInfo;
+import net.coosanta.meldmc.network.client.MeldClient;
 import net.coosanta.meldmc.network.client.MeldClientRegistry;
+import net.coosanta.meldmc.network.client.MeldData;
 import net.coosanta.meldmc.network.data.MeldCodec;
 import org.geysermc.mcprotocollib.network.ClientSession;
 import org.geysermc.mcprotocollib.network.factory.ClientNetworkSessionFactory;
@@ -38,12 +40,28 @@ public class Pinger {
             serverInfo.addStatusInfo(info);
             InstanceManager.newInstance(serverInfo.getAddress());
             if (serverInfo.isMeldSupported()) {
-                MeldClientRegistry.getOrCreateClient(serverInfo).fetchModInfo()
+                MeldClient meldClient = MeldClientRegistry.getOrCreateClient(serverInfo);
+                meldClient.fetchModInfo(serverInfo.arrivingMods())
                         .thenAccept(serverInfo::setMeldData)
                         .exceptionally(e -> {
                             log.error("Failed to fetch mod info", e);
                             return null;
                         });
+
+                // Changes made between pings are picked up as the server announces them, fetching only what changed
+                meldClient.watchChanges(notice -> {
+                    MeldData current = serverInfo.getMeldData();
+                    (current == null ? meldClient.fetchModInfo(serverInfo.arrivingMods())
+                            : meldClient.applyChanges(current, notice))
+                            .thenAccept(meldData -> {
+                                serverInfo.updateMeldData(meldData);
+                                Platform.runLater(serverEntry::updateComponents);
+                            })
+                            .exceptionally(e -> {
+                                log.error("Failed to fetch changed mod info", e);
+                                return null;
+                            });
+                });
             }
         });
 
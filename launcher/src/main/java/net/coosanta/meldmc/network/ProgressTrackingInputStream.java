@@ -4,9 +4,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Input stream that tracks progress and notifies callbacks.
+ * Input stream that tracks progress and notifies callbacks, at most every {@link DownloadSink#PROGRESS_INTERVAL_MS} ms
+ * and once more on close.
  */
 public class ProgressTrackingInputStream extends InputStream {
     private final boolean isCumulative;
@@ -19,7 +21,9 @@ public class ProgressTrackingInputStream extends InputStream {
     private String currentFileName;
 
     public static final int PROGRESS_UPDATE_BATCH = 8192;
-    private int bytesSinceLastUpdate = 0;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(DownloadSink.PROGRESS_INTERVAL_MS);
+    private long bytesSinceLastUpdate = 0;
+    private long lastUpdate = System.nanoTime();
 
     public ProgressTrackingInputStream(@NotNull InputStream wrapped, long totalSize, boolean cumulative, ProgressCallback progressCallback) {
         this.wrapped = wrapped;
@@ -38,7 +42,7 @@ public class ProgressTrackingInputStream extends InputStream {
         if (b != -1) {
             bytesRead++;
             bytesSinceLastUpdate++;
-            if (bytesSinceLastUpdate >= PROGRESS_UPDATE_BATCH) {
+            if (bytesSinceLastUpdate >= PROGRESS_UPDATE_BATCH && System.nanoTime() - lastUpdate >= PROGRESS_INTERVAL_NANOS) {
                 updateProgress();
             }
         }
@@ -51,7 +55,7 @@ public class ProgressTrackingInputStream extends InputStream {
         if (bytesRead > 0) {
             this.bytesRead += bytesRead;
             bytesSinceLastUpdate += bytesRead;
-            if (bytesSinceLastUpdate >= PROGRESS_UPDATE_BATCH) {
+            if (bytesSinceLastUpdate >= PROGRESS_UPDATE_BATCH && System.nanoTime() - lastUpdate >= PROGRESS_INTERVAL_NANOS) {
                 updateProgress();
             }
         }
@@ -59,6 +63,7 @@ public class ProgressTrackingInputStream extends InputStream {
     }
 
     private void updateProgress() {
+        lastUpdate = System.nanoTime();
         if (progressCallback != null) {
             long progressValue = isCumulative ? bytesRead : bytesSinceLastUpdate;
             progressCallback.onProgress(progressValue, totalSize, currentFileName);
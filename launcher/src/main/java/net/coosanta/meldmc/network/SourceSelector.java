@@ -0,0 +1,283 @@
+package net.coosanta.meldmc.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks between sources that serve the same file, such as a mod's web URL and the Meld server, from how fast each has
+ * been so far. The throughput of each source is kept as a moving average over the downloads it finished.
+ * <p>
+ * A download {@link #race races} its sources: the one expected to be fastest starts first, and if it has not finished
+ * well after it should have, a hedged request goes to the next one. Whichever finishes first wins and the other is
+ * cancelled. A source that fails hands over to the next one straight away. At most {@value #MAX_HEDGES} hedges run at
+ * a time, so a slow link is not swamped with duplicate requests.
+ */
+public final class SourceSelector {
+    private static final Logger log = LoggerFactory.getLogger(SourceSelector.class);
+    private static final SourceSelector GLOBAL = new SourceSelector();
+
+    public static final int MAX_HEDGES = 4;
+    // Weight of the newest sample in the moving average
+    private static final double ALPHA = 0.3;
+    // How much longer than expected a download may take before it is hedged
+    private static final double HEDGE_FACTOR = 2;
+    private static final Duration DEFAULT_HEDGE_DELAY = Duration.ofSeconds(3);
+    private static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(500);
+    private static final Duration MAX_HEDGE_DELAY = Duration.ofSeconds(30);
+
+    /**
+     * One way to get a file.
+     *
+     * @param source   identifies the source in the throughput history, e.g. a host name
+     * @param transfer downloads the file; cancelled if another source wins
+     */
+    public record Candidate<T>(String source, DownloadManager.Transfer<T> transfer) {
+    }
+
+    // Bytes per second; 0 for a source that failed before it was measured
+    private final Map<String, Double> throughput = new ConcurrentHashMap<>();
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    /**
+     * @return the selector shared by every download, so the history carries over between batches
+     */
+    public static SourceSelector global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records a finished download.
+     */
+    public void record(String source, long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) return;
+        double sample = bytes * 1e9 / nanos;
+        throughput.merge(source, sample, (old, unused) -> old + ALPHA * (sample - old));
+    }
+
+    /**
+     * Records a failed download, ranking the source lower until it proves itself again.
+     */
+    public void recordFailure(String source) {
+        throughput.merge(source, 0.0, (old, unused) -> old / 2);
+    }
+
+    /**
+     * @return estimated throughput of the source in bytes per second, NaN if it has no history
+     */
+    public double throughput(String source) {
+        return throughput.getOrDefault(source, Double.NaN);
+    }
+
+    /**
+     * Orders candidates fastest first. Sources without history come first so that they get measured, in the order given.
+     */
+    public <T> List<Candidate<T>> rank(List<Candidate<T>> candidates) {
+        List<Candidate<T>> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingDouble(candidate -> {
+            double estimate = throughput(candidate.source());
+            return Double.isNaN(estimate) ? Double.NEGATIVE_INFINITY : -estimate;
+        }));
+        return ranked;
+    }
+
+    /**
+     * @return how long a download from the source may run before it is hedged
+     */
+    public Duration hedgeDelay(String source, long expectedBytes) {
+        double estimate = throughput(source);
+        if (!(estimate > 0) || expectedBytes <= 0) return DEFAULT_HEDGE_DELAY;
+
+        Duration expected = Duration.ofNanos((long) (expectedBytes * 1e9 / estimate * HEDGE_FACTOR));
+        if (expected.compareTo(MIN_HEDGE_DELAY) < 0) return MIN_HEDGE_DELAY;
+        if (expected.compareTo(MAX_HEDGE_DELAY) > 0) return MAX_HEDGE_DELAY;
+        return expected;
+    }
+
+    /**
+     * Downloads from the best candidate, hedging to the next ones as described above.
+     *
+     * @param expectedBytes size of the file, -1 if unknown
+     * @param progress      receives the progress of every running candidate; a cancelled or failed candidate's bytes
+     *                      are taken back out
+     * @return future of the first successful result, failed with the last failure if every candidate fails.
+     * Cancelling it cancels every running candidate
+     */
+    public <T> CompletableFuture<T> race(List<Candidate<T>> candidates, long expectedBytes, ProgressCallback progress) {
+        if (candidates.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No sources to download from"));
+        }
+        return new Race<>(rank(candidates), expectedBytes, progress).start();
+    }
+
+    private final class Race<T> {
+        private final List<Candidate<T>> candidates;
+        private final long expectedBytes;
+        private final ProgressCallback progress;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        // Guarded by this
+        private final List<Attempt<T>> running = new ArrayList<>();
+        private int next;
+        private int hedgesHeld;
+        private Throwable lastFailure;
+
+        Race(List<Candidate<T>> candidates, long expectedBytes, ProgressCallback progress) {
+            this.candidates = candidates;
+            this.expectedBytes = expectedBytes;
+            this.progress = progress;
+        }
+
+        CompletableFuture<T> start() {
+            result.whenComplete((value, ex) -> finish());
+            launchNext();
+            return result;
+        }
+
+        private void launchNext() {
+            Attempt<T> attempt;
+            boolean more;
+            synchronized (this) {
+                if (result.isDone() || next >= candidates.size()) return;
+                attempt = new Attempt<>(candidates.get(next++), progress);
+                running.add(attempt);
+                more = next < candidates.size();
+            }
+
+            CompletableFuture<T> future;
+            try {
+                future = attempt.candidate.transfer().start(attempt::report);
+            } catch (Throwable t) {
+                future = CompletableFuture.failedFuture(t);
+            }
+            synchronized (this) {
+                attempt.future = future;
+            }
+            if (result.isDone()) future.cancel(true);
+
+            if (more) {
+                Duration delay = hedgeDelay(attempt.candidate.source(), expectedBytes);
+                CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS)
+                        .execute(() -> hedge(attempt, delay));
+            }
+            future.whenComplete((value, ex) -> onDone(attempt, value, ex));
+        }
+
+        private void hedge(Attempt<T> slow, Duration delay) {
+            String hedgeSource;
+            synchronized (this) {
+                if (result.isDone() || slow.future.isDone() || running.getLast() != slow) return;
+                if (hedges.incrementAndGet() > MAX_HEDGES) {
+                    hedges.decrementAndGet();
+                    return;
+                }
+                hedgesHeld++;
+                hedgeSource = candidates.get(next).source();
+            }
+            log.debug("{} has not finished after {} ms, hedging to {}", slow.candidate.source(), delay.toMillis(),
+                    hedgeSource);
+            launchNext();
+        }
+
+        private void onDone(Attempt<T> attempt, T value, Throwable ex) {
+            if (ex == null) {
+                SourceSelector.this.record(attempt.candidate.source(), attempt.bytes(), System.nanoTime() - attempt.started);
+                // Both may finish at about the same time; only the winner's progress counts
+                if (!result.complete(value)) attempt.drop();
+                return;
+            }
+
+            Throwable failure = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            boolean launch;
+            synchronized (this) {
+                if (result.isDone()) return;
+                running.remove(attempt);
+                if (lastFailure != null && lastFailure != failure) failure.addSuppressed(lastFailure);
+                lastFailure = failure;
+                launch = running.isEmpty();
+            }
+            attempt.drop();
+            recordFailure(attempt.candidate.source());
+            log.debug("Download from {} failed: {}", attempt.candidate.source(), failure.toString());
+
+            if (!launch) return;
+            synchronized (this) {
+                if (next >= candidates.size()) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+            }
+            launchNext();
+        }
+
+        /**
+         * Cancels the candidates that lost, or all of them if the race itself was cancelled.
+         */
+        private void finish() {
+            List<Attempt<T>> losers = new ArrayList<>();
+            synchronized (this) {
+                for (Attempt<T> attempt : running) {
+                    if (attempt.future == null || !attempt.future.isDone() || attempt.future.isCompletedExceptionally()) {
+                        losers.add(attempt);
+                    }
+                }
+                running.clear();
+                hedges.addAndGet(-hedgesHeld);
+                hedgesHeld = 0;
+            }
+            for (Attempt<T> loser : losers) {
+                loser.drop();
+                if (loser.future != null) loser.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A running candidate and the progress it reported, which is taken back out if it does not win.
+     */
+    private static final class Attempt<T> {
+        final Candidate<T> candidate;
+        final long started = System.nanoTime();
+        private final ProgressCallback progress;
+        private long bytes;
+        private boolean dropped;
+        volatile CompletableFuture<T> future;
+
+        Attempt(Candidate<T> candidate, ProgressCallback progress) {
+            this.candidate = candidate;
+            this.progress = progress;
+        }
+
+        void report(long deltaBytes, long total, Object... context) {
+            synchronized (this) {
+                if (dropped) return;
+                bytes += deltaBytes;
+            }
+            progress.onProgress(deltaBytes, total, context);
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        void drop() {
+            long reported;
+            synchronized (this) {
+                if (dropped) return;
+                dropped = true;
+                reported = bytes;
+            }
+            if (reported != 0) progress.onProgress(-reported, -1);
+        }
+    }
+}
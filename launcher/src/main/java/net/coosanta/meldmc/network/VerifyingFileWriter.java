@@ -0,0 +1,156 @@
+package net.coosanta.meldmc.network;
+
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+
+/**
+ * Streams a download to disk while computing its SHA-512, so the file is verified without being read back.
+ * <p>
+ * Bytes are written to a temporary file next to the target, which only replaces the target once its hash is known to be
+ * one of the accepted ones. Content that does not match is moved to a quarantine directory for inspection instead.
+ */
+public final class VerifyingFileWriter {
+    private static final Logger log = LoggerFactory.getLogger(VerifyingFileWriter.class);
+
+    private VerifyingFileWriter() {
+    }
+
+    /**
+     * Writes {@code in} to {@code target}. The stream is read to its end but not closed.
+     *
+     * @param in            content to write
+     * @param target        file to create or replace
+     * @param accepted      SHA-512 hashes the content may have
+     * @param quarantineDir where mismatching content is kept
+     * @return the SHA-512 of the written file
+     * @throws HashMismatchException if the content's hash is not accepted; the target is left untouched
+     */
+    public static String write(InputStream in, Path target, Collection<String> accepted, Path quarantineDir)
+            throws IOException, HashMismatchException {
+        MessageDigest digest = sha512();
+
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, ".download-", ".tmp");
+        try {
+            try (DownloadSink sink = DownloadSink.open(tmp, false, digest, null, -1)) {
+                sink.transferFrom(in);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+
+            if (!accepted.contains(hash)) {
+                throw quarantine(tmp, target, hash, quarantineDir);
+            }
+
+            moveIntoPlace(tmp, target);
+            return hash;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Like {@link #write}, but through a {@link PartialDownload}: if reading {@code in} fails, the bytes written so far
+     * are kept for the next attempt.
+     *
+     * @param append whether {@code in} continues the partial data, see {@link PartialDownload#beginResponse}
+     * @return the SHA-512 of the completed file
+     * @throws HashMismatchException if the completed file's hash is not accepted; the partial data is discarded
+     */
+    public static String writeResumable(InputStream in, PartialDownload download, boolean append,
+                                        Collection<String> accepted, Path quarantineDir)
+            throws IOException, HashMismatchException {
+        MessageDigest digest = resumeDigest(download, append);
+        try (DownloadSink sink = download.openSink(append, digest, null, -1)) {
+            sink.transferFrom(in);
+        }
+        return complete(download, digest, accepted, quarantineDir);
+    }
+
+    /**
+     * Starts the SHA-512 of a partial download. When appending, the partial data is hashed first, which costs a local
+     * read of what was already downloaded instead of downloading it again.
+     *
+     * @param append whether the download continues the partial data
+     */
+    public static MessageDigest resumeDigest(PartialDownload download, boolean append) throws IOException {
+        MessageDigest digest = sha512();
+        if (append) {
+            ByteBuffer buffer = ByteBuffer.allocate(DownloadSink.BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(download.partFile(), StandardOpenOption.READ)) {
+                while (channel.read(buffer) != -1) {
+                    digest.update(buffer.flip());
+                    buffer.clear();
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Moves a partial download into place if its hash is accepted, or quarantines it.
+     *
+     * @param digest SHA-512 of all the partial data, see {@link #resumeDigest}
+     * @return the SHA-512 of the completed file
+     * @throws HashMismatchException if the hash is not accepted; the partial data is discarded
+     */
+    public static String complete(PartialDownload download, MessageDigest digest, Collection<String> accepted,
+                                  Path quarantineDir) throws IOException, HashMismatchException {
+        String hash = HexFormat.of().formatHex(digest.digest());
+
+        if (!accepted.contains(hash)) {
+            HashMismatchException mismatch = quarantine(download.partFile(), download.target(), hash, quarantineDir);
+            download.discard();
+            throw mismatch;
+        }
+
+        download.complete();
+        return hash;
+    }
+
+    /**
+     * Replaces {@code target} with the verified {@code file}, atomically where the file system allows.
+     */
+    static void moveIntoPlace(Path file, Path target) throws IOException {
+        try {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static HashMismatchException quarantine(Path file, Path target, String hash, Path quarantineDir)
+            throws IOException {
+        Files.createDirectories(quarantineDir);
+        Path quarantined = quarantineDir.resolve(target.getFileName() + "." + System.currentTimeMillis());
+        Files.move(file, quarantined, StandardCopyOption.REPLACE_EXISTING);
+        log.warn("Downloaded {} has unexpected hash {}, quarantined at {}", target.getFileName(), hash, quarantined);
+        return new HashMismatchException(target.getFileName().toString(), hash, quarantined);
+    }
+
+    static MessageDigest sha512() {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the quarantine directory used for downloads into {@code destinationDir}
+     */
+    public static Path quarantineDirFor(Path destinationDir) {
+        return destinationDir.resolveSibling("quarantine");
+    }
+}
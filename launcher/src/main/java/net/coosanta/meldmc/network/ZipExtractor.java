@@ -0,0 +1,282 @@
+package net.coosanta.meldmc.network;
+
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a zip of downloaded files in stages, so that network, CPU and disk time overlap instead of adding up:
+ * entries are inflated and hashed on the calling thread, while a writer on {@link DownloadManager#ioExecutor()} writes
+ * the inflated data to temporary files and renames each into place once its hash is accepted. Reading ahead from the
+ * network is up to the stream passed in, e.g. one from a {@link net.coosanta.meldmc.network.http.ReadAheadBodySubscriber}.
+ * <p>
+ * The stages hand over {@value #CHUNKS} chunks of {@value #CHUNK_SIZE} bytes, so a slow disk holds back inflating
+ * instead of buffering whole files in memory. Like {@link VerifyingFileWriter}, content that does not match is
+ * quarantined rather than put in place.
+ * <p>
+ * The {@link BandwidthLimiter} is charged for the zip as it is read, i.e. for the bytes that came over the network, and
+ * not for the inflated files written to disk.
+ */
+public final class ZipExtractor {
+    public static final int CHUNK_SIZE = 256 * 1024;
+    public static final int CHUNKS = 8;
+
+    /**
+     * Told about every file entry, on the writer's thread.
+     */
+    public interface Listener {
+        /**
+         * The entry's content is in place at {@code file}.
+         */
+        void extracted(Path file, String hash);
+
+        /**
+         * The entry's content had a hash that is not accepted, and was quarantined.
+         */
+        void rejected(String entryName, HashMismatchException mismatch);
+    }
+
+    private ZipExtractor() {
+    }
+
+    /**
+     * Extracts every file entry of {@code zip} into {@code destination}, named as in the zip. The stream is read to its
+     * end and closed.
+     *
+     * @param accepted SHA-512 hashes an entry may have; checked as each entry ends, so it may change meanwhile
+     * @throws IOException if reading or writing fails. Entries reported as extracted before stay in place
+     */
+    public static void extract(InputStream zip, Path destination, Collection<String> accepted, Path quarantineDir,
+                               Listener listener) throws IOException {
+        Files.createDirectories(destination);
+        Path root = destination.toAbsolutePath().normalize();
+
+        Writer writer = new Writer(accepted, quarantineDir, listener);
+        Future<?> writing = DownloadManager.getInstance().ioExecutor().submit(writer);
+        boolean finished = false;
+        try (ZipInputStream zipIn = new ZipInputStream(new Throttled(zip))) {
+            MessageDigest digest = VerifyingFileWriter.sha512();
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                if (entry.isDirectory()) continue; // No directories should be in the response.
+
+                Path target = destination.resolve(entry.getName());
+                Path resolved = target.toAbsolutePath().normalize();
+                if (!resolved.startsWith(root) || resolved.equals(root)) {
+                    throw new IOException("Zip entry " + entry.getName() + " points outside " + destination);
+                }
+
+                writer.send(new Begin(target));
+                digest.reset();
+                int read;
+                do {
+                    byte[] chunk = writer.takeChunk();
+                    read = zipIn.readNBytes(chunk, 0, CHUNK_SIZE);
+                    digest.update(chunk, 0, read);
+                    writer.send(new Data(chunk, read));
+                } while (read == CHUNK_SIZE);
+                writer.send(new End(HexFormat.of().formatHex(digest.digest())));
+            }
+
+            writer.send(Finish.INSTANCE);
+            finished = true;
+            await(writing);
+        } finally {
+            if (!finished) writing.cancel(true);
+        }
+    }
+
+    private static void await(Future<?> writing) throws IOException {
+        try {
+            writing.get();
+        } catch (InterruptedException e) {
+            writing.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing extracted files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to write extracted files", e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the {@link BandwidthLimiter} before handing on what was read.
+     */
+    private static final class Throttled extends FilterInputStream {
+        Throttled(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) BandwidthLimiter.global().acquire(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            BandwidthLimiter.global().acquire(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            BandwidthLimiter.global().acquire(skipped);
+            return skipped;
+        }
+    }
+
+    private sealed interface Command permits Begin, Data, End, Finish {
+    }
+
+    private record Begin(Path target) implements Command {
+    }
+
+    private record Data(byte[] chunk, int length) implements Command {
+    }
+
+    private record End(String hash) implements Command {
+    }
+
+    private enum Finish implements Command {
+        INSTANCE
+    }
+
+    /**
+     * The disk stage. After a failure it keeps taking commands so the inflating side never blocks on it, and reports the
+     * failure at the next hand-over.
+     */
+    private static final class Writer implements Callable<Void> {
+        private final Collection<String> accepted;
+        private final Path quarantineDir;
+        private final Listener listener;
+        private final BlockingQueue<Command> commands = new ArrayBlockingQueue<>(CHUNKS + 2);
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS);
+
+        private volatile IOException failure;
+        private volatile boolean stopped;
+
+        Writer(Collection<String> accepted, Path quarantineDir, Listener listener) {
+            this.accepted = accepted;
+            this.quarantineDir = quarantineDir;
+            this.listener = listener;
+            for (int i = 0; i < CHUNKS; i++) {
+                chunks.add(new byte[CHUNK_SIZE]);
+            }
+        }
+
+        byte[] takeChunk() throws IOException {
+            try {
+                byte[] chunk;
+                while ((chunk = chunks.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                    checkRunning();
+                }
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while extracting");
+            }
+        }
+
+        void send(Command command) throws IOException {
+            checkRunning();
+            try {
+                while (!commands.offer(command, 100, TimeUnit.MILLISECONDS)) {
+                    checkRunning();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while extracting");
+            }
+        }
+
+        private void checkRunning() throws IOException {
+            IOException failed = failure;
+            if (failed != null) throw new IOException("Failed to write extracted file", failed);
+            if (stopped) throw new IOException("Writer stopped unexpectedly");
+        }
+
+        @Override
+        public Void call() throws IOException {
+            Path target = null;
+            Path tmp = null;
+            DownloadSink sink = null;
+            try {
+                while (true) {
+                    Command command = commands.take();
+                    if (command == Finish.INSTANCE) {
+                        if (failure != null) throw failure;
+                        return null;
+                    }
+                    if (failure != null) {
+                        if (command instanceof Data data) chunks.add(data.chunk());
+                        continue;
+                    }
+
+                    try {
+                        switch (command) {
+                            case Begin begin -> {
+                                target = begin.target();
+                                Files.createDirectories(target.getParent());
+                                tmp = Files.createTempFile(target.getParent(), ".download-", ".tmp");
+                                sink = DownloadSink.open(tmp, false, null, null, -1);
+                            }
+                            case Data data -> {
+                                try {
+                                    sink.write(ByteBuffer.wrap(data.chunk(), 0, data.length()));
+                                } finally {
+                                    chunks.add(data.chunk());
+                                }
+                            }
+                            case End end -> {
+                                sink.close();
+                                sink = null;
+                                finishEntry(tmp, target, end.hash());
+                                tmp = null;
+                            }
+                            case Finish finish -> throw new IllegalStateException();
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while writing extracted files");
+            } finally {
+                stopped = true;
+                if (sink != null) {
+                    try {
+                        sink.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                if (tmp != null) Files.deleteIfExists(tmp);
+            }
+        }
+
+        private void finishEntry(Path tmp, Path target, String hash) throws IOException {
+            if (!accepted.contains(hash)) {
+                HashMismatchException mismatch = VerifyingFileWriter.quarantine(tmp, target, hash, quarantineDir);
+                listener.rejected(target.getFileName().toString(), mismatch);
+                return;
+            }
+            VerifyingFileWriter.moveIntoPlace(tmp, target);
+            listener.extracted(target, hash);
+        }
+    }
+}
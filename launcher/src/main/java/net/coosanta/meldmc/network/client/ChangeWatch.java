@@ -0,0 +1,201 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.coosanta.meldmc.network.http.DownloadPolicy;
+import net.coosanta.meldmc.network.http.HttpStatusException;
+import net.coosanta.meldmc.network.http.SharedHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a Meld server's {@code GET /changes} stream of Server-Sent Events, passing each {@link ModChangeNotice} to a
+ * listener. The connection does not hold a thread while it waits for the server.
+ * <p>
+ * When the stream ends or breaks, it is opened again with the last event's id, so the server can send what was missed,
+ * after the delay the server asked for, or with backoff while it keeps failing. Servers that do not have the stream
+ * answer with a client error and are not asked again.
+ */
+class ChangeWatch {
+    private static final Logger log = LoggerFactory.getLogger(ChangeWatch.class);
+    // Servers send a comment line at least every 30 seconds, so a longer silence means the connection is gone
+    private static final DownloadPolicy POLICY = new DownloadPolicy(
+            Duration.ofSeconds(10), Duration.ofSeconds(90), 1, Duration.ofSeconds(1), Duration.ofMinutes(2)
+    );
+    private static final long DEFAULT_RETRY_MILLIS = 3000;
+
+    private final HttpClient client;
+    private final URI uri;
+    private final ObjectMapper objectMapper;
+    private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+    private volatile Consumer<ModChangeNotice> listener;
+    private volatile String lastEventId;
+    private volatile long retryMillis = DEFAULT_RETRY_MILLIS;
+    private volatile CompletableFuture<?> exchange;
+    // Only touched by one connection attempt at a time
+    private int failures;
+
+    ChangeWatch(HttpClient client, URI uri, ObjectMapper objectMapper, Consumer<ModChangeNotice> listener) {
+        this.client = client;
+        this.uri = uri;
+        this.objectMapper = objectMapper;
+        this.listener = listener;
+        stopped.whenComplete((v, ex) -> {
+            CompletableFuture<?> current = exchange;
+            if (current != null) current.cancel(true);
+        });
+    }
+
+    /**
+     * @return completed once the watch ends for good. Cancelling it closes the stream
+     */
+    CompletableFuture<Void> stopped() {
+        return stopped;
+    }
+
+    void setListener(Consumer<ModChangeNotice> listener) {
+        this.listener = listener;
+    }
+
+    void start() {
+        connect();
+    }
+
+    void stop() {
+        stopped.complete(null);
+    }
+
+    private void connect() {
+        if (stopped.isDone()) return;
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .header("User-Agent", SharedHttpClient.USER_AGENT)
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .timeout(POLICY.readTimeout());
+        String resumeFrom = lastEventId;
+        if (resumeFrom != null && !resumeFrom.isEmpty()) builder.header("Last-Event-ID", resumeFrom);
+
+        EventParser parser = new EventParser();
+        CompletableFuture<HttpResponse<Void>> current = client.sendAsync(builder.GET().build(), info ->
+                info.statusCode() == 200
+                        ? POLICY.guardStalls(HttpResponse.BodySubscribers.fromLineSubscriber(
+                        parser, s -> null, StandardCharsets.UTF_8, null))
+                        : HttpResponse.BodySubscribers.discarding());
+        exchange = current;
+        if (stopped.isDone()) current.cancel(true);
+
+        current.whenComplete((response, ex) -> {
+            if (stopped.isDone()) return;
+            if (parser.received) failures = 0;
+
+            long delay;
+            if (ex != null) {
+                log.debug("Change stream from {} broke", uri, ex);
+                delay = POLICY.backoff(++failures).toMillis();
+            } else if (response.statusCode() == 200) {
+                delay = retryMillis;
+            } else {
+                HttpStatusException status = new HttpStatusException(response.statusCode(), uri.toString());
+                // 204 is how a server tells clients to stop reconnecting
+                if (response.statusCode() == 204 || !status.isTransient()) {
+                    log.debug("{} has no change stream (HTTP {})", uri, response.statusCode());
+                    stop();
+                    return;
+                }
+                log.debug("Change stream from {} is unavailable", uri, status);
+                delay = POLICY.backoff(++failures).toMillis();
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::connect);
+        });
+    }
+
+    private void dispatch(String type, String data) {
+        if (!type.isEmpty() && !type.equals("changes")) return;
+
+        ModChangeNotice notice;
+        try {
+            notice = objectMapper.readValue(data, ModChangeNotice.class);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable change notice from {}", uri, e);
+            return;
+        }
+        log.debug("{} changed to version {}, {} mods differ", uri, notice.version(), notice.changedHashes().size());
+        try {
+            listener.accept(notice);
+        } catch (RuntimeException e) {
+            log.error("Failed to handle change notice from {}", uri, e);
+        }
+    }
+
+    /**
+     * Assembles events from the stream's lines as the Server-Sent Events format describes: fields until a blank line,
+     * comments starting with a colon.
+     */
+    private class EventParser implements Flow.Subscriber<String> {
+        private final StringBuilder data = new StringBuilder();
+        private String type = "";
+        private String id;
+        volatile boolean received;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            received = true;
+            if (line.isEmpty()) {
+                // Only taken over once the event is complete, so an event cut off by a reconnect is sent again
+                if (id != null) lastEventId = id;
+                if (!data.isEmpty()) {
+                    data.setLength(data.length() - 1);
+                    dispatch(type, data.toString());
+                }
+                data.setLength(0);
+                type = "";
+                return;
+            }
+            if (line.startsWith(":")) return; // Comment, sent to keep the connection alive
+
+            int colon = line.indexOf(':');
+            String field = colon == -1 ? line : line.substring(0, colon);
+            String value = colon == -1 ? "" : line.substring(line.startsWith(" ", colon + 1) ? colon + 2 : colon + 1);
+            switch (field) {
+                case "data" -> data.append(value).append('\n');
+                case "event" -> type = value;
+                case "id" -> {
+                    if (value.indexOf('\0') == -1) id = value;
+                }
+                case "retry" -> {
+                    if (!value.isEmpty() && value.length() < 10 && value.chars().allMatch(Character::isDigit)) {
+                        retryMillis = Long.parseLong(value);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
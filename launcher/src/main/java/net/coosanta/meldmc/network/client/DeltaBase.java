@@ -0,0 +1,15 @@
+package net.coosanta.meldmc.network.client;
+
+import java.nio.file.Path;
+
+/**
+ * An earlier version of a file that is available locally, which the file can be transferred as a delta against.
+ *
+ * @param hash SHA-512 of the earlier version, which the server has to know
+ * @param file where the earlier version is; only read
+ */
+public record DeltaBase(
+        String hash,
+        Path file
+) {
+}
@@ -4,8 +4,10 @@ import net.coosanta.meldmc.network.ProgressCallback;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Client interface for interacting with a MeldMC server.
@@ -17,7 +19,54 @@ public interface MeldClient {
      *
      * @return A CompletableFuture that resolves to the mod information
      */
-    CompletableFuture<MeldData> fetchModInfo();
+    default CompletableFuture<MeldData> fetchModInfo() {
+        return fetchModInfo(mod -> {
+        });
+    }
+
+    /**
+     * Fetches mod information from the server, handing out each mod as soon as it has been read, so that large modpacks
+     * can be worked on while they are still arriving. Mods come without their description, see
+     * {@link #fetchDescription}.
+     *
+     * @param onMod Called with every mod of the result, in order, on a download thread
+     * @return A CompletableFuture that resolves to the mod information
+     */
+    CompletableFuture<MeldData> fetchModInfo(Consumer<MeldData.ClientMod> onMod);
+
+    /**
+     * Fetches the description of a mod, which is left out of the mod information until it is shown.
+     *
+     * @param hash The SHA-512 of the mod
+     * @return A CompletableFuture that resolves to the description, or null if the mod has none
+     */
+    CompletableFuture<String> fetchDescription(String hash);
+
+    /**
+     * Follows the server's changes as it announces them, for servers that can; others have to be asked with
+     * {@link #fetchModInfo()} again. Only one watch runs per client: calling this again while it runs only replaces the
+     * listener.
+     *
+     * @param listener Called for every change, on a network thread
+     * @return A CompletableFuture completed once the server is no longer watched, right away if it cannot be.
+     * Cancelling it stops watching
+     */
+    CompletableFuture<Void> watchChanges(Consumer<ModChangeNotice> listener);
+
+    /**
+     * Brings mod info up to date with a change the server announced, fetching only the mods the notice names. Falls
+     * back to {@link #fetchModInfo()} if the change is not to the mods alone, or the server cannot answer for single
+     * mods.
+     *
+     * @param current The mod info the notice is a change of
+     * @return A CompletableFuture that resolves to the changed mod information
+     */
+    CompletableFuture<MeldData> applyChanges(MeldData current, ModChangeNotice notice);
+
+    /**
+     * @return Whether a watch started by {@link #watchChanges} is still running
+     */
+    boolean isWatchingChanges();
 
     /**
      * Downloads files with the specified hashes.
@@ -26,7 +75,32 @@ public interface MeldClient {
      * @param destination Directory to save the downloaded files
      * @return A CompletableFuture that resolves to a list of downloaded file paths
      */
-    CompletableFuture<Set<Path>> downloadFiles(Collection<String> hashes, Path destination);
+    default CompletableFuture<Set<Path>> downloadFiles(Collection<String> hashes, Path destination) {
+        return downloadFiles(hashes, destination, Map.of());
+    }
+
+    /**
+     * Downloads files with the specified hashes. Files with an earlier version available locally are transferred as a
+     * delta against it where the server supports that, and whole if the delta fails.
+     *
+     * @param hashes      Collection of file hashes to download
+     * @param destination Directory to save the downloaded files
+     * @param bases       K: hash of a file to download. V: an earlier version of that file
+     * @return A CompletableFuture that resolves to a list of downloaded file paths
+     */
+    CompletableFuture<Set<Path>> downloadFiles(Collection<String> hashes, Path destination,
+                                               Map<String, DeltaBase> bases);
+
+    /**
+     * Downloads a single file as part of a transfer the caller already scheduled, e.g. one racing another source.
+     * Unlike {@link #downloadFiles}, it is not queued with the download manager and does not retry.
+     *
+     * @param hash        hash of the file
+     * @param destination directory to save the file in
+     * @param progress    receives the bytes downloaded
+     * @return A CompletableFuture that resolves to the downloaded file. Cancelling it aborts the request
+     */
+    CompletableFuture<Path> fetchFile(String hash, Path destination, ProgressCallback progress);
 
     /**
      * Sets a callback for progress updates during downloads.
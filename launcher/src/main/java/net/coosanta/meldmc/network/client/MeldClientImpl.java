@@ -1,43 +1,83 @@
 package net.coosanta.meldmc.network.client;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+import net.coosanta.meldmc.network.DeltaPatcher;
+import net.coosanta.meldmc.network.DownloadJob;
+import net.coosanta.meldmc.network.DownloadManager;
 import net.coosanta.meldmc.network.ProgressCallback;
 import net.coosanta.meldmc.network.ProgressTrackingInputStream;
-import net.coosanta.meldmc.utility.SSLUtils;
-import org.jetbrains.annotations.NotNull;
+import net.coosanta.meldmc.network.VerifyingFileWriter;
+import net.coosanta.meldmc.network.ZipExtractor;
+import net.coosanta.meldmc.network.http.DownloadPolicy;
+import net.coosanta.meldmc.network.http.HttpStatusException;
+import net.coosanta.meldmc.network.http.ReadAheadBodySubscriber;
+import net.coosanta.meldmc.network.http.SharedHttpClient;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Talks to a Meld server through the launcher's {@link SharedHttpClient}, so connections and TLS sessions are kept
+ * alive and reused between pings and downloads, and HTTP/2 is used where the server offers it. Requests do not hold a
+ * thread while waiting for the server. A file transfer's zip is received ahead into a buffer, while its entries are
+ * inflated and hashed on one download thread and written to disk on another, see {@link ZipExtractor}.
+ * <p>
+ * Before the first transfer the server is asked for its {@link ServerCapabilities}. Servers that support it get large
+ * transfers split into size-balanced batches fetched in parallel, and are asked for uncompressed zip entries, since mod
+ * jars are compressed already. Older servers get a single request with every hash, as before. Files the caller has an
+ * earlier version of are sent as deltas by servers that can, see {@link DeltaPatcher}.
+ * <p>
+ * Mod info is fetched as Smile or gzip-compressed where the server offers it, see {@link MeldDataFormat}, and
+ * conditionally: with an entity tag from the server, the last answer is kept (see {@link ModInfoCache}) and a ping of
+ * an unchanged modpack costs a 304. Servers that stream their changes are followed with a {@link ChangeWatch} instead
+ * of waiting for the next ping, and only the mods a change names are fetched, from {@code POST /info/mods}. Mod
+ * descriptions are left out of mod info and fetched from there too, one mod at a time as they are shown.
+ */
 public class MeldClientImpl implements MeldClient {
+    private static final Logger log = LoggerFactory.getLogger(MeldClientImpl.class);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+    private static final long READ_AHEAD_BYTES = 8 * 1024 * 1024;
+    // Smaller transfers are not worth splitting: the extra requests cost more than they gain
+    private static final long MIN_BATCH_BYTES = 16 * 1024 * 1024;
+
     private final String baseUrl;
-    private final boolean isHttps;
+    private final HttpClient client;
+    private final DownloadPolicy policy = DownloadPolicy.DEFAULT;
+    private final DownloadManager manager = DownloadManager.getInstance();
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final ExecutorService executorService = Executors.newCachedThreadPool(
-            GlobalExceptionHandler.threadFactory("meld-client")
-    );
-    private final SSLContext sslContext;
+    private final AtomicReference<CompletableFuture<ServerCapabilities>> capabilities = new AtomicReference<>();
+    private final ModInfoCache infoCache;
+    // K: hash, V: size, from the last mod info, to balance batches
+    private volatile Map<String, Long> fileSizes = Map.of();
+    // K: hash, V: file name, from the last mod info, to name files rebuilt from deltas
+    private volatile Map<String, String> fileNames = Map.of();
+    private volatile MeldData sizesFrom;
+    // K: hash. V: description, empty if the mod has none. Fetched as mods are shown, see fetchDescription
+    private final Map<String, String> descriptions = new ConcurrentHashMap<>();
     private ProgressCallback progressCallback;
+    // Guarded by this
+    private ChangeWatch changeWatch;
 
     /**
      * Creates a new MeldClient instance.
@@ -48,135 +88,612 @@ public class MeldClientImpl implements MeldClient {
      * @param trustAllCerts If true, all certificates including self-signed will be trusted.
      */
     public MeldClientImpl(String host, int port, boolean useHttps, boolean trustAllCerts) {
-        this.isHttps = useHttps;
+        this(host, port, useHttps, trustAllCerts, null);
+    }
+
+    /**
+     * Creates a new MeldClient instance that keeps the server's last mod info in a file, to ask whether it changed
+     * instead of fetching it again after a restart.
+     *
+     * @param infoCacheFile Where the last mod info is kept, or null to keep it in memory only.
+     */
+    public MeldClientImpl(String host, int port, boolean useHttps, boolean trustAllCerts, @Nullable Path infoCacheFile) {
         this.baseUrl = (useHttps ? "https://" : "http://") + host + ":" + port;
+        this.client = useHttps && trustAllCerts ? SharedHttpClient.trustingAll() : SharedHttpClient.get();
+        this.infoCache = new ModInfoCache(infoCacheFile, objectMapper);
+    }
 
-        // Set up SSL context
-        if (useHttps && trustAllCerts) {
-            try {
-                this.sslContext = SSLUtils.createTrustAllSSLContext();
-            } catch (NoSuchAlgorithmException | KeyManagementException e) {
-                throw new RuntimeException("Failed to create SSL context", e);
-            }
-        } else {
-            this.sslContext = null;
+    @Override
+    public CompletableFuture<MeldData> fetchModInfo(Consumer<MeldData.ClientMod> onMod) {
+        return manager.runInterruptibly(infoCache::get).thenCompose(cached -> {
+            HttpRequest.Builder builder = newRequest("/info")
+                    .header("Accept", MeldDataFormat.ACCEPT)
+                    .header("Accept-Encoding", "gzip");
+            if (cached != null) builder.header("If-None-Match", cached.etag());
+            HttpRequest request = builder.GET().build();
+
+            // Parsed while it is still being received, so the first mods are handed out before the last have arrived
+            return client.sendAsync(request, info -> policy.guardStalls(new ReadAheadBodySubscriber(READ_AHEAD_BYTES)))
+                    .thenCompose(response -> manager.runInterruptibly(() -> {
+                        try (InputStream body = response.body()) {
+                            return readModInfo(request, response, body, cached, onMod);
+                        } catch (IOException e) {
+                            throw new CompletionException("Failed to fetch mod info", e);
+                        }
+                    }));
+        });
+    }
+
+    /**
+     * Returns the cached mod info if the server says it has not changed, without parsing anything. Otherwise parses
+     * the new mod info and caches it, if the server sent an entity tag to ask for it with next time.
+     */
+    private MeldData readModInfo(HttpRequest request, HttpResponse<InputStream> response, InputStream body,
+                                 @Nullable ModInfoCache.Entry cached, Consumer<MeldData.ClientMod> onMod)
+            throws IOException {
+        if (response.statusCode() == 304 && cached != null) {
+            log.debug("Mod info from {} is unchanged", baseUrl);
+            cached.data().modMap().values().forEach(onMod);
+            return useModInfo(cached.data());
+        }
+        if (response.statusCode() != 200) {
+            throw new HttpStatusException(response.statusCode(), request.uri().toString());
+        }
+
+        MeldDataFormat format = MeldDataFormat.of(response.headers().firstValue("Content-Type").orElse(null));
+        MeldData data = MeldDataReader.read(decodeBody(response, body), format.factory(), onMod);
+
+        Optional<String> etag = response.headers().firstValue("ETag");
+        if (etag.isPresent()) {
+            infoCache.put(new ModInfoCache.Entry(etag.get(), data));
+        } else if (cached != null) {
+            infoCache.clear();
+        }
+        return useModInfo(data);
+    }
+
+    private MeldData useModInfo(MeldData data) {
+        if (data != sizesFrom) {
+            fileSizes = data.modMap().values().stream()
+                    .collect(Collectors.toUnmodifiableMap(MeldData.ClientMod::hash,
+                            MeldData.ClientMod::fileSize, (a, b) -> a));
+            // Names with a directory in them are left out, so a delta cannot be written outside its destination
+            fileNames = data.modMap().values().stream()
+                    .filter(mod -> mod.filename() != null && Path.of(mod.filename()).getFileName() != null
+                                   && Path.of(mod.filename()).getFileName().toString().equals(mod.filename()))
+                    .collect(Collectors.toUnmodifiableMap(MeldData.ClientMod::hash,
+                            MeldData.ClientMod::filename, (a, b) -> a));
+            sizesFrom = data;
+        }
+        return data;
+    }
+
+    private static InputStream decodeBody(HttpResponse<?> response, InputStream body) throws IOException {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+        return switch (encoding.toLowerCase(Locale.ROOT)) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(body, ZIP_BUFFER_SIZE);
+            case "identity" -> body;
+            default -> throw new IOException("Unsupported Content-Encoding " + encoding);
+        };
+    }
+
+    /**
+     * Asks the server which transfer modes it supports, once per client. If the server cannot be reached it is asked
+     * again next time.
+     */
+    private CompletableFuture<ServerCapabilities> capabilities() {
+        CompletableFuture<ServerCapabilities> known = capabilities.get();
+        if (known != null) return known;
+
+        CompletableFuture<ServerCapabilities> promise = new CompletableFuture<>();
+        if (!capabilities.compareAndSet(null, promise)) return capabilities();
+
+        client.sendAsync(newRequest("/capabilities").GET().build(), HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, ex) -> {
+                    if (ex != null) {
+                        log.debug("Failed to ask {} for its capabilities", baseUrl, ex);
+                        capabilities.compareAndSet(promise, null);
+                        promise.complete(ServerCapabilities.NONE);
+                        return;
+                    }
+                    promise.complete(parseCapabilities(response));
+                });
+        return promise;
+    }
+
+    private ServerCapabilities parseCapabilities(HttpResponse<byte[]> response) {
+        if (response.statusCode() != 200) {
+            log.debug("{} does not negotiate transfers (HTTP {}), using a single zip", baseUrl, response.statusCode());
+            return ServerCapabilities.NONE;
+        }
+        try {
+            ServerCapabilities parsed = objectMapper.readValue(response.body(), ServerCapabilities.class);
+            log.debug("{} supports {}", baseUrl, parsed);
+            return parsed;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable capabilities from {}", baseUrl, e);
+            return ServerCapabilities.NONE;
         }
     }
 
     @Override
-    public CompletableFuture<MeldData> fetchModInfo() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                URL url = URI.create(baseUrl + "/info").toURL();
-                HttpURLConnection connection = setupConnection(url, "GET");
-
-                if (connection.getResponseCode() != 200) {
-                    throw new IOException("HTTP error code: " + connection.getResponseCode());
-                }
+    public synchronized CompletableFuture<Void> watchChanges(Consumer<ModChangeNotice> listener) {
+        if (changeWatch != null && !changeWatch.stopped().isDone()) {
+            changeWatch.setListener(listener);
+            return changeWatch.stopped();
+        }
 
-                try (InputStream is = connection.getInputStream()) {
-                    return objectMapper.readValue(is, MeldData.class);
-                }
-            } catch (Exception e) {
-                throw new CompletionException("Failed to fetch mod info", e);
+        ChangeWatch watch = new ChangeWatch(client, URI.create(baseUrl + "/changes"), objectMapper, listener);
+        changeWatch = watch;
+        capabilities().thenAccept(capabilities -> {
+            if (capabilities.changeStream()) {
+                watch.start();
+            } else {
+                watch.stop();
             }
-        }, executorService);
+        });
+        return watch.stopped();
     }
 
     @Override
-    public CompletableFuture<Set<Path>> downloadFiles(Collection<String> hashes, Path destination) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Files.createDirectories(destination);
-
-                URL url = URI.create(baseUrl + "/files").toURL();
-                HttpURLConnection connection = setupConnection(url, "POST");
-                connection.setDoOutput(true);
-                connection.setRequestProperty("Content-Type", "application/json");
-
-                // Send hash list
-                try (OutputStream os = connection.getOutputStream()) {
-                    objectMapper.writeValue(os, hashes);
-                }
+    public CompletableFuture<MeldData> applyChanges(MeldData current, ModChangeNotice notice) {
+        // A notice without mods changed something else, e.g. the loader version
+        if (notice.changedHashes().isEmpty()) return fetchModInfo();
 
-                if (connection.getResponseCode() != 200) {
-                    throw new IOException("HTTP error code: " + connection.getResponseCode());
-                }
+        return fetchMods(notice.changedHashes())
+                .thenApply(changed -> {
+                    // Named mods the server did not answer for were removed
+                    Map<String, MeldData.ClientMod> modMap = new LinkedHashMap<>(current.modMap());
+                    modMap.keySet().removeAll(notice.changedHashes());
+                    modMap.putAll(changed);
+                    return useModInfo(new MeldData(current.mcVersion(), current.modLoader(),
+                            current.modLoaderVersion(), current.versionId(), modMap));
+                })
+                .exceptionallyCompose(e -> {
+                    log.debug("Failed to fetch the mods of change {} from {}, fetching all mod info",
+                            notice.version(), baseUrl, e);
+                    return fetchModInfo();
+                });
+    }
+
+    /**
+     * Asks the server for the info of single mods, in the same formats as the whole mod info.
+     *
+     * @return K: hash. V: its mod, for the hashes that are part of the server's mods
+     */
+    private CompletableFuture<Map<String, MeldData.ClientMod>> fetchMods(Collection<String> hashes) {
+        return postInfoMods(hashes, (in, factory) -> MeldDataReader.read(in, factory, mod -> {
+        }).modMap(), "Failed to fetch changed mods");
+    }
+
+    @Override
+    public CompletableFuture<String> fetchDescription(String hash) {
+        String known = descriptions.get(hash);
+        if (known != null) return CompletableFuture.completedFuture(known.isEmpty() ? null : known);
+
+        return postInfoMods(List.of(hash), MeldDataReader::readDescriptions, "Failed to fetch description")
+                .exceptionallyCompose(e -> {
+                    // Servers that cannot answer for single mods send every description at once instead
+                    log.debug("Failed to fetch the description of {} from {}, fetching all of them", hash, baseUrl, e);
+                    HttpRequest request = newRequest("/info")
+                            .header("Accept", MeldDataFormat.ACCEPT)
+                            .header("Accept-Encoding", "gzip")
+                            .GET()
+                            .build();
+                    return readModInfoBody(request, MeldDataReader::readDescriptions, "Failed to fetch descriptions");
+                })
+                .thenApply(found -> {
+                    descriptions.putAll(found);
+                    descriptions.putIfAbsent(hash, ""); // The mod has none
+                    return found.get(hash);
+                });
+    }
+
+    /**
+     * Asks {@code POST /info/mods} about single mods.
+     */
+    private <T> CompletableFuture<T> postInfoMods(Collection<String> hashes, ModInfoReader<T> reader, String failure) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(hashes);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-                long contentLength = connection.getContentLengthLong();
-                return processZipResponse(destination, connection, contentLength);
-            } catch (Exception e) {
-                throw new CompletionException("Failed to download files", e);
+        HttpRequest request = newRequest("/info/mods")
+                .header("Content-Type", "application/json")
+                .header("Accept", MeldDataFormat.ACCEPT)
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return readModInfoBody(request, reader, failure);
+    }
+
+    /**
+     * Sends a request answered with mod info and reads the body as it arrives, in whichever format the server chose.
+     */
+    private <T> CompletableFuture<T> readModInfoBody(HttpRequest request, ModInfoReader<T> reader, String failure) {
+        return client.sendAsync(request, info -> policy.guardStalls(new ReadAheadBodySubscriber(READ_AHEAD_BYTES)))
+                .thenCompose(response -> manager.runInterruptibly(() -> {
+                    try (InputStream in = response.body()) {
+                        if (response.statusCode() != 200) {
+                            throw new HttpStatusException(response.statusCode(), request.uri().toString());
+                        }
+                        MeldDataFormat format = MeldDataFormat.of(
+                                response.headers().firstValue("Content-Type").orElse(null));
+                        return reader.read(decodeBody(response, in), format.factory());
+                    } catch (IOException e) {
+                        throw new CompletionException(failure, e);
+                    }
+                }));
+    }
+
+    private interface ModInfoReader<T> {
+        T read(InputStream in, JsonFactory factory) throws IOException;
+    }
+
+    @Override
+    public synchronized boolean isWatchingChanges() {
+        return changeWatch != null && !changeWatch.stopped().isDone();
+    }
+
+    @Override
+    public CompletableFuture<Set<Path>> downloadFiles(Collection<String> hashes, Path destination,
+                                                     Map<String, DeltaBase> bases) {
+        ProgressCallback listener = progressCallback;
+        return capabilities().thenCompose(capabilities -> {
+            Map<String, String> names = fileNames;
+            Map<String, DeltaBase> deltas = new HashMap<>();
+            if (capabilities.deltaFiles()) {
+                for (String hash : hashes) {
+                    DeltaBase base = bases.get(hash);
+                    if (base != null && names.containsKey(hash)) deltas.put(hash, base);
+                }
             }
-        }, executorService);
+            List<String> whole = hashes.stream().filter(hash -> !deltas.containsKey(hash)).toList();
+            if (!deltas.isEmpty()) {
+                log.info("Downloading {} files from {} as deltas against their earlier versions",
+                        deltas.size(), baseUrl);
+            }
+
+            CompletableFuture<Set<Path>> patched = downloadDeltas(deltas, destination, capabilities, listener);
+            CompletableFuture<Set<Path>> complete = downloadWhole(whole, destination, capabilities, listener);
+            return patched.thenCombine(complete, (a, b) -> {
+                Set<Path> all = new HashSet<>(a);
+                all.addAll(b);
+                return all;
+            });
+        });
     }
 
-    private @NotNull Set<Path> processZipResponse(Path destination, HttpURLConnection connection, long contentLength) throws IOException {
-        Set<Path> extractedFiles = new HashSet<>();
+    private CompletableFuture<Set<Path>> downloadWhole(Collection<String> hashes, Path destination,
+                                                       ServerCapabilities capabilities, ProgressCallback listener) {
+        if (hashes.isEmpty()) return CompletableFuture.completedFuture(Set.of());
 
-        try (ProgressTrackingInputStream progressStream = new ProgressTrackingInputStream(connection.getInputStream(), contentLength, false, progressCallback);
-             ZipInputStream zipIn = new ZipInputStream(progressStream)) {
+        List<Set<String>> batches = splitIntoBatches(hashes, capabilities.parallelism());
+        if (batches.size() > 1) {
+            log.info("Downloading {} files from {} in {} parallel batches", hashes.size(), baseUrl, batches.size());
+        }
+
+        List<CompletableFuture<Set<Path>>> results = new ArrayList<>();
+        for (Set<String> batch : batches) {
+            DownloadJob<Set<Path>> job = submitBatch(batch, destination, capabilities);
+            if (listener != null) job.onProgress(listener);
+            results.add(job.result());
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenApply(v -> results.stream()
+                        .flatMap(result -> result.join().stream())
+                        .collect(Collectors.toSet()));
+    }
 
-            ZipEntry entry;
-            while ((entry = zipIn.getNextEntry()) != null) {
-                if (entry.isDirectory()) { // No directories should be in the response.
-                    zipIn.closeEntry();
-                    continue;
+    /**
+     * Downloads each file as a delta in a job of its own. Files whose delta fails for any reason are downloaded whole
+     * afterward.
+     */
+    private CompletableFuture<Set<Path>> downloadDeltas(Map<String, DeltaBase> deltas, Path destination,
+                                                        ServerCapabilities capabilities, ProgressCallback listener) {
+        if (deltas.isEmpty()) return CompletableFuture.completedFuture(Set.of());
+
+        Set<Path> patched = ConcurrentHashMap.newKeySet();
+        Set<String> failed = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        deltas.forEach((hash, base) -> {
+            DownloadJob<Path> job = manager.submit(null, DownloadManager.Priority.NORMAL,
+                    "delta of " + hash + " from " + baseUrl, -1, progress -> {
+                        CompletableFuture<Void> abandoned = new CompletableFuture<>();
+                        CompletableFuture<Path> download = createDirectories(destination)
+                                .thenCompose(v -> requestDelta(hash, base, destination, progress, abandoned));
+                        download.whenComplete((path, ex) -> {
+                            if (download.isCancelled()) abandoned.complete(null);
+                        });
+                        return download;
+                    });
+            if (listener != null) job.onProgress(listener);
+            results.add(job.result().handle((path, ex) -> {
+                if (ex != null) {
+                    log.warn("Delta of {} from {} failed, downloading it whole", hash, baseUrl, unwrap(ex));
+                    failed.add(hash);
+                } else {
+                    patched.add(path);
                 }
+                return null;
+            }));
+        });
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenCompose(v -> downloadWhole(failed, destination, capabilities, listener))
+                .thenApply(fallback -> {
+                    Set<Path> all = new HashSet<>(patched);
+                    all.addAll(fallback);
+                    return all;
+                });
+    }
 
-                progressStream.setCurrentFileName(entry.getName());
+    /**
+     * Requests a file as a delta against {@code base} and rebuilds it, see {@link DeltaPatcher}.
+     *
+     * @param abandoned completed to abort the request
+     */
+    private CompletableFuture<Path> requestDelta(String hash, DeltaBase base, Path destination,
+                                                 ProgressCallback progress, CompletableFuture<Void> abandoned) {
+        Path target = destination.resolve(fileNames.get(hash));
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Map.of("base", base.hash(), "target", hash));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-                Path filePath = destination.resolve(entry.getName());
+        HttpRequest request = newRequest("/delta")
+                .header("Content-Type", "application/json")
+                .header("Accept", DeltaPatcher.MEDIA_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
 
-                Files.copy(zipIn, filePath, StandardCopyOption.REPLACE_EXISTING);
-                extractedFiles.add(filePath);
+        var exchange = client.sendAsync(request,
+                info -> policy.guardStalls(new ReadAheadBodySubscriber(READ_AHEAD_BYTES)));
+        abandoned.thenRun(() -> exchange.cancel(true));
 
-                zipIn.closeEntry();
+        return exchange.thenCompose(response -> {
+            // E.g. 404 if the server no longer has the earlier version
+            if (response.statusCode() != 200) {
+                closeQuietly(response.body());
+                return CompletableFuture.failedFuture(new HttpStatusException(response.statusCode(), request.uri().toString()));
             }
+
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            Path quarantineDir = VerifyingFileWriter.quarantineDirFor(destination);
+            CompletableFuture<Path> patching = manager.runInterruptibly(() -> {
+                InputStream tracked = new ProgressTrackingInputStream(response.body(), contentLength, false, progress);
+                try (InputStream delta = new BufferedInputStream(tracked, ZIP_BUFFER_SIZE)) {
+                    DeltaPatcher.apply(base.file(), delta, target, hash, quarantineDir);
+                }
+                return target;
+            });
+            abandoned.thenRun(() -> patching.cancel(true));
+            return patching;
+        });
+    }
+
+    /**
+     * Splits the hashes into at most {@code parallelism} batches of about equal size, largest files first, each onto
+     * the batch that is smallest so far. Files of unknown size count as average.
+     */
+    private List<Set<String>> splitIntoBatches(Collection<String> hashes, int parallelism) {
+        Map<String, Long> sizes = fileSizes;
+        long known = hashes.stream().filter(sizes::containsKey).mapToLong(sizes::get).sum();
+        long knownCount = hashes.stream().filter(sizes::containsKey).count();
+        long average = knownCount == 0 ? MIN_BATCH_BYTES : known / knownCount;
+        long total = known + average * (hashes.size() - knownCount);
+
+        int count = (int) Math.min(Math.min(parallelism, hashes.size()), Math.max(1, total / MIN_BATCH_BYTES));
+        if (count <= 1) return List.of(new HashSet<>(hashes));
+
+        record Batch(Set<String> hashes, long[] bytes) {
         }
-        return extractedFiles;
+        PriorityQueue<Batch> batches = new PriorityQueue<>(Comparator.comparingLong(batch -> batch.bytes()[0]));
+        for (int i = 0; i < count; i++) {
+            batches.add(new Batch(new HashSet<>(), new long[1]));
+        }
+
+        List<String> largestFirst = new ArrayList<>(hashes);
+        largestFirst.sort(Comparator.comparingLong((String hash) -> sizes.getOrDefault(hash, average)).reversed());
+        for (String hash : largestFirst) {
+            Batch smallest = batches.poll();
+            smallest.hashes().add(hash);
+            smallest.bytes()[0] += sizes.getOrDefault(hash, average);
+            batches.add(smallest);
+        }
+        return batches.stream().map(Batch::hashes).toList();
     }
 
-    @Override
-    public void setProgressCallback(ProgressCallback callback) {
-        this.progressCallback = callback;
+    private DownloadJob<Set<Path>> submitBatch(Set<String> hashes, Path destination, ServerCapabilities capabilities) {
+        Map<String, Long> sizes = fileSizes;
+        long expectedBytes = hashes.stream().allMatch(sizes::containsKey)
+                ? hashes.stream().mapToLong(sizes::get).sum()
+                : -1;
+
+        return manager.submit(null, DownloadManager.Priority.NORMAL,
+                hashes.size() + " files from " + baseUrl, expectedBytes, progress -> {
+                    Set<Path> extractedFiles = ConcurrentHashMap.newKeySet();
+                    Set<String> missing = ConcurrentHashMap.newKeySet();
+                    missing.addAll(hashes);
+
+                    CompletableFuture<Void> abandoned = new CompletableFuture<>();
+                    CompletableFuture<Set<Path>> download = createDirectories(destination)
+                            .thenCompose(v -> downloadMissing(missing, destination, extractedFiles, capabilities,
+                                    progress, abandoned, 1))
+                            .thenApply(v -> extractedFiles);
+                    download.whenComplete((paths, ex) -> {
+                        if (download.isCancelled()) abandoned.complete(null);
+                    });
+                    return download;
+                });
+    }
+
+    /**
+     * Requests the missing files, then requests whatever did not arrive again, up to {@value #MAX_ATTEMPTS} times.
+     */
+    private CompletableFuture<Void> downloadMissing(Set<String> missing, Path destination, Set<Path> extracted,
+                                                    ServerCapabilities capabilities, ProgressCallback progress,
+                                                    CompletableFuture<Void> abandoned, int attempt) {
+        if (missing.isEmpty()) return CompletableFuture.completedFuture(null);
+        if (attempt > MAX_ATTEMPTS) {
+            return CompletableFuture.failedFuture(new CompletionException("Failed to download files", new IOException(
+                    missing.size() + " files did not arrive intact after " + MAX_ATTEMPTS + " attempts")));
+        }
+        if (attempt > 1) {
+            log.warn("Requesting {} files again (attempt {} of {})", missing.size(), attempt, MAX_ATTEMPTS);
+        }
+
+        return requestFiles(missing, destination, extracted, capabilities, progress, abandoned)
+                .handle((v, ex) -> {
+                    if (ex != null) {
+                        // Entries are verified one by one, so only the files that had not arrived yet are requested again
+                        if (attempt == MAX_ATTEMPTS || abandoned.isDone()) {
+                            return CompletableFuture.<Void>failedFuture(
+                                    new CompletionException("Failed to download files", unwrap(ex)));
+                        }
+                        log.warn("Download of files was interrupted, {} still missing", missing.size(), ex);
+                    }
+                    return downloadMissing(missing, destination, extracted, capabilities, progress, abandoned,
+                            attempt + 1);
+                })
+                .thenCompose(next -> next);
     }
 
     @Override
-    public void close() {
-        executorService.shutdown();
+    public CompletableFuture<Path> fetchFile(String hash, Path destination, ProgressCallback progress) {
+        Set<String> missing = ConcurrentHashMap.newKeySet();
+        missing.add(hash);
+        Set<Path> extracted = ConcurrentHashMap.newKeySet();
+
+        CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        CompletableFuture<Path> fetch = createDirectories(destination)
+                .thenCompose(v -> capabilities())
+                .thenCompose(capabilities -> requestFiles(missing, destination, extracted, capabilities, progress,
+                        abandoned))
+                .thenApply(v -> {
+                    if (!missing.isEmpty()) {
+                        throw new CompletionException("Failed to fetch file",
+                                new IOException("File " + hash + " was not in the response from " + baseUrl));
+                    }
+                    return extracted.iterator().next();
+                });
+        fetch.whenComplete((path, ex) -> {
+            if (fetch.isCancelled()) abandoned.complete(null);
+        });
+        return fetch;
+    }
+
+    /**
+     * Requests files by hash and extracts every entry whose content matches one of them.
+     *
+     * @param missing   hashes still needed; hashes that arrived intact are removed
+     * @param extracted receives every extracted file, including those extracted before the response was cut off
+     * @param abandoned completed to abort the request
+     */
+    private CompletableFuture<Void> requestFiles(Set<String> missing, Path destination, Set<Path> extracted,
+                                                 ServerCapabilities capabilities, ProgressCallback progress,
+                                                 CompletableFuture<Void> abandoned) {
+        byte[] hashList;
         try {
-            if (!executorService.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
+            hashList = objectMapper.writeValueAsBytes(missing);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
         }
+
+        // Mod jars are compressed already, so deflating them again only costs time on both ends
+        HttpRequest request = newRequest(capabilities.storedEntries() ? "/files?compression=stored" : "/files")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(hashList))
+                .build();
+
+        // Received ahead while entries are inflated and written. A stalled body fails the blocked read, which closing the
+        // stream would not
+        var exchange = client.sendAsync(request,
+                info -> policy.guardStalls(new ReadAheadBodySubscriber(READ_AHEAD_BYTES)));
+        abandoned.thenRun(() -> exchange.cancel(true));
+
+        return exchange.thenCompose(response -> {
+            if (response.statusCode() != 200) {
+                closeQuietly(response.body());
+                return CompletableFuture.failedFuture(new HttpStatusException(response.statusCode(), request.uri().toString()));
+            }
+
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            CompletableFuture<Void> extraction = manager.runInterruptibly(() -> {
+                processZipResponse(destination, response.body(), contentLength, missing, extracted, progress);
+                return null;
+            });
+            abandoned.thenRun(() -> extraction.cancel(true));
+            return extraction;
+        });
     }
 
-    private HttpURLConnection setupConnection(URL url, String method) throws IOException {
-        HttpURLConnection connection;
+    private void processZipResponse(Path destination, InputStream body, long contentLength,
+                                    Set<String> missing, Set<Path> extractedFiles, ProgressCallback progress)
+            throws IOException {
+        Path quarantineDir = VerifyingFileWriter.quarantineDirFor(destination);
+
+        ProgressTrackingInputStream progressStream = new ProgressTrackingInputStream(body, contentLength, false, progress);
+        // ZipInputStream reads in tiny chunks, so the body is read through a large buffer
+        InputStream zip = new BufferedInputStream(progressStream, ZIP_BUFFER_SIZE);
 
-        if (isHttps) {
-            HttpsURLConnection httpsConnection = (HttpsURLConnection) url.openConnection();
+        // Entries are named by file name, so the content is checked against every hash still missing
+        ZipExtractor.extract(zip, destination, missing, quarantineDir, new ZipExtractor.Listener() {
+            @Override
+            public void extracted(Path file, String hash) {
+                missing.remove(hash);
+                extractedFiles.add(file);
+            }
 
-            // Apply custom SSL context if needed
-            if (sslContext != null) {
-                httpsConnection.setSSLSocketFactory(sslContext.getSocketFactory());
-                httpsConnection.setHostnameVerifier((hostname, session) -> true);
+            @Override
+            public void rejected(String entryName, HashMismatchException mismatch) {
+                log.warn("Discarding {} from {}", entryName, baseUrl, mismatch);
             }
+        });
+    }
 
-            connection = httpsConnection;
-        } else {
-            connection = (HttpURLConnection) url.openConnection();
+    @Override
+    public void setProgressCallback(ProgressCallback callback) {
+        this.progressCallback = callback;
+    }
+
+    @Override
+    public void close() {
+        // Connections belong to the shared HTTP client; only the change stream is this client's.
+        ChangeWatch watch;
+        synchronized (this) {
+            watch = changeWatch;
         }
+        if (watch != null) watch.stop();
+    }
+
+    private HttpRequest.Builder newRequest(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("User-Agent", SharedHttpClient.USER_AGENT)
+                .timeout(policy.readTimeout());
+    }
+
+    private CompletableFuture<Void> createDirectories(Path dir) {
+        return manager.runInterruptibly(() -> {
+            Files.createDirectories(dir);
+            return null;
+        });
+    }
 
-        connection.setRequestMethod(method);
-        connection.setConnectTimeout(15000);
-        connection.setReadTimeout(15000);
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof java.util.concurrent.CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
 
-        return connection;
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
     }
 
     /**
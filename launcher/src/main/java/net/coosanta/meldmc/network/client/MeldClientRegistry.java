@@ -1,15 +1,89 @@
 package net.coosanta.meldmc.network.client;
 
+import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.minecraft.GameInstance;
+import net.coosanta.meldmc.minecraft.InstanceManager;
 import net.coosanta.meldmc.minecraft.ServerInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps one {@link MeldClient} per Minecraft server, so pings and downloads of a server share its capabilities, mod
+ * info cache and change stream. Clients share the launcher's HTTP client and executors, so a client holds little more
+ * than its change stream; that is still too much to keep for every server ever pinged.
+ * <p>
+ * At most {@value #MAX_CLIENTS} clients are kept, the least recently used being closed when another is needed, and
+ * clients not used for {@link #IDLE_TIMEOUT} are closed too. Clients following a change stream are not idle, and are
+ * only closed to make room if every client is. A client is recreated when its server's Meld address changes. Closing a
+ * client only stops its change stream, so a transfer still running on an evicted client completes; the next
+ * {@link #getOrCreateClient} for its server creates a new one. Every client is closed when the launcher exits.
+ */
 public class MeldClientRegistry {
-    private static final ConcurrentMap<String, MeldClient> CLIENTS = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(MeldClientRegistry.class);
+    private static final int MAX_CLIENTS = 64;
+    private static final Duration IDLE_TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
 
     /**
-     * Retrieves a cached {@link MeldClient} for the given {@link ServerInfo}, or creates and caches a new one.
+     * Where a client connects to. A client is replaced when its server's endpoint changes.
+     */
+    private record Endpoint(String host, int port, boolean https, boolean selfSigned) {
+    }
+
+    private static final class Entry {
+        final Endpoint endpoint;
+        final MeldClient client;
+        long lastUsed;
+
+        Entry(Endpoint endpoint, MeldClient client, long lastUsed) {
+            this.endpoint = endpoint;
+            this.client = client;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Counters of the registry since the launcher started, for logs and diagnostics.
+     *
+     * @param live      clients currently kept
+     * @param created   clients created
+     * @param evicted   clients closed for being the least recently used or idle
+     * @param refreshed clients replaced because their server's Meld address changed
+     */
+    public record Stats(int live, long created, long evicted, long refreshed) {
+    }
+
+    // K: Minecraft server address. Access-ordered, so the least recently used client comes first. Guarded by itself
+    private static final LinkedHashMap<String, Entry> CLIENTS = new LinkedHashMap<>(16, 0.75f, true);
+    private static long created;
+    private static long evicted;
+    private static long refreshed;
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = GlobalExceptionHandler.threadFactory("meld-client-sweeper").newThread(r);
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        SWEEPER.scheduleWithFixedDelay(MeldClientRegistry::evictIdle,
+                SWEEP_INTERVAL.toMillis(), SWEEP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(MeldClientRegistry::closeAll, "meld-client-shutdown"));
+    }
+
+    /**
+     * Retrieves a cached {@link MeldClient} for the given {@link ServerInfo}, or creates and caches a new one. A cached
+     * client is replaced, and closed, if the server's Meld address has changed since it was created.
      * <p>
      * Uses the meld address if specified, otherwise falls back to the server address.
      *
@@ -17,39 +91,138 @@ public class MeldClientRegistry {
      * @return cached or newly created {@link MeldClient} for the server
      */
     public static MeldClient getOrCreateClient(ServerInfo info) {
-        return CLIENTS.computeIfAbsent(info.getAddress(), key -> {
-            String queryAddress = info.getMeldAddress();
-            String host;
-            int port;
-            boolean https = info.isHttps();
-            boolean selfSigned = info.isSelfSigned();
-
-            if (queryAddress != null && !queryAddress.equals("0.0.0.0:0")) {
-                if (queryAddress.startsWith("https://")) {
-                    https = true;
-                    queryAddress = queryAddress.substring(8);
-                } else if (queryAddress.startsWith("http://")) {
-                    queryAddress = queryAddress.substring(7);
-                }
-
-                String[] parts = queryAddress.split(":");
-                host = parts[0].equals("0.0.0.0") ? info.getAddress() : parts[0];
-                port = parts.length > 1 ? Integer.parseInt(parts[1].split("/")[0]) : 80;
-            } else {
-                throw new IllegalArgumentException("Meld address is not configured for server: " + info.getName());
+        Endpoint endpoint = endpointOf(info);
+        List<MeldClient> toClose = new ArrayList<>();
+        MeldClient client;
+        synchronized (CLIENTS) {
+            Entry entry = CLIENTS.get(info.getAddress());
+            if (entry != null && entry.endpoint.equals(endpoint)) {
+                entry.lastUsed = System.nanoTime();
+                return entry.client;
             }
 
-            return new MeldClientImpl(host, port, https, selfSigned);
-        });
+            if (entry != null) {
+                CLIENTS.remove(info.getAddress());
+                toClose.add(entry.client);
+                refreshed++;
+                log.debug("Meld address of {} changed to {}:{}, replacing its client",
+                        info.getAddress(), endpoint.host(), endpoint.port());
+            }
+
+            // Kept with the instance, so it goes when the instance is deleted
+            GameInstance instance = InstanceManager.getInstance(info.getAddress());
+            Path infoCache = instance == null ? null : instance.getInstanceDir().resolve("meld-info-cache.json");
+
+            client = new MeldClientImpl(endpoint.host(), endpoint.port(), endpoint.https(), endpoint.selfSigned(),
+                    infoCache);
+            CLIENTS.put(info.getAddress(), new Entry(endpoint, client, System.nanoTime()));
+            created++;
+
+            // Least recently used first, sparing clients that follow a change stream unless there is no other way
+            evictEldest(toClose, false);
+            evictEldest(toClose, true);
+        }
+
+        // Outside the lock: stopping a change stream cancels its request, which runs callbacks on this thread
+        toClose.forEach(MeldClientRegistry::closeQuietly);
+        return client;
     }
 
     /**
-     * Gets the cached {@link MeldClient} for the specified address, or null if not present.
+     * Gets the cached {@link MeldClient} for the specified address, or null if not present. Clients are evicted when
+     * idle, so use {@link #getOrCreateClient} where a client is needed.
      *
      * @param address minecraft server address - not Meld address.
      * @return cached {@link MeldClient} or null
      */
     public static MeldClient getClient(String address) {
-        return CLIENTS.get(address);
+        synchronized (CLIENTS) {
+            Entry entry = CLIENTS.get(address);
+            if (entry == null) return null;
+            entry.lastUsed = System.nanoTime();
+            return entry.client;
+        }
+    }
+
+    public static Stats stats() {
+        synchronized (CLIENTS) {
+            return new Stats(CLIENTS.size(), created, evicted, refreshed);
+        }
+    }
+
+    private static Endpoint endpointOf(ServerInfo info) {
+        String queryAddress = info.getMeldAddress();
+        boolean https = info.isHttps();
+
+        if (queryAddress == null || queryAddress.equals("0.0.0.0:0")) {
+            throw new IllegalArgumentException("Meld address is not configured for server: " + info.getName());
+        }
+
+        if (queryAddress.startsWith("https://")) {
+            https = true;
+            queryAddress = queryAddress.substring(8);
+        } else if (queryAddress.startsWith("http://")) {
+            queryAddress = queryAddress.substring(7);
+        }
+
+        String[] parts = queryAddress.split(":");
+        String host = parts[0].equals("0.0.0.0") ? info.getAddress() : parts[0];
+        int port = parts.length > 1 ? Integer.parseInt(parts[1].split("/")[0]) : 80;
+        return new Endpoint(host, port, https, info.isSelfSigned());
+    }
+
+    private static void evictIdle() {
+        long cutoff = System.nanoTime() - IDLE_TIMEOUT.toNanos();
+        List<MeldClient> toClose = new ArrayList<>();
+        synchronized (CLIENTS) {
+            // Least recently used first, so the first recent one ends the search
+            Iterator<Entry> entries = CLIENTS.values().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.lastUsed - cutoff > 0) break;
+                if (entry.client.isWatchingChanges()) continue;
+                toClose.add(entry.client);
+                entries.remove();
+                evicted++;
+            }
+        }
+
+        if (toClose.isEmpty()) return;
+        toClose.forEach(MeldClientRegistry::closeQuietly);
+        log.debug("Closed {} idle Meld clients: {}", toClose.size(), stats());
+    }
+
+    /**
+     * Removes the least recently used clients until at most {@value #MAX_CLIENTS} are left. Must hold the lock.
+     *
+     * @param watching whether clients following a change stream may be removed
+     */
+    private static void evictEldest(List<MeldClient> toClose, boolean watching) {
+        Iterator<Entry> entries = CLIENTS.values().iterator();
+        while (CLIENTS.size() > MAX_CLIENTS && entries.hasNext()) {
+            Entry entry = entries.next();
+            if (!watching && entry.client.isWatchingChanges()) continue;
+            toClose.add(entry.client);
+            entries.remove();
+            evicted++;
+        }
+    }
+
+    private static void closeAll() {
+        List<MeldClient> toClose;
+        synchronized (CLIENTS) {
+            toClose = CLIENTS.values().stream().map(entry -> entry.client).toList();
+            CLIENTS.clear();
+        }
+        log.debug("Closing {} Meld clients on exit", toClose.size());
+        toClose.forEach(MeldClientRegistry::closeQuietly);
+    }
+
+    private static void closeQuietly(MeldClient client) {
+        try {
+            client.close();
+        } catch (Exception e) {
+            log.warn("Failed to close Meld client", e);
+        }
     }
 }
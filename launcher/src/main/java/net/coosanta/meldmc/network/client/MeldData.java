@@ -33,7 +33,7 @@ public record MeldData(
             String modname,
             String modId,
             String authors,
-            String description,
+            @Nullable String description, // Not part of fetched mod info, see MeldClient#fetchDescription
             long fileSize
     ) {
 
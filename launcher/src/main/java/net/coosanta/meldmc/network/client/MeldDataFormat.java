@@ -0,0 +1,53 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Encodings a Meld server may send its mod info in, negotiated through {@code Accept} and {@code Content-Type}. Both
+ * are read by {@link MeldDataReader}; servers that do not know about Smile keep answering with JSON.
+ * <p>
+ * Smile is Jackson's binary JSON: field names are sent once and referred back to afterward, and numbers are binary. With
+ * it, servers also send the compact layout described at {@link MeldDataReader}, with raw 64-byte hashes.
+ */
+public enum MeldDataFormat {
+    SMILE("application/x-jackson-smile", new SmileFactory()),
+    JSON("application/json", new JsonFactory());
+
+    /**
+     * The {@code Accept} header asking for Smile, with JSON as the fallback.
+     */
+    public static final String ACCEPT = SMILE.mediaType + ", " + JSON.mediaType + ";q=0.9";
+
+    private final String mediaType;
+    private final JsonFactory factory;
+
+    MeldDataFormat(String mediaType, JsonFactory factory) {
+        this.mediaType = mediaType;
+        this.factory = factory;
+    }
+
+    public String mediaType() {
+        return mediaType;
+    }
+
+    public JsonFactory factory() {
+        return factory;
+    }
+
+    /**
+     * @param contentType a {@code Content-Type} header, or null
+     * @return the format of that content type; JSON if it is missing or not one of these
+     */
+    public static MeldDataFormat of(String contentType) {
+        if (contentType == null) return JSON;
+        String mediaType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        return Arrays.stream(values())
+                .filter(format -> format.mediaType.equals(mediaType))
+                .findFirst()
+                .orElse(JSON);
+    }
+}
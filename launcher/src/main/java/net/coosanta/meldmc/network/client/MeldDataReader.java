@@ -0,0 +1,170 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads {@link MeldData} with Jackson's streaming API instead of binding the whole document at once, handing every mod
+ * to a consumer as soon as it has been read. Work on the first mods of a large modpack can then start while the rest is
+ * still arriving.
+ * <p>
+ * Descriptions, by far the largest field, are only needed once the user looks at a mod, so {@link #read} skips them
+ * without decoding them and leaves {@link MeldData.ClientMod#description()} null. {@link #readDescriptions} reads them
+ * for the mods that are shown.
+ * <p>
+ * Besides the layout {@link MeldData} serializes to, a compact one is understood, which binary {@link MeldDataFormat}s
+ * are sent in: mods are a {@code mods} array instead of a {@code modMap} keyed by hash, and hashes are raw bytes instead
+ * of hex. Fields may come in any order, and fields this launcher does not know are skipped.
+ */
+public final class MeldDataReader {
+    private MeldDataReader() {
+    }
+
+    /**
+     * Reads one {@link MeldData} document from {@code in}, which is not closed, without the mods' descriptions.
+     *
+     * @param factory the factory of the document's {@link MeldDataFormat}
+     * @param onMod   called with every mod in the order they are read, on the calling thread
+     */
+    public static MeldData read(InputStream in, JsonFactory factory, Consumer<MeldData.ClientMod> onMod)
+            throws IOException {
+        return read(in, factory, false, onMod);
+    }
+
+    /**
+     * Reads the descriptions of the mods in a {@link MeldData} document, or in a {@code /info/mods} answer, from
+     * {@code in}, which is not closed.
+     *
+     * @param factory the factory of the document's {@link MeldDataFormat}
+     * @return K: hash. V: description, for the mods that have one
+     */
+    public static Map<String, String> readDescriptions(InputStream in, JsonFactory factory) throws IOException {
+        Map<String, String> descriptions = new HashMap<>();
+        read(in, factory, true, mod -> {
+            if (mod.description() != null) descriptions.put(mod.hash(), mod.description());
+        });
+        return descriptions;
+    }
+
+    private static MeldData read(InputStream in, JsonFactory factory, boolean descriptions,
+                                 Consumer<MeldData.ClientMod> onMod) throws IOException {
+        try (JsonParser parser = factory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            String mcVersion = null;
+            MeldData.ModLoader modLoader = null;
+            String modLoaderVersion = null;
+            String versionId = null;
+            Map<String, MeldData.ClientMod> modMap = new LinkedHashMap<>();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "mcVersion" -> mcVersion = parser.getValueAsString();
+                    case "modLoader" -> modLoader = readModLoader(parser);
+                    case "modLoaderVersion" -> modLoaderVersion = parser.getValueAsString();
+                    case "versionId" -> versionId = parser.getValueAsString();
+                    case "modMap" -> {
+                        if (value == JsonToken.VALUE_NULL) continue;
+                        expect(parser, value, JsonToken.START_OBJECT);
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String hash = parser.currentName();
+                            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+                            MeldData.ClientMod mod = readMod(parser, descriptions);
+                            modMap.put(hash, mod);
+                            onMod.accept(mod);
+                        }
+                    }
+                    case "mods" -> {
+                        if (value == JsonToken.VALUE_NULL) continue;
+                        expect(parser, value, JsonToken.START_ARRAY);
+                        JsonToken next;
+                        while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                            expect(parser, next, JsonToken.START_OBJECT);
+                            MeldData.ClientMod mod = readMod(parser, descriptions);
+                            modMap.put(mod.hash(), mod);
+                            onMod.accept(mod);
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+
+            return new MeldData(mcVersion, modLoader, modLoaderVersion, versionId, modMap);
+        }
+    }
+
+    private static MeldData.ModLoader readModLoader(JsonParser parser) throws IOException {
+        String name = parser.getValueAsString();
+        if (name == null) return null;
+        try {
+            return MeldData.ModLoader.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown mod loader " + name, e);
+        }
+    }
+
+    /**
+     * @param descriptions whether to read the description; otherwise the parser skips over it without decoding it
+     */
+    private static MeldData.ClientMod readMod(JsonParser parser, boolean descriptions) throws IOException {
+        String modVersion = null;
+        String hash = null;
+        String url = null;
+        String projectUrl = null;
+        String projectId = null;
+        String filename = null;
+        String modname = null;
+        String modId = null;
+        String authors = null;
+        String description = null;
+        long fileSize = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "modVersion" -> modVersion = parser.getValueAsString();
+                case "hash" -> hash = readHash(parser);
+                case "url" -> url = parser.getValueAsString();
+                case "projectUrl" -> projectUrl = parser.getValueAsString();
+                case "projectId" -> projectId = parser.getValueAsString();
+                case "filename" -> filename = parser.getValueAsString();
+                case "modname" -> modname = parser.getValueAsString();
+                case "modId" -> modId = parser.getValueAsString();
+                case "authors" -> authors = parser.getValueAsString();
+                case "description" -> {
+                    if (descriptions) description = parser.getValueAsString();
+                }
+                case "fileSize" -> fileSize = parser.getValueAsLong();
+                default -> parser.skipChildren();
+            }
+        }
+
+        return new MeldData.ClientMod(modVersion, hash, url, projectUrl, projectId, filename, modname, modId, authors,
+                description, fileSize);
+    }
+
+    private static String readHash(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return HexFormat.of().formatHex(parser.getBinaryValue());
+        }
+        return parser.getValueAsString();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but found " + actual + " at " + parser.currentLocation());
+        }
+    }
+}
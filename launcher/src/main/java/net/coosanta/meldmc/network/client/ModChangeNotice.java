@@ -0,0 +1,24 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.Set;
+
+/**
+ * Sent by a Meld server on its change stream when its modpack changed. It only says that, and which mods; the info of
+ * those mods is fetched on its own, see {@link MeldClient#applyChanges}.
+ *
+ * @param version       opaque token of the modpack version the server changed to
+ * @param changedHashes SHA-512 hashes of the mods that were added, removed, or whose info changed. A replaced mod is
+ *                      named with both its old and new hash. Empty if something other than the mods changed, such as
+ *                      the Minecraft or loader version
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ModChangeNotice(
+        String version,
+        Set<String> changedHashes
+) {
+    public ModChangeNotice {
+        changedHashes = changedHashes == null ? Set.of() : Set.copyOf(changedHashes);
+    }
+}
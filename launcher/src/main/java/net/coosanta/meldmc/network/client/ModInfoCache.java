@@ -0,0 +1,108 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The last {@code /info} answer of a Meld server together with its entity tag, so that it can be asked for with
+ * {@code If-None-Match} and an unchanged modpack costs a 304 without anything to parse. Kept in memory, and on disk so
+ * that this also holds for the first ping after a restart.
+ */
+class ModInfoCache {
+    private static final Logger log = LoggerFactory.getLogger(ModInfoCache.class);
+
+    /**
+     * @param etag the entity tag exactly as the server sent it
+     */
+    record Entry(String etag, MeldData data) {
+    }
+
+    private final @Nullable Path file;
+    private final ObjectMapper objectMapper;
+
+    // Guarded by this
+    private boolean loaded;
+    private @Nullable Entry entry;
+
+    /**
+     * @param file where the entry is kept, or null to only keep it in memory
+     */
+    ModInfoCache(@Nullable Path file, ObjectMapper objectMapper) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return the cached entry, read from disk on first use; null if there is none
+     */
+    synchronized @Nullable Entry get() {
+        if (!loaded) {
+            loaded = true;
+            entry = read();
+        }
+        return entry;
+    }
+
+    /**
+     * Replaces the cached entry, in memory at once and on disk before returning.
+     */
+    void put(Entry entry) {
+        synchronized (this) {
+            loaded = true;
+            this.entry = entry;
+        }
+        if (file == null) return;
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), ".info-", ".tmp");
+            try {
+                objectMapper.writeValue(tmp.toFile(), entry);
+                try {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to save mod info cache {}", file, e);
+        }
+    }
+
+    /**
+     * Forgets the cached entry, for a server that stopped sending entity tags.
+     */
+    void clear() {
+        synchronized (this) {
+            loaded = true;
+            entry = null;
+        }
+        if (file == null) return;
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete mod info cache {}", file, e);
+        }
+    }
+
+    private @Nullable Entry read() {
+        if (file == null || !Files.exists(file)) return null;
+        try {
+            return objectMapper.readValue(file.toFile(), Entry.class);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable mod info cache {}", file, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Transfer modes a Meld server supports, as answered to {@code GET /capabilities}. Servers from before this was added
+ * answer 404 and get {@link #NONE}.
+ *
+ * @param batchedFiles        whether {@code /files} may be requested several times in parallel, each request carrying
+ *                            part of the hashes
+ * @param storedEntries       whether {@code /files?compression=stored} is understood, sending zip entries uncompressed
+ * @param maxParallelRequests how many {@code /files} requests the server wants from one client at a time
+ * @param changeStream        whether {@code /changes} streams a {@link ModChangeNotice} as Server-Sent Events whenever
+ *                            the modpack changes, with a comment line at least every 30 seconds in between
+ * @param deltaFiles          whether {@code /delta} sends a file as a delta against an earlier version of it, see
+ *                            {@link net.coosanta.meldmc.network.DeltaPatcher}
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ServerCapabilities(
+        boolean batchedFiles,
+        boolean storedEntries,
+        int maxParallelRequests,
+        boolean changeStream,
+        boolean deltaFiles
+) {
+    /**
+     * A server that only takes one {@code /files} request with every hash, deflates its entries, always sends whole files
+     * and has to be pinged to learn about changes.
+     */
+    public static final ServerCapabilities NONE = new ServerCapabilities(false, false, 1, false, false);
+
+    /**
+     * @return how many batches a transfer may be split into
+     */
+    public int parallelism() {
+        return batchedFiles ? Math.max(1, maxParallelRequests) : 1;
+    }
+}
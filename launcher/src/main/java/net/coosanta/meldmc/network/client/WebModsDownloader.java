@@ -1,8 +1,18 @@
 package net.coosanta.meldmc.network.client;
 
-import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+import net.coosanta.meldmc.network.DownloadJob;
+import net.coosanta.meldmc.network.DownloadManager;
+import net.coosanta.meldmc.network.DownloadSink;
+import net.coosanta.meldmc.network.PartialDownload;
 import net.coosanta.meldmc.network.ProgressCallback;
-import net.coosanta.meldmc.network.ProgressTrackingInputStream;
+import net.coosanta.meldmc.network.SourceSelector;
+import net.coosanta.meldmc.network.VerifyingFileWriter;
+import net.coosanta.meldmc.network.http.DownloadPolicy;
+import net.coosanta.meldmc.network.http.HostConcurrencyLimiter;
+import net.coosanta.meldmc.network.http.SharedHttpClient;
+import net.coosanta.meldmc.network.http.SinkBodySubscriber;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,21 +23,39 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.time.Duration;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
-public class WebModsDownloader implements AutoCloseable {
+/**
+ * Downloads mods from their web sources (e.g. Modrinth) through the launcher's {@link SharedHttpClient}, with requests
+ * to each host capped by its {@link HostConcurrencyLimiter}. Response bodies go straight from the client's buffers into
+ * a {@link DownloadSink}.
+ * <p>
+ * If a Meld server is {@link #setServer set}, which serves every mod by its hash as well, each mod is raced between its
+ * web source and the server by the {@link SourceSelector}: the faster source so far goes first, and the other is asked
+ * too if it is slow.
+ */
+public class WebModsDownloader {
     private static final Logger log = LoggerFactory.getLogger(WebModsDownloader.class);
-    private final HttpClient client;
-    private final ExecutorService downloadExecutor;
-    private final ExecutorService coordinationExecutor;
+
+    private final HttpClient client = SharedHttpClient.get();
+    private final HostConcurrencyLimiter limiter = SharedHttpClient.limiter();
+    private final DownloadPolicy policy = DownloadPolicy.DEFAULT;
+    private final DownloadManager manager = DownloadManager.getInstance();
+    private final SourceSelector selector = SourceSelector.global();
+    // Hashing partial data and moving finished files happens here rather than on the HTTP client's threads.
+    private final Executor ioExecutor = manager.ioExecutor();
 
     private volatile ProgressCallback totalProgressCallback;
     private volatile long totalExpectedBytes;
@@ -35,64 +63,51 @@ public class WebModsDownloader implements AutoCloseable {
     private volatile ProgressCallback fileProgressCallback;
     private volatile long totalExpectedFiles;
 
-    public WebModsDownloader() {
-        coordinationExecutor = Executors.newSingleThreadExecutor(
-                GlobalExceptionHandler.threadFactory("web-mods-coordinator")
-        );
-        downloadExecutor = Executors.newFixedThreadPool(
-                3 * Runtime.getRuntime().availableProcessors(),
-                GlobalExceptionHandler.threadFactory("web-mods-downloader")
-        );
-
-        this.client = HttpClient.newBuilder()
-                .executor(downloadExecutor)
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-    }
+    private volatile MeldClient server;
+    private volatile String serverSource;
 
+    /**
+     * Downloads every mod with a URL. A mod that still fails once its retry budget is spent is logged and left out of
+     * the result, so the caller can fetch it elsewhere.
+     * <p>
+     * Each mod is a {@link DownloadManager} job keyed by its hash, so a mod that is already being downloaded, e.g. by
+     * another instance, is not downloaded twice.
+     *
+     * @return future of the downloaded files
+     */
     public CompletableFuture<Set<Path>> downloadMods(Collection<MeldData.ClientMod> mods, Path destinationDir) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Files.createDirectories(destinationDir);
-
-                totalExpectedBytes = mods.stream()
-                        .filter(mod -> mod.url() != null)
-                        .mapToLong(MeldData.ClientMod::fileSize)
-                        .sum();
-
-                totalExpectedFiles = mods.stream()
-                        .filter(mod -> mod.url() != null)
-                        .count();
-
-                Set<CompletableFuture<Path>> futures = mods.stream()
-                        .filter(mod -> mod.url() != null)
-                        .map(mod -> downloadMod(mod, destinationDir)
-                                .exceptionally(ex -> {
-                                    if (ex instanceof IOException) {
-                                        // TODO: GUI ERROR
-                                    }
-                                    log.error("Failed to download {} from {}: ", mod.filename(), mod.url(), ex);
-                                    throw new RuntimeException(ex); // FIXME
-//                                    return null;
-                                }))
-                        .collect(Collectors.toSet());
-
-                return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                        .thenApply(v -> futures.stream()
-                                .map(CompletableFuture::join)
-                                .filter(Objects::nonNull)
-                                .collect(Collectors.toSet()));
-            } catch (IOException e) {
-                return CompletableFuture.<Set<Path>>failedFuture(
-                        new RuntimeException("Failed to create destination directory", e)
-                );
-            }
-        }, coordinationExecutor).thenCompose(future -> future);
+        try {
+            Files.createDirectories(destinationDir);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to create destination directory", e));
+        }
+
+        totalExpectedBytes = mods.stream()
+                .filter(mod -> mod.url() != null)
+                .mapToLong(MeldData.ClientMod::fileSize)
+                .sum();
+
+        totalExpectedFiles = mods.stream()
+                .filter(mod -> mod.url() != null)
+                .count();
+
+        Set<CompletableFuture<Path>> futures = mods.stream()
+                .filter(mod -> mod.url() != null)
+                .map(mod -> downloadMod(mod, destinationDir)
+                        .exceptionally(ex -> {
+                            log.error("Failed to download {} from {}: ", mod.filename(), mod.url(), ex);
+                            return null;
+                        }))
+                .collect(Collectors.toSet());
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream()
+                        .map(CompletableFuture::join)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()));
     }
 
     private CompletableFuture<Path> downloadMod(MeldData.ClientMod mod, Path destinationDir) {
-        Path targetPath = destinationDir.resolve(mod.filename());
-
         if (mod.modSource() == MeldData.ClientMod.ModSource.SERVER) {
             return CompletableFuture.failedFuture(
                     new UnsupportedOperationException("Cannot download server-sent mods via url for mod: " + mod.filename())
@@ -104,71 +119,209 @@ public class WebModsDownloader implements AutoCloseable {
             );
         }
 
-        // TODO; Potentially skip files if hash is the same?
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(mod.url()))
-                .header("User-Agent", "Coosanta17/MeldMC (client) (https://github.com/Coosanta17/MeldMC)")
-                .GET()
-                .build();
-
-        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
-                .thenApply(response -> {
-                    if (response.statusCode() != 200) {
-                        throw new RuntimeException("HTTP error " + response.statusCode() + " for " + mod.filename());
-                    }
-
-                    try (ProgressTrackingInputStream progressStream = new ProgressTrackingInputStream(
-                            response.body(),
-                            mod.fileSize(),
-                            false,
-                            (deltaBytesRead, aaaaaaa, unused) -> {
-                                if (totalProgressCallback == null) return;
-                                if (deltaBytesRead > 0) {
-                                    totalProgressCallback.onProgress(deltaBytesRead, totalExpectedBytes);
-                                }
+        Path target = destinationDir.resolve(mod.filename());
+        DownloadJob<Path> job = manager.submit("sha512:" + mod.hash(), DownloadManager.Priority.NORMAL, mod.filename(),
+                mod.fileSize(), progress -> selector.race(sources(mod, destinationDir), mod.fileSize(), progress));
+
+        job.onProgress((deltaBytes, total, unused) -> {
+            if (totalProgressCallback != null) {
+                totalProgressCallback.onProgress(deltaBytes, totalExpectedBytes);
+            }
+        });
+
+        return job.result().thenApplyAsync(path -> {
+            try {
+                // Another caller may have started the same download into its own directory
+                DownloadManager.placeAt(path, target);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            if (fileProgressCallback != null) {
+                fileProgressCallback.onProgress(1, totalExpectedFiles);
+            }
+            return target;
+        }, ioExecutor);
+    }
+
+    /**
+     * @return the mod's web source, followed by the Meld server if one is set
+     */
+    private List<SourceSelector.Candidate<Path>> sources(MeldData.ClientMod mod, Path destinationDir) {
+        URI uri = URI.create(mod.url());
+        List<SourceSelector.Candidate<Path>> sources = new ArrayList<>();
+        sources.add(new SourceSelector.Candidate<>(Objects.requireNonNullElse(uri.getHost(), mod.url()),
+                progress -> downloadFromWeb(mod, destinationDir, progress)));
+
+        MeldClient server = this.server;
+        if (server != null) {
+            sources.add(new SourceSelector.Candidate<>(serverSource,
+                    progress -> server.fetchFile(mod.hash(), destinationDir, progress)));
+        }
+        return sources;
+    }
+
+    private CompletableFuture<Path> downloadFromWeb(MeldData.ClientMod mod, Path destinationDir, ProgressCallback progress) {
+        // Completed when the download is cancelled, e.g. because the server won the race, to abort the request
+        CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        // Completed once the latest attempt no longer writes the partial file
+        AtomicReference<CompletionStage<?>> written = new AtomicReference<>(CompletableFuture.completedFuture(null));
+        // The host slot is held until the file is on disk, and released while waiting to retry.
+        CompletableFuture<Path> download = policy.executeAsync(List.of(mod.url()),
+                url -> downloadMod(mod, destinationDir, URI.create(url), progress, abandoned, written));
+        download.whenComplete((path, ex) -> {
+            if (!download.isCancelled()) return;
+            abandoned.complete(null);
+            // Left behind, the partial data would be swapped into the mods directory along with the winner's file
+            written.get().whenCompleteAsync((unused, failure) -> discardPartial(mod, destinationDir), ioExecutor);
+        });
+        return download;
+    }
+
+    private CompletableFuture<Path> downloadMod(MeldData.ClientMod mod, Path destinationDir, URI uri,
+                                                ProgressCallback progress, CompletableFuture<Void> abandoned,
+                                                AtomicReference<CompletionStage<?>> written) {
+        AttemptProgress attemptBytes = new AttemptProgress(progress);
+
+        return limiter.submit(uri, () -> CompletableFuture
+                        .supplyAsync(() -> openPartial(mod, destinationDir), ioExecutor)
+                        .thenCompose(partial -> {
+                            if (partial.isComplete()) {
+                                return CompletableFuture.supplyAsync(() -> complete(mod, destinationDir, partial,
+                                        resumeDigest(partial, attemptBytes), attemptBytes), ioExecutor);
                             }
-                    )) {
-                        Files.copy(progressStream, targetPath, StandardCopyOption.REPLACE_EXISTING);
 
-                        if (fileProgressCallback != null) {
-                            fileProgressCallback.onProgress(1, totalExpectedFiles);
-                        }
+                            HttpRequest.Builder request = HttpRequest.newBuilder()
+                                    .uri(uri)
+                                    .header("User-Agent", SharedHttpClient.USER_AGENT)
+                                    .timeout(policy.readTimeout())
+                                    .GET();
+                            partial.addRangeHeaders(request::header);
 
-                        return targetPath;
-                    } catch (IOException e) {
-                        throw new RuntimeException("Failed to save " + mod.filename(), e); // TODO
-                    }
+                            // Hashed up front, so the client's threads only ever write the body
+                            MessageDigest resumed = partial.offset() > 0 ? resumeDigest(partial, attemptBytes) : null;
+                            var exchange = client.sendAsync(request.build(), info -> {
+                                var body = bodyHandler(mod, partial, resumed, attemptBytes, info);
+                                written.set(body.getBody());
+                                return body;
+                            });
+                            abandoned.thenRun(() -> exchange.cancel(true));
+                            // A 416 that got this far means the partial data was the whole file already
+                            return exchange.thenApplyAsync(response -> complete(mod, destinationDir, partial,
+                                    response.statusCode() == 416 ? resumed : response.body().digest(), attemptBytes),
+                                    ioExecutor);
+                        }))
+                .whenComplete((path, ex) -> {
+                    if (ex != null) attemptBytes.rollback();
                 });
     }
 
-    public void setTotalProgressCallback(ProgressCallback callback) {
-        this.totalProgressCallback = callback;
+    private PartialDownload openPartial(MeldData.ClientMod mod, Path destinationDir) {
+        try {
+            return PartialDownload.open(destinationDir.resolve(mod.filename()), mod.url(), mod.fileSize(), mod.hash());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
     }
 
-    public void setFileProgressCallback(ProgressCallback callback) {
-        this.fileProgressCallback = callback;
+    /**
+     * Deletes the partial data of a download that was given up on.
+     */
+    private void discardPartial(MeldData.ClientMod mod, Path destinationDir) {
+        try {
+            openPartial(mod, destinationDir).discard();
+        } catch (IOException | CompletionException e) {
+            log.debug("Failed to discard partial download of {}", mod.filename(), e);
+        }
     }
 
-    public void shutdown() {
-        coordinationExecutor.shutdown();
-        downloadExecutor.shutdown();
+    /**
+     * Hashes the partial data of an earlier attempt and counts it as progress.
+     */
+    private MessageDigest resumeDigest(PartialDownload partial, AttemptProgress attemptBytes) {
         try {
-            if (!coordinationExecutor.awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS)) {
-                coordinationExecutor.shutdownNow();
+            MessageDigest digest = VerifyingFileWriter.resumeDigest(partial, true);
+            attemptBytes.report(partial.offset());
+            return digest;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Picks where the body goes once the response headers are known: appended to the partial data if the server
+     * honoured the range, otherwise into a fresh file.
+     */
+    private HttpResponse.BodySubscriber<DownloadSink> bodyHandler(MeldData.ClientMod mod, PartialDownload partial,
+                                                                 @Nullable MessageDigest resumed, AttemptProgress attemptBytes,
+                                                                 HttpResponse.ResponseInfo info) {
+        try {
+            boolean append = partial.beginResponse(info.statusCode(), info.headers()::firstValue);
+            if (info.statusCode() == 416) {
+                return HttpResponse.BodySubscribers.replacing(null);
             }
-            if (!downloadExecutor.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS)) {
-                downloadExecutor.shutdownNow();
+            MessageDigest digest = append && resumed != null ? resumed : VerifyingFileWriter.resumeDigest(partial, false);
+            if (!append && resumed != null) {
+                attemptBytes.rollback();
             }
-        } catch (InterruptedException e) {
-            coordinationExecutor.shutdownNow();
-            downloadExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
+
+            DownloadSink sink = partial.openSink(append, digest,
+                    (deltaBytes, total, unused) -> attemptBytes.report(deltaBytes), mod.fileSize());
+            return policy.guardStalls(new SinkBodySubscriber(sink));
+        } catch (IOException e) {
+            return SinkBodySubscriber.failing(e);
+        }
+    }
+
+    private Path complete(MeldData.ClientMod mod, Path destinationDir, PartialDownload partial, MessageDigest digest,
+                          AttemptProgress attemptBytes) {
+        try {
+            VerifyingFileWriter.complete(partial, digest, Set.of(mod.hash()),
+                    VerifyingFileWriter.quarantineDirFor(destinationDir));
+        } catch (HashMismatchException | IOException e) {
+            throw new CompletionException(e);
+        }
+        return partial.target();
+    }
+
+    /**
+     * Bytes reported by one attempt, so they can be taken back out of the job's progress if the attempt fails and the
+     * progress bar does not overshoot on a retry. Bytes kept as partial data are counted again when the retry resumes.
+     */
+    private static final class AttemptProgress {
+        private final ProgressCallback progress;
+        private final AtomicLong bytes = new AtomicLong();
+
+        AttemptProgress(ProgressCallback progress) {
+            this.progress = progress;
+        }
+
+        void report(long deltaBytes) {
+            if (deltaBytes == 0) return;
+            bytes.addAndGet(deltaBytes);
+            progress.onProgress(deltaBytes, -1);
+        }
+
+        void rollback() {
+            long reported = bytes.getAndSet(0);
+            if (reported != 0) progress.onProgress(-reported, -1);
         }
     }
 
-    @Override
-    public void close() {
-        shutdown();
+    /**
+     * Races every mod between its web source and this Meld server.
+     *
+     * @param address address of the server, to tell its throughput history apart from other servers'
+     */
+    public void setServer(String address, MeldClient client) {
+        this.serverSource = "meld:" + address;
+        this.server = client;
+    }
+
+    public void setTotalProgressCallback(ProgressCallback callback) {
+        this.totalProgressCallback = callback;
+    }
+
+    public void setFileProgressCallback(ProgressCallback callback) {
+        this.fileProgressCallback = callback;
     }
 }
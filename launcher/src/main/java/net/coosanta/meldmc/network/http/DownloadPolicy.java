@@ -0,0 +1,375 @@
+package net.coosanta.meldmc.network.http;
+
+import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+import net.coosanta.meldmc.network.DownloadManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * How downloads deal with failures: connect and read timeouts, and a retry budget per source with jittered exponential
+ * backoff between attempts.
+ * <p>
+ * A download is given an ordered list of sources, e.g. the original URL followed by mirrors. Each source is tried until
+ * its budget runs out or it fails in a way retrying cannot fix (such as a 404), then the next one is tried. Only when
+ * every source is exhausted does the failure reach the caller.
+ *
+ * @param connectTimeout    time allowed to establish a connection
+ * @param readTimeout       longest time allowed without receiving any data
+ * @param attemptsPerSource attempts made on each source before moving on to the next
+ * @param initialBackoff    delay before the first retry; doubled for every further retry
+ * @param maxBackoff        upper bound of the delay between retries
+ */
+public record DownloadPolicy(Duration connectTimeout, Duration readTimeout, int attemptsPerSource,
+                             Duration initialBackoff, Duration maxBackoff) {
+    private static final Logger log = LoggerFactory.getLogger(DownloadPolicy.class);
+
+    public static final DownloadPolicy DEFAULT = new DownloadPolicy(
+            Duration.ofSeconds(10), Duration.ofSeconds(30), 3, Duration.ofMillis(500), Duration.ofSeconds(15)
+    );
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = GlobalExceptionHandler.threadFactory("download-watchdog").newThread(r);
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * One attempt at downloading from a source.
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+        T run(String source) throws IOException;
+    }
+
+    /**
+     * Runs {@code attempt} against each source in turn until one succeeds, blocking the calling thread during backoff.
+     *
+     * @param sources URLs to try, in order of preference
+     * @throws IOException the last failure, with the earlier ones suppressed, once every source is exhausted
+     */
+    public <T> T execute(List<String> sources, Attempt<T> attempt) throws IOException {
+        if (sources.isEmpty()) throw new IllegalArgumentException("No sources to download from");
+
+        List<Throwable> failures = new ArrayList<>();
+        for (String source : sources) {
+            for (int i = 1; i <= attemptsPerSource; i++) {
+                try {
+                    return attempt.run(source);
+                } catch (IOException e) {
+                    failures.add(e);
+                    if (!shouldRetry(source, i, e)) break;
+                    try {
+                        Thread.sleep(backoff(i).toMillis());
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting to retry " + source);
+                    }
+                }
+            }
+        }
+        throw (IOException) escalate(failures);
+    }
+
+    /**
+     * Asynchronous version of {@link #execute}. Backoff delays do not occupy a thread.
+     *
+     * @param attempt starts an attempt on a source
+     * @return future failed with the last failure, with the earlier ones suppressed, once every source is exhausted
+     */
+    public <T> CompletableFuture<T> executeAsync(List<String> sources, Function<String, CompletableFuture<T>> attempt) {
+        if (sources.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No sources to download from"));
+        }
+        return executeAsync(sources, 0, 1, attempt, new ArrayList<>());
+    }
+
+    private <T> CompletableFuture<T> executeAsync(List<String> sources, int sourceIndex, int attemptNumber,
+                                                  Function<String, CompletableFuture<T>> attempt, List<Throwable> failures) {
+        String source = sources.get(sourceIndex);
+        CompletableFuture<T> started;
+        try {
+            started = attempt.apply(source);
+        } catch (Throwable t) {
+            started = CompletableFuture.failedFuture(t);
+        }
+
+        return started
+                .handle((result, ex) -> {
+                    if (ex == null) return CompletableFuture.completedFuture(result);
+
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    failures.add(cause);
+                    if (shouldRetry(source, attemptNumber, cause)) {
+                        Executor delayed = CompletableFuture.delayedExecutor(
+                                backoff(attemptNumber).toMillis(), TimeUnit.MILLISECONDS);
+                        return CompletableFuture.supplyAsync(() -> null, delayed).thenCompose(v ->
+                                executeAsync(sources, sourceIndex, attemptNumber + 1, attempt, failures));
+                    }
+                    if (sourceIndex + 1 < sources.size()) {
+                        return executeAsync(sources, sourceIndex + 1, 1, attempt, failures);
+                    }
+                    return CompletableFuture.<T>failedFuture(escalate(failures));
+                })
+                .thenCompose(future -> future);
+    }
+
+    private boolean shouldRetry(String source, int attemptNumber, Throwable failure) {
+        if (!isRetryable(failure)) {
+            log.warn("Download from {} failed permanently: {}", source, failure.toString());
+            return false;
+        }
+        if (attemptNumber >= attemptsPerSource) {
+            log.warn("Download from {} failed {} times, giving up on it: {}", source, attemptNumber, failure.toString());
+            return false;
+        }
+        log.debug("Download from {} failed (attempt {} of {}), retrying: {}",
+                source, attemptNumber, attemptsPerSource, failure.toString());
+        if (isCongestion(failure)) DownloadManager.getInstance().reportCongestion();
+        return true;
+    }
+
+    /**
+     * @return whether the failure suggests the server or the link is overloaded, rather than a bad file or connection
+     */
+    private static boolean isCongestion(Throwable failure) {
+        if (failure instanceof HttpStatusException status) return status.isTransient();
+        return failure instanceof SocketTimeoutException || failure instanceof HttpTimeoutException
+                || failure.getCause() instanceof SocketTimeoutException;
+    }
+
+    private static Throwable escalate(List<Throwable> failures) {
+        Throwable last = failures.getLast();
+        for (Throwable earlier : failures.subList(0, failures.size() - 1)) {
+            if (earlier != last) last.addSuppressed(earlier);
+        }
+        return last;
+    }
+
+    /**
+     * @return whether retrying could fix the failure. Client errors such as 404 are not retried, since every attempt
+     * would get the same answer
+     */
+    public static boolean isRetryable(Throwable failure) {
+        if (failure instanceof HttpStatusException status) return status.isTransient();
+        if (failure instanceof HashMismatchException) return true;
+        if (failure instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) return false;
+        return failure instanceof IOException || failure.getCause() instanceof IOException;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: a random delay between half and all of the exponential step, so that
+     * downloads which failed together do not retry together.
+     *
+     * @param failedAttempts attempts made on the source so far
+     */
+    public Duration backoff(int failedAttempts) {
+        long step = initialBackoff.toMillis() << Math.min(failedAttempts - 1, 20);
+        long cap = Math.max(1, Math.min(maxBackoff.toMillis(), step));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap / 2, cap + 1));
+    }
+
+    /**
+     * Closes {@code in} if no data arrives through it for longer than the read timeout, so that a stalled connection
+     * fails the read instead of hanging it. Needed for {@link java.net.http.HttpClient} bodies, which have no read
+     * timeout of their own.
+     *
+     * @return the stream to read from instead
+     */
+    public InputStream guardStalls(InputStream in) {
+        return new StallGuard(in, readTimeout);
+    }
+
+    /**
+     * Like {@link #guardStalls(InputStream)}, for bodies handled by a {@link HttpResponse.BodySubscriber}: the request is
+     * cancelled and the subscriber fails with a {@link SocketTimeoutException}. Only time spent waiting for data the
+     * subscriber asked for counts, so one that holds the server back on purpose, e.g. behind a slow disk or a bandwidth
+     * cap, is not mistaken for a stalled connection.
+     */
+    public <T> HttpResponse.BodySubscriber<T> guardStalls(HttpResponse.BodySubscriber<T> subscriber) {
+        return new StallGuardSubscriber<>(subscriber, readTimeout);
+    }
+
+    /**
+     * Signals to the delegate are serialized with {@link #signalLock}, including the timeout raised by the watchdog, so
+     * that the delegate never sees an error while it is still handling data. The delegate's requests go through
+     * {@link #demand}, and the watchdog only runs while some of them are outstanding.
+     */
+    private static class StallGuardSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final long timeoutNanos;
+        private final ReentrantLock signalLock = new ReentrantLock();
+        private final AtomicBoolean done = new AtomicBoolean();
+        // Buffers requested by the delegate but not delivered yet
+        private final AtomicLong demand = new AtomicLong();
+        // Last delivery, or the last request made while nothing was outstanding
+        private volatile long lastActivity = System.nanoTime();
+        private volatile ScheduledFuture<?> check;
+        private volatile Flow.Subscription subscription;
+
+        StallGuardSubscriber(HttpResponse.BodySubscriber<T> delegate, Duration timeout) {
+            this.delegate = delegate;
+            this.timeoutNanos = timeout.toNanos();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos) / 4);
+            check = WATCHDOG.scheduleAtFixedRate(this::checkActivity, period, period, TimeUnit.MILLISECONDS);
+            delegate.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    if (n > 0) {
+                        long before = demand.getAndAccumulate(n, (d, more) -> d + more < 0 ? Long.MAX_VALUE : d + more);
+                        if (before <= 0) lastActivity = System.nanoTime();
+                    }
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                }
+            });
+        }
+
+        private void checkActivity() {
+            // Nothing asked for: the delegate is holding the server back, not waiting for it
+            if (demand.get() <= 0 || System.nanoTime() - lastActivity < timeoutNanos) return;
+            // Data being handled right now is activity; the watchdog thread is shared, so it does not wait for it
+            if (!signalLock.tryLock()) return;
+            try {
+                if (!done.compareAndSet(false, true)) return;
+                check.cancel(false);
+                subscription.cancel();
+                delegate.onError(new SocketTimeoutException(
+                        "No data received for " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+            } finally {
+                signalLock.unlock();
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            lastActivity = System.nanoTime();
+            demand.getAndUpdate(d -> d == Long.MAX_VALUE ? d : d - 1);
+            signalLock.lock();
+            try {
+                if (!done.get()) delegate.onNext(item);
+            } finally {
+                signalLock.unlock();
+            }
+            lastActivity = System.nanoTime();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signalLock.lock();
+            try {
+                if (!done.compareAndSet(false, true)) return;
+                if (check != null) check.cancel(false);
+                delegate.onError(throwable);
+            } finally {
+                signalLock.unlock();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            signalLock.lock();
+            try {
+                if (!done.compareAndSet(false, true)) return;
+                if (check != null) check.cancel(false);
+                delegate.onComplete();
+            } finally {
+                signalLock.unlock();
+            }
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+    }
+
+    private static class StallGuard extends FilterInputStream {
+        private final long timeoutNanos;
+        private final ScheduledFuture<?> check;
+        private volatile long lastActivity = System.nanoTime();
+        private volatile boolean stalled;
+
+        StallGuard(InputStream in, Duration timeout) {
+            super(in);
+            this.timeoutNanos = timeout.toNanos();
+            long period = Math.max(1, timeout.toMillis() / 4);
+            this.check = WATCHDOG.scheduleAtFixedRate(this::checkActivity, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private void checkActivity() {
+            if (System.nanoTime() - lastActivity < timeoutNanos) return;
+
+            stalled = true;
+            check.cancel(false);
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Failed to close stalled download", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return activity(super.read());
+            } catch (IOException e) {
+                throw stalled ? stallException(e) : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return activity(super.read(b, off, len));
+            } catch (IOException e) {
+                throw stalled ? stallException(e) : e;
+            }
+        }
+
+        private int activity(int result) throws IOException {
+            // A body closed by the watchdog may look like a normal end of stream, which would truncate the file
+            if (stalled) throw stallException(null);
+            lastActivity = System.nanoTime();
+            return result;
+        }
+
+        private IOException stallException(IOException cause) {
+            var timeout = new SocketTimeoutException("No data received for " + timeoutNanos / 1_000_000 + " ms");
+            if (cause != null) timeout.initCause(cause);
+            return timeout;
+        }
+
+        @Override
+        public void close() throws IOException {
+            check.cancel(false);
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.coosanta.meldmc.network.http;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of requests in flight per host, queueing the rest in submission order.
+ * <p>
+ * Firing every request at once makes CDNs such as {@code cdn.modrinth.com} rate limit the launcher, and over HTTP/2 a
+ * handful of multiplexed streams already saturates a connection. Tasks are started as soon as a slot on their host frees
+ * up; hosts do not wait on each other.
+ */
+public class HostConcurrencyLimiter {
+    public static final int DEFAULT_LIMIT = 6;
+
+    private final int defaultLimit;
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+
+    public HostConcurrencyLimiter(int defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Overrides the limit of one host. Requests already running are not affected.
+     */
+    public void setLimit(String host, int limit) {
+        HostQueue queue = queueFor(host);
+        synchronized (queue) {
+            queue.limit = Math.max(1, limit);
+        }
+        queue.drain();
+    }
+
+    /**
+     * Starts a request once its host has a free slot.
+     *
+     * @param uri     request target, only its host is used
+     * @param request starts the request; called at most once, from the submitting thread or a completing request
+     * @return future completed with the request's result
+     */
+    public <T> CompletableFuture<T> submit(URI uri, Supplier<CompletableFuture<T>> request) {
+        HostQueue queue = queueFor(uri.getHost() == null ? "" : uri.getHost().toLowerCase());
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        queue.enqueue(() -> {
+            if (result.isDone()) { // Cancelled while queued
+                queue.release();
+                return;
+            }
+
+            CompletableFuture<T> started;
+            try {
+                started = request.get();
+            } catch (Throwable t) {
+                started = CompletableFuture.failedFuture(t);
+            }
+            started.whenComplete((value, ex) -> {
+                queue.release();
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * @return number of requests running against a host
+     */
+    public int active(String host) {
+        HostQueue queue = hosts.get(host.toLowerCase());
+        if (queue == null) return 0;
+        synchronized (queue) {
+            return queue.active;
+        }
+    }
+
+    private HostQueue queueFor(String host) {
+        return hosts.computeIfAbsent(host, h -> new HostQueue(defaultLimit));
+    }
+
+    private static final class HostQueue {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int active;
+        private int limit;
+        // Whether a thread is starting tasks. Tasks that finish or are cancelled while it does leave their slot to it
+        // rather than starting the next task themselves, which would nest one call deeper per task
+        private boolean draining;
+
+        HostQueue(int limit) {
+            this.limit = limit;
+        }
+
+        void enqueue(Runnable task) {
+            synchronized (this) {
+                waiting.add(task);
+            }
+            drain();
+        }
+
+        void release() {
+            synchronized (this) {
+                active--;
+            }
+            drain();
+        }
+
+        void drain() {
+            synchronized (this) {
+                if (draining) return;
+                draining = true;
+            }
+
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if (active >= limit || waiting.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    next = waiting.poll();
+                    active++;
+                }
+                try {
+                    next.run();
+                } catch (Throwable t) {
+                    synchronized (this) {
+                        draining = false;
+                    }
+                    throw t;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.coosanta.meldmc.network.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers a download with an unexpected status code.
+ */
+public class HttpStatusException extends IOException {
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String what) {
+        super("HTTP error " + statusCode + " for " + what);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return whether the same request may succeed later: server errors, timeouts and rate limiting
+     */
+    public boolean isTransient() {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+}
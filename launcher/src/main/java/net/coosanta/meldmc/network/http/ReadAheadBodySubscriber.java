@@ -0,0 +1,169 @@
+package net.coosanta.meldmc.network.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Exposes a response body as an {@link InputStream}, like {@link HttpResponse.BodySubscribers#ofInputStream()}, but
+ * keeps receiving while the reader is busy until {@code capacity} bytes are waiting, rather than one buffer at a time.
+ * Network time then overlaps with whatever the reader does with the data.
+ */
+public class ReadAheadBodySubscriber implements HttpResponse.BodySubscriber<InputStream> {
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final long capacity;
+    private final LinkedBlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+    private final CompletableFuture<InputStream> body = CompletableFuture.completedFuture(new Body());
+
+    // Guarded by this
+    private Flow.Subscription subscription;
+    private long buffered;
+    private boolean paused;
+    private boolean closed;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param capacity bytes received ahead of the reader before the server is held back
+     */
+    public ReadAheadBodySubscriber(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (this.subscription != null || closed) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        long received = 0;
+        for (ByteBuffer buffer : buffers) {
+            if (!buffer.hasRemaining()) continue;
+            received += buffer.remaining();
+            queue.add(buffer);
+        }
+
+        boolean more;
+        synchronized (this) {
+            if (closed) return;
+            buffered += received;
+            more = buffered < capacity;
+            paused = !more;
+        }
+        if (more) subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        queue.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+        queue.add(END);
+    }
+
+    @Override
+    public CompletionStage<InputStream> getBody() {
+        return body;
+    }
+
+    /**
+     * Called by the reader once it is done with a buffer, to resume receiving when enough has been consumed.
+     */
+    private void consumed(long bytes) {
+        boolean resume;
+        synchronized (this) {
+            buffered -= bytes;
+            resume = paused && !closed && buffered <= capacity / 2;
+            if (resume) paused = false;
+        }
+        if (resume) subscription.request(1);
+    }
+
+    private class Body extends InputStream {
+        private ByteBuffer current;
+        private int currentSize;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            ByteBuffer buffer = current();
+            if (buffer == END) return -1;
+
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            if (!buffer.hasRemaining()) {
+                current = null;
+                consumed(currentSize);
+            }
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return current == null || current == END ? 0 : current.remaining();
+        }
+
+        private ByteBuffer current() throws IOException {
+            if (current == null) {
+                synchronized (ReadAheadBodySubscriber.this) {
+                    if (closed) throw new IOException("Stream closed");
+                }
+                try {
+                    current = queue.take();
+                    currentSize = current.remaining();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading response body");
+                }
+            }
+            if (current == END) {
+                Throwable failed = failure;
+                if (failed != null) {
+                    // So that further reads fail as well
+                    current = null;
+                    queue.add(END);
+                    throw failed instanceof IOException io ? io : new IOException(failed);
+                }
+            }
+            return current;
+        }
+
+        @Override
+        public void close() {
+            Flow.Subscription toCancel;
+            synchronized (ReadAheadBodySubscriber.this) {
+                if (closed) return;
+                closed = true;
+                toCancel = subscription;
+            }
+            if (toCancel != null) toCancel.cancel();
+            queue.clear();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.coosanta.meldmc.network.http;
+
+import net.coosanta.meldmc.exceptions.GlobalExceptionHandler;
+import net.coosanta.meldmc.utility.SSLUtils;
+
+import java.net.http.HttpClient;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The launcher's single {@link HttpClient}, shared by every download so that connections and TLS sessions are reused
+ * across download sessions and servers. HTTP/2 is preferred, which lets concurrent requests to the same host share one
+ * connection.
+ * <p>
+ * Which certificates are trusted is set per client, so Meld servers with self-signed certificates share a second client
+ * that {@link #trustingAll() trusts any certificate}.
+ */
+public final class SharedHttpClient {
+    public static final String USER_AGENT = "Coosanta17/MeldMC (client) (https://github.com/Coosanta17/MeldMC)";
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            GlobalExceptionHandler.threadFactory("http-client")
+    );
+    private static final HttpClient CLIENT = builder().build();
+    private static final HostConcurrencyLimiter LIMITER = new HostConcurrencyLimiter(HostConcurrencyLimiter.DEFAULT_LIMIT);
+
+    private SharedHttpClient() {
+    }
+
+    public static HttpClient get() {
+        return CLIENT;
+    }
+
+    /**
+     * @return a client that accepts any certificate for any host name, for servers the user marked as self-signed.
+     * Shares its threads with {@link #get()}
+     */
+    public static HttpClient trustingAll() {
+        return TrustingAll.CLIENT;
+    }
+
+    /**
+     * @return the limiter every request through the shared client should be scheduled with
+     */
+    public static HostConcurrencyLimiter limiter() {
+        return LIMITER;
+    }
+
+    private static HttpClient.Builder builder() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(EXECUTOR);
+    }
+
+    // Created on first use, as most servers have proper certificates
+    private static final class TrustingAll {
+        static final HttpClient CLIENT;
+
+        static {
+            try {
+                CLIENT = builder().sslContext(SSLUtils.createTrustAllSSLContext()).build();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to create SSL context", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package net.coosanta.meldmc.network.http;
+
+import net.coosanta.meldmc.network.BandwidthLimiter;
+import net.coosanta.meldmc.network.DownloadSink;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a response body straight into a {@link DownloadSink} as the client receives it, without an
+ * {@link java.io.InputStream} or extra copy in between. The sink is closed when the body ends or fails; on failure the
+ * data written so far stays on disk.
+ * <p>
+ * Signals arrive on the HTTP client's threads, which must not be blocked, so the {@link BandwidthLimiter} is obeyed by
+ * asking for the next buffers only once it allows them rather than by waiting.
+ */
+public class SinkBodySubscriber implements HttpResponse.BodySubscriber<DownloadSink> {
+    private final DownloadSink sink;
+    private final CompletableFuture<DownloadSink> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+
+    public SinkBodySubscriber(DownloadSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return a subscriber that discards the body and fails with {@code failure}, for responses that cannot be used
+     */
+    public static <T> HttpResponse.BodySubscriber<T> failing(IOException failure) {
+        return new Failing<>(failure);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        long received = 0;
+        try {
+            for (ByteBuffer buffer : buffers) {
+                received += buffer.remaining();
+                sink.write(buffer);
+            }
+        } catch (IOException e) {
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+
+        long waitNanos = BandwidthLimiter.global().reserve(received);
+        if (waitNanos > 0) {
+            CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS).execute(() -> subscription.request(1));
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            sink.close();
+            result.complete(sink);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void fail(Throwable failure) {
+        try {
+            sink.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+        result.completeExceptionally(failure);
+    }
+
+    @Override
+    public CompletionStage<DownloadSink> getBody() {
+        return result;
+    }
+
+    private static class Failing<T> implements HttpResponse.BodySubscriber<T> {
+        private final CompletableFuture<T> result;
+
+        Failing(IOException failure) {
+            this.result = CompletableFuture.failedFuture(failure);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return result;
+        }
+    }
+}
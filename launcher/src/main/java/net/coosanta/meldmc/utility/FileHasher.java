@@ -0,0 +1,199 @@
+package net.coosanta.meldmc.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Computes several digests of a file in a single read.
+ * <p>
+ * Files are read through a {@link FileChannel} into a large direct buffer that is reused per thread, and every requested
+ * algorithm is updated from the same buffer. Memory mapping is not used: on Windows a mapped file cannot be deleted or
+ * replaced until the mapping is garbage collected, which would break replacing mods and libraries right after checking
+ * them.
+ */
+public final class FileHasher {
+    private static final Logger log = LoggerFactory.getLogger(FileHasher.class);
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int FINGERPRINT_BLOCK_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    public enum Algorithm {
+        SHA_1("SHA-1"),
+        SHA_512("SHA-512"),
+        /**
+         * Not cryptographic, only for telling apart files that are already trusted. Hardware accelerated on most CPUs.
+         */
+        CRC32C(null);
+
+        private final String jcaName;
+
+        Algorithm(String jcaName) {
+            this.jcaName = jcaName;
+        }
+    }
+
+    private FileHasher() {
+    }
+
+    /**
+     * @return lowercase hex digest of the file
+     */
+    public static String hash(Path file, Algorithm algorithm) throws IOException {
+        return hash(file, EnumSet.of(algorithm)).get(algorithm);
+    }
+
+    /**
+     * Computes every requested digest while reading the file once.
+     *
+     * @return K: algorithm. V: lowercase hex digest of the file
+     */
+    public static Map<Algorithm, String> hash(Path file, Set<Algorithm> algorithms) throws IOException {
+        List<Sink> sinks = algorithms.stream().map(Sink::of).toList();
+        ByteBuffer buffer = BUFFER.get();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                for (Sink sink : sinks) {
+                    sink.update(buffer);
+                    buffer.rewind();
+                }
+                buffer.clear();
+            }
+        }
+
+        Map<Algorithm, String> digests = new EnumMap<>(Algorithm.class);
+        for (Sink sink : sinks) {
+            digests.put(sink.algorithm(), sink.hex());
+        }
+        return digests;
+    }
+
+    /**
+     * Computes a cheap change detection fingerprint: an XXH64 over the file's size and its first and last 64 KiB.
+     * <p>
+     * Only meant to confirm that a file whose hash is already known was not replaced, e.g. by a copy with the same
+     * size and modification time. Edits in the middle of a large file that keep its size are not detected, so a file
+     * whose size or modification time changed must be hashed in full instead.
+     *
+     * @return lowercase hex fingerprint of the file
+     */
+    public static String fingerprint(Path file) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            buffer.clear();
+            buffer.putLong(size);
+
+            long tailStart = Math.max(FINGERPRINT_BLOCK_SIZE, size - FINGERPRINT_BLOCK_SIZE);
+            readRange(channel, buffer, 0, Math.min(size, FINGERPRINT_BLOCK_SIZE));
+            readRange(channel, buffer, tailStart, size);
+            buffer.flip();
+        }
+        return HexFormat.of().toHexDigits(XxHash64.hash(buffer, 0));
+    }
+
+    /**
+     * Appends the bytes from {@code from} to {@code to} of a file to the buffer, which must have room for them.
+     */
+    private static void readRange(FileChannel channel, ByteBuffer buffer, long from, long to) throws IOException {
+        long position = from;
+        while (position < to) {
+            buffer.limit(buffer.position() + (int) (to - position));
+            int read = channel.read(buffer, position);
+            if (read == -1) break;
+            position += read;
+        }
+        buffer.limit(buffer.capacity());
+    }
+
+    /**
+     * Hashes many files, reading at most {@code parallelism} of them at the same time.
+     *
+     * @param files       files to hash
+     * @param algorithms  digests to compute for each file
+     * @param parallelism maximum number of files read at once, see {@link StorageProfile#ioConcurrency()}
+     * @param executor    runs the reads
+     * @return future of K: file. V: its digests. Files that could not be read are left out
+     */
+    public static CompletableFuture<Map<Path, Map<Algorithm, String>>> hashAll(Collection<Path> files, Set<Algorithm> algorithms,
+                                                                                int parallelism, Executor executor) {
+        Map<Path, Map<Algorithm, String>> results = new ConcurrentHashMap<>();
+        Queue<Path> pending = new ConcurrentLinkedQueue<>(files);
+
+        int workers = Math.min(files.size(), Math.max(1, parallelism));
+        CompletableFuture<?>[] tasks = new CompletableFuture[workers];
+        for (int i = 0; i < workers; i++) {
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                Path file;
+                while ((file = pending.poll()) != null) {
+                    try {
+                        results.put(file, hash(file, algorithms));
+                    } catch (IOException e) {
+                        log.debug("Failed to hash {}", file, e);
+                    }
+                }
+            }, executor);
+        }
+
+        return CompletableFuture.allOf(tasks).thenApply(v -> results);
+    }
+
+    private sealed interface Sink {
+        Algorithm algorithm();
+
+        void update(ByteBuffer buffer);
+
+        String hex();
+
+        static Sink of(Algorithm algorithm) {
+            if (algorithm.jcaName == null) {
+                return new ChecksumSink(algorithm, new CRC32C());
+            }
+            try {
+                return new DigestSink(algorithm, MessageDigest.getInstance(algorithm.jcaName));
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to provide SHA-1 and SHA-512
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private record DigestSink(Algorithm algorithm, MessageDigest digest) implements Sink {
+        @Override
+        public void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        public String hex() {
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    private record ChecksumSink(Algorithm algorithm, Checksum checksum) implements Sink {
+        @Override
+        public void update(ByteBuffer buffer) {
+            checksum.update(buffer);
+        }
+
+        @Override
+        public String hex() {
+            return HexFormat.of().toHexDigits((int) checksum.getValue());
+        }
+    }
+}
@@ -9,13 +9,9 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
-import java.nio.file.Files;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
-import java.util.HexFormat;
 import java.util.Map;
 
 public final class ResourceUtil {
@@ -69,23 +65,10 @@ public final class ResourceUtil {
     }
 
     public static String calculateSHA512(File file) throws IOException, NoSuchAlgorithmException {
-        return calculateHash(file, "SHA-512");
+        return FileHasher.hash(file.toPath(), FileHasher.Algorithm.SHA_512);
     }
 
     public static String calculateSHA1(File file) throws IOException, NoSuchAlgorithmException {
-        return calculateHash(file, "SHA-1");
-    }
-
-    private static String calculateHash(File file, String algorithm) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(algorithm);
-        try (InputStream is = Files.newInputStream(file.toPath())) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
-        }
-        byte[] hashBytes = digest.digest();
-        return HexFormat.of().formatHex(hashBytes);
+        return FileHasher.hash(file.toPath(), FileHasher.Algorithm.SHA_1);
     }
 }
@@ -2,8 +2,10 @@ package net.coosanta.meldmc.utility;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -18,15 +20,16 @@ public final class SSLUtils {
     }
 
     /**
-     * Creates an SSL context that accepts self-signed certificates.
+     * Creates an SSL context that accepts self-signed certificates. Host names are not checked either: an extended trust
+     * manager is responsible for that itself, so it is not left to the client.
      *
      * @return The configured SSLContext
      */
     public static SSLContext createTrustAllSSLContext() throws NoSuchAlgorithmException, KeyManagementException {
         TrustManager[] trustAllCerts = new TrustManager[]{
-                new X509TrustManager() {
+                new X509ExtendedTrustManager() {
                     public X509Certificate[] getAcceptedIssuers() {
-                        return null;
+                        return new X509Certificate[0];
                     }
 
                     public void checkClientTrusted(X509Certificate[] certs, String authType) {
@@ -34,6 +37,18 @@ public final class SSLUtils {
 
                     public void checkServerTrusted(X509Certificate[] certs, String authType) {
                     }
+
+                    public void checkClientTrusted(X509Certificate[] certs, String authType, Socket socket) {
+                    }
+
+                    public void checkServerTrusted(X509Certificate[] certs, String authType, Socket socket) {
+                    }
+
+                    public void checkClientTrusted(X509Certificate[] certs, String authType, SSLEngine engine) {
+                    }
+
+                    public void checkServerTrusted(X509Certificate[] certs, String authType, SSLEngine engine) {
+                    }
                 }
         };
 
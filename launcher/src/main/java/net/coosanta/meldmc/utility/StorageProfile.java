@@ -0,0 +1,83 @@
+package net.coosanta.meldmc.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rough classification of the disk a path lives on, used to bound how many files are read at the same time.
+ * <p>
+ * Parallel reads help on solid state storage but make a spinning disk seek between files, so HDDs are read one file at a
+ * time. Detection only works on Linux (through {@code /sys/class/block}); everywhere else the profile is {@link #UNKNOWN}.
+ */
+public enum StorageProfile {
+    SSD(Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()))),
+    HDD(1),
+    UNKNOWN(2);
+
+    private static final Logger log = LoggerFactory.getLogger(StorageProfile.class);
+    private static final Map<FileStore, StorageProfile> CACHE = new ConcurrentHashMap<>();
+
+    private final int ioConcurrency;
+
+    StorageProfile(int ioConcurrency) {
+        this.ioConcurrency = ioConcurrency;
+    }
+
+    /**
+     * @return the number of files that should be read concurrently from this kind of disk
+     */
+    public int ioConcurrency() {
+        return ioConcurrency;
+    }
+
+    /**
+     * Detects the profile of the disk holding {@code path}, or its closest existing parent.
+     *
+     * @param path file or directory, does not need to exist yet
+     * @return the detected profile, {@link #UNKNOWN} if it cannot be determined
+     */
+    public static StorageProfile detect(Path path) {
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) return UNKNOWN;
+
+        try {
+            return CACHE.computeIfAbsent(Files.getFileStore(existing), StorageProfile::detectStore);
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+    }
+
+    private static StorageProfile detectStore(FileStore store) {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) return UNKNOWN;
+
+        try {
+            // FileStore#name is the mounted device, e.g. /dev/nvme0n1p2 or /dev/mapper/root -> /dev/dm-0
+            Path devicePath = Path.of(store.name());
+            if (Files.exists(devicePath)) devicePath = devicePath.toRealPath();
+            String device = devicePath.getFileName().toString();
+            Path block = Path.of("/sys/class/block", device).toRealPath();
+            // Partitions have no queue of their own, the parent device does.
+            for (Path candidate : new Path[]{block, block.getParent()}) {
+                Path rotational = candidate.resolve("queue/rotational");
+                if (Files.isReadable(rotational)) {
+                    StorageProfile profile = Files.readString(rotational).trim().equals("1") ? HDD : SSD;
+                    log.debug("Detected {} for device {} ({})", profile, device, store);
+                    return profile;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not detect storage type of {}", store, e);
+        }
+        return UNKNOWN;
+    }
+}
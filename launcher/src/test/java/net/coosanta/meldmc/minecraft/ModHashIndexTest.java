@@ -0,0 +1,212 @@
+package net.coosanta.meldmc.minecraft;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.coosanta.meldmc.utility.FileHasher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ModHashIndexTest {
+    // Well outside the racy window, so entries are trusted
+    private static final long MODIFIED = System.currentTimeMillis() - 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void unchangedFileIsTrusted() throws Exception {
+        byte[] data = randomBytes(4096);
+        Path file = write("mod.jar", data, MODIFIED);
+        ModHashIndex index = open();
+        String hash = index.hash(file);
+
+        // Same size, modification time and file key: the recorded hash is returned without reading the file
+        write("mod.jar", flipped(data, 100), MODIFIED);
+
+        assertEquals(hash, index.hash(file));
+        assertEquals(hash, index.cachedHash(file));
+    }
+
+    @Test
+    void sameSizeMidFileEditIsRehashed() throws Exception {
+        byte[] data = randomBytes(512 * 1024);
+        Path file = write("mod.jar", data, MODIFIED);
+        ModHashIndex index = open();
+        String hash = index.hash(file);
+
+        // Outside the blocks the fingerprint covers, so only the modification time gives it away
+        write("mod.jar", flipped(data, data.length / 2), MODIFIED + 1000);
+
+        assertNull(index.cachedHash(file));
+        String rehashed = index.hash(file, ModHashIndex.VerificationMode.FAST);
+        assertNotEquals(hash, rehashed);
+        assertEquals(FileHasher.hash(file, FileHasher.Algorithm.SHA_512), rehashed);
+    }
+
+    @Test
+    void sizeChangeIsRehashed() throws Exception {
+        byte[] data = randomBytes(4096);
+        Path file = write("mod.jar", data, MODIFIED);
+        ModHashIndex index = open();
+        index.hash(file);
+
+        write("mod.jar", Arrays.copyOf(data, data.length + 1), MODIFIED);
+
+        assertNull(index.cachedHash(file));
+        assertEquals(FileHasher.hash(file, FileHasher.Algorithm.SHA_512), index.hash(file));
+    }
+
+    @Test
+    void relocatedFileIsCheckedByFingerprint() throws Exception {
+        byte[] data = randomBytes(512 * 1024);
+        Path file = write("mod.jar", data, MODIFIED);
+        ModHashIndex index = open();
+        String hash = index.hash(file);
+
+        // A copy with the same size and modification time only has a different file key
+        relocate(file, data);
+        assertNull(index.cachedHash(file));
+        assertEquals(hash, index.hash(file, ModHashIndex.VerificationMode.FAST));
+        assertEquals(hash, index.cachedHash(file));
+
+        relocate(file, flipped(data, 0));
+        assertNotEquals(hash, index.hash(file, ModHashIndex.VerificationMode.FAST));
+    }
+
+    @Test
+    void fullModeRehashesRelocatedFile() throws Exception {
+        byte[] data = randomBytes(512 * 1024);
+        Path file = write("mod.jar", data, MODIFIED);
+        ModHashIndex index = open();
+        index.hash(file);
+
+        relocate(file, flipped(data, data.length / 2));
+
+        assertEquals(FileHasher.hash(file, FileHasher.Algorithm.SHA_512),
+                index.hash(file, ModHashIndex.VerificationMode.FULL));
+    }
+
+    @Test
+    void racyEntryIsNotTrusted() throws Exception {
+        Path file = write("mod.jar", randomBytes(4096), System.currentTimeMillis());
+        ModHashIndex index = open();
+        index.hash(file);
+
+        assertNull(index.cachedHash(file));
+    }
+
+    @Test
+    void recordedFileIsTrustedOnNextScan() throws Exception {
+        // Just written, as a download would be
+        Path file = write("mod.jar", randomBytes(4096), System.currentTimeMillis());
+        String hash = FileHasher.hash(file, FileHasher.Algorithm.SHA_512);
+        ModHashIndex index = open();
+        index.record(file, hash);
+        index.save();
+
+        assertEquals(hash, open().cachedHash(file));
+    }
+
+    @Test
+    void recordedHashIsNotRecomputed() throws Exception {
+        Path file = write("mod.jar", randomBytes(4096), System.currentTimeMillis());
+        ModHashIndex index = open();
+        index.record(file, "recorded");
+
+        assertEquals("recorded", index.hash(file));
+    }
+
+    @Test
+    void savedIndexRoundTrips() throws Exception {
+        Path file = write("mod.jar", randomBytes(4096), MODIFIED);
+        ModHashIndex index = open();
+        String hash = index.hash(file);
+        index.save();
+
+        int version = new ObjectMapper().readTree(indexFile().toFile()).get("version").asInt();
+        assertEquals(ModHashIndex.FORMAT_VERSION, version);
+        assertEquals(hash, open().cachedHash(file));
+    }
+
+    @Test
+    void otherFormatVersionIsDiscarded() throws Exception {
+        Path file = write("mod.jar", randomBytes(4096), MODIFIED);
+        ModHashIndex index = open();
+        index.hash(file);
+        index.save();
+
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode stored = (ObjectNode) mapper.readTree(indexFile().toFile());
+        stored.put("version", ModHashIndex.FORMAT_VERSION - 1);
+        mapper.writeValue(indexFile().toFile(), stored);
+
+        assertNull(open().cachedHash(file));
+    }
+
+    @Test
+    void unreadableIndexIsDiscarded() throws Exception {
+        Path file = write("mod.jar", randomBytes(4096), MODIFIED);
+        Files.writeString(indexFile(), "{not json");
+
+        ModHashIndex index = open();
+        assertNull(index.cachedHash(file));
+        assertEquals(FileHasher.hash(file, FileHasher.Algorithm.SHA_512), index.hash(file));
+    }
+
+    @Test
+    void clearDropsEveryEntry() throws Exception {
+        Path file = write("mod.jar", randomBytes(4096), MODIFIED);
+        ModHashIndex index = open();
+        index.hash(file);
+
+        index.clear();
+
+        assertNull(index.cachedHash(file));
+    }
+
+    private ModHashIndex open() {
+        return ModHashIndex.open(indexFile(), dir);
+    }
+
+    private Path indexFile() {
+        return dir.resolve("mod-index.json");
+    }
+
+    private Path write(String name, byte[] data, long modified) throws IOException {
+        Path file = Files.write(dir.resolve(name), data);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return file;
+    }
+
+    /**
+     * Replaces the file by a new one with the same size and modification time, like a copy or restore would.
+     */
+    private void relocate(Path file, byte[] data) throws IOException {
+        Path copy = write(file.getFileName() + ".copy", data, Files.getLastModifiedTime(file).toMillis());
+        Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] flipped(byte[] data, int index) {
+        byte[] changed = data.clone();
+        changed[index] ^= 1;
+        return changed;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,136 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.network.client.MeldData;
+import net.coosanta.meldmc.utility.FileHasher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModReconciliationTest {
+    private static final Path MODS = Path.of("mods");
+
+    private static final MeldData.ClientMod A = mod("a.jar", "aaaa");
+    private static final MeldData.ClientMod B = mod("b.jar", "bbbb");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchingDirectoryNeedsNothing() {
+        ModReconciliation plan = ModReconciliation.plan(MODS,
+                Map.of(MODS.resolve("a.jar"), "aaaa", MODS.resolve("b.jar"), "bbbb"), List.of(A, B));
+
+        assertTrue(plan.renames().isEmpty());
+        assertTrue(plan.deletions().isEmpty());
+        assertTrue(plan.downloads().isEmpty());
+    }
+
+    @Test
+    void missingModIsDownloaded() {
+        ModReconciliation plan = ModReconciliation.plan(MODS, Map.of(MODS.resolve("a.jar"), "aaaa"), List.of(A, B));
+
+        assertEquals(Set.of("bbbb"), plan.downloads().keySet());
+        assertTrue(plan.deletions().isEmpty());
+    }
+
+    @Test
+    void outdatedModIsDownloadedOverItsFile() {
+        ModReconciliation plan = ModReconciliation.plan(MODS, Map.of(MODS.resolve("a.jar"), "old"), List.of(A));
+
+        assertEquals(Set.of("aaaa"), plan.downloads().keySet());
+        assertTrue(plan.deletions().isEmpty());
+        assertTrue(plan.renames().isEmpty());
+    }
+
+    @Test
+    void unknownFileIsDeleted() {
+        Path extra = MODS.resolve("extra.jar");
+        ModReconciliation plan = ModReconciliation.plan(MODS,
+                Map.of(MODS.resolve("a.jar"), "aaaa", extra, "eeee"), List.of(A));
+
+        assertEquals(Map.of("extra.jar", extra), plan.deletions());
+        assertTrue(plan.downloads().isEmpty());
+    }
+
+    @Test
+    void renamedContentIsMovedInsteadOfDownloaded() {
+        Path renamed = MODS.resolve("a-1.0.jar");
+        ModReconciliation plan = ModReconciliation.plan(MODS, Map.of(renamed, "aaaa"), List.of(A));
+
+        assertEquals(Map.of(renamed, MODS.resolve("a.jar")), plan.renames());
+        assertTrue(plan.deletions().isEmpty());
+        assertTrue(plan.downloads().isEmpty());
+    }
+
+    @Test
+    void duplicateContentIsRenamedOnceAndOtherCopiesDeleted() {
+        Path first = MODS.resolve("copy1.jar");
+        Path second = MODS.resolve("copy2.jar");
+        ModReconciliation plan = ModReconciliation.plan(MODS, Map.of(second, "aaaa", first, "aaaa"), List.of(A));
+
+        assertEquals(Map.of(first, MODS.resolve("a.jar")), plan.renames());
+        assertEquals(Map.of("copy2.jar", second), plan.deletions());
+    }
+
+    @Test
+    void copyOfSatisfiedModIsDeleted() {
+        Path copy = MODS.resolve("a-copy.jar");
+        ModReconciliation plan = ModReconciliation.plan(MODS,
+                Map.of(MODS.resolve("a.jar"), "aaaa", copy, "aaaa"), List.of(A));
+
+        assertTrue(plan.renames().isEmpty());
+        assertEquals(Map.of("a-copy.jar", copy), plan.deletions());
+    }
+
+    @Test
+    void renameNeverTargetsAnOccupiedName() {
+        // b.jar is still there with other contents, so the stray copy of b cannot be moved onto it
+        Path stray = MODS.resolve("stray.jar");
+        ModReconciliation plan = ModReconciliation.plan(MODS,
+                Map.of(MODS.resolve("b.jar"), "old", stray, "bbbb"), List.of(B));
+
+        assertTrue(plan.renames().isEmpty());
+        assertEquals(Map.of("stray.jar", stray), plan.deletions());
+        assertEquals(Set.of("bbbb"), plan.downloads().keySet());
+    }
+
+    @Test
+    void swappedNamesAreDownloaded() {
+        ModReconciliation plan = ModReconciliation.plan(MODS,
+                Map.of(MODS.resolve("a.jar"), "bbbb", MODS.resolve("b.jar"), "aaaa"), List.of(A, B));
+
+        assertTrue(plan.renames().isEmpty());
+        assertEquals(Set.of("aaaa", "bbbb"), plan.downloads().keySet());
+    }
+
+    @Test
+    void applyRenamesMovesFilesWithTheirIndexEntries() throws Exception {
+        Path from = Files.writeString(dir.resolve("a-1.0.jar"), "contents of a");
+        Files.setLastModifiedTime(from, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+        String hash = FileHasher.hash(from, FileHasher.Algorithm.SHA_512);
+        ModHashIndex index = ModHashIndex.open(dir.resolve("index.json"), dir);
+        index.hash(from);
+
+        MeldData.ClientMod mod = mod("a.jar", hash);
+        ModReconciliation.plan(dir, Map.of(from, hash), List.of(mod)).applyRenames(index);
+
+        Path to = dir.resolve("a.jar");
+        assertFalse(Files.exists(from));
+        assertEquals("contents of a", Files.readString(to));
+        assertEquals(hash, index.cachedHash(to));
+    }
+
+    private static MeldData.ClientMod mod(String filename, String hash) {
+        return new MeldData.ClientMod("1.0", hash, null, null, null, filename, filename, filename, "", "", 0);
+    }
+}
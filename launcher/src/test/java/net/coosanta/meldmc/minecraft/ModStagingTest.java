@@ -0,0 +1,184 @@
+package net.coosanta.meldmc.minecraft;
+
+import net.coosanta.meldmc.utility.FileHasher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModStagingTest {
+    @TempDir
+    Path dir;
+
+    private Path liveDir;
+    private Path stagingDir;
+    private Path previousDir;
+    private ModStaging staging;
+
+    @BeforeEach
+    void setUp() {
+        liveDir = dir.resolve("mods");
+        stagingDir = dir.resolve("mods.staging");
+        previousDir = dir.resolve("mods.previous");
+        staging = new ModStaging(liveDir, dir.resolve("staging-index.json"));
+    }
+
+    @Test
+    void beginKeepsOnlyWantedFilesAndTheirPartialDownloads() throws Exception {
+        write(stagingDir, "a.jar", "a");
+        write(stagingDir, "old.jar", "old");
+        write(stagingDir, "b.jar.part", "partial b");
+        write(stagingDir, "b.jar.part.json", "{}");
+        write(stagingDir, "old.jar.part", "partial old");
+        Files.createDirectories(stagingDir.resolve("nested"));
+
+        staging.begin(Set.of("a.jar", "b.jar"));
+
+        assertEquals(Set.of("a.jar", "b.jar.part", "b.jar.part.json"), list(stagingDir));
+    }
+
+    @Test
+    void linkSharesTheLiveFile() throws Exception {
+        Path live = write(liveDir, "a.jar", "a");
+        staging.begin(Set.of("a.jar"));
+
+        staging.link("a.jar");
+        staging.link("a.jar");
+
+        assertTrue(Files.isSameFile(live, stagingDir.resolve("a.jar")));
+    }
+
+    @Test
+    void isStagedChecksContents() throws Exception {
+        staging.begin(Set.of("a.jar", "b.jar"));
+        Path a = write(stagingDir, "a.jar", "a");
+        String hash = FileHasher.hash(a, FileHasher.Algorithm.SHA_512);
+
+        assertTrue(staging.isStaged("a.jar", hash));
+        assertFalse(staging.isStaged("a.jar", "other"));
+        assertFalse(staging.isStaged("b.jar", hash));
+    }
+
+    @Test
+    void commitSwapsInStagingAndKeepsThePreviousGeneration() throws Exception {
+        write(liveDir, "old.jar", "old");
+        staging.begin(Set.of("new.jar"));
+        write(stagingDir, "new.jar", "new");
+
+        staging.commit(Set.of("new.jar"));
+
+        assertEquals(Set.of("new.jar"), list(liveDir));
+        assertEquals(Set.of("old.jar"), list(previousDir));
+        assertFalse(Files.exists(stagingDir));
+    }
+
+    @Test
+    void commitDeletesEverythingButTheWantedMods() throws Exception {
+        staging.begin(Set.of("a.jar", "b.jar"));
+        write(stagingDir, "a.jar", "a");
+        write(stagingDir, "b.jar", "b");
+        // Left behind by a web download that lost its race against the server, and by an interrupted extraction
+        write(stagingDir, "b.jar.part", "partial b");
+        write(stagingDir, "b.jar.part.json", "{}");
+        write(stagingDir, ".download-123.tmp", "partial");
+        Files.createDirectories(stagingDir.resolve("a.jar.d"));
+
+        staging.commit(Set.of("a.jar", "b.jar"));
+
+        assertEquals(Set.of("a.jar", "b.jar"), list(liveDir));
+    }
+
+    @Test
+    void commitWithoutLiveDirectory() throws Exception {
+        staging.begin(Set.of("new.jar"));
+        write(stagingDir, "new.jar", "new");
+
+        staging.commit(Set.of("new.jar"));
+
+        assertEquals(Set.of("new.jar"), list(liveDir));
+        assertFalse(Files.exists(previousDir));
+    }
+
+    @Test
+    void commitReplacesAnOlderPreviousGeneration() throws Exception {
+        write(liveDir, "first.jar", "first");
+        staging.begin(Set.of("second.jar"));
+        write(stagingDir, "second.jar", "second");
+        staging.commit(Set.of("second.jar"));
+
+        staging.begin(Set.of("third.jar"));
+        write(stagingDir, "third.jar", "third");
+        staging.commit(Set.of("third.jar"));
+
+        assertEquals(Set.of("third.jar"), list(liveDir));
+        assertEquals(Set.of("second.jar"), list(previousDir));
+    }
+
+    @Test
+    void rollbackRestoresThePreviousGeneration() throws Exception {
+        write(liveDir, "old.jar", "old");
+        staging.begin(Set.of("new.jar"));
+        write(stagingDir, "new.jar", "new");
+        staging.commit(Set.of("new.jar"));
+
+        assertTrue(staging.rollback());
+
+        assertEquals(Set.of("old.jar"), list(liveDir));
+        // Kept for the next sync, so it does not download the rolled back mods again
+        assertEquals(Set.of("new.jar"), list(stagingDir));
+        assertFalse(Files.exists(previousDir));
+        assertFalse(staging.rollback());
+    }
+
+    @Test
+    void rollbackWithoutPreviousGeneration() throws Exception {
+        write(liveDir, "a.jar", "a");
+
+        assertFalse(staging.rollback());
+        assertEquals(Set.of("a.jar"), list(liveDir));
+    }
+
+    @Test
+    void recoverRestoresAnInterruptedSwap() throws Exception {
+        // The live directory was moved away, but the staging directory never took its place
+        write(previousDir, "old.jar", "old");
+        write(stagingDir, "new.jar", "new");
+
+        staging.recover();
+
+        assertEquals(Set.of("old.jar"), list(liveDir));
+        assertFalse(Files.exists(previousDir));
+    }
+
+    @Test
+    void recoverLeavesACompleteSwapAlone() throws Exception {
+        write(liveDir, "new.jar", "new");
+        write(previousDir, "old.jar", "old");
+
+        staging.recover();
+
+        assertEquals(Set.of("new.jar"), list(liveDir));
+        assertEquals(Set.of("old.jar"), list(previousDir));
+    }
+
+    private static Path write(Path dir, String name, String contents) throws IOException {
+        Files.createDirectories(dir);
+        return Files.writeString(dir.resolve(name), contents);
+    }
+
+    private static Set<String> list(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            List<String> names = files.map(file -> file.getFileName().toString()).toList();
+            return Set.copyOf(names);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package net.coosanta.meldmc.network;
+
+import net.coosanta.meldmc.exceptions.HashMismatchException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaPatcherTest {
+    @TempDir
+    Path dir;
+
+    private Path base;
+    private Path mods;
+    private Path target;
+    private Path quarantine;
+    private byte[] baseBytes;
+
+    @BeforeEach
+    void createBase() throws IOException {
+        baseBytes = new byte[200_000];
+        new Random(1).nextBytes(baseBytes);
+        base = dir.resolve("base.jar");
+        Files.write(base, baseBytes);
+        mods = dir.resolve("mods");
+        target = mods.resolve("mod.jar");
+        quarantine = dir.resolve("quarantine");
+    }
+
+    @Test
+    void rebuildsFileFromCopiesAndData() throws Exception {
+        byte[] inserted = new byte[100_000]; // More than the patcher's buffer, as is the copy below
+        new Random(2).nextBytes(inserted);
+        byte[] expected = concat(Arrays.copyOfRange(baseBytes, 0, 1000), "new".getBytes(),
+                Arrays.copyOfRange(baseBytes, 50_000, 150_000), inserted);
+
+        Delta delta = new Delta().copy(0, 1000).data("new".getBytes()).copy(50_000, 100_000).data(inserted).end();
+        delta.out.write(42); // Whatever follows the end operation is left for the caller
+        ByteArrayInputStream in = delta.stream();
+        DeltaPatcher.apply(base, in, target, sha512(expected), quarantine);
+
+        assertArrayEquals(expected, Files.readAllBytes(target));
+        assertEquals(42, in.read());
+        assertNoTempFiles();
+    }
+
+    @Test
+    void endAloneIsAnEmptyFile() throws Exception {
+        DeltaPatcher.apply(base, new Delta().end().stream(), target, sha512(new byte[0]), quarantine);
+
+        assertEquals(0, Files.size(target));
+    }
+
+    @Test
+    void rejectsBadMagic() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{'P', 'K', 3, 4, 1, 0});
+
+        assertFails(IOException.class, in);
+    }
+
+    @Test
+    void rejectsUnsupportedVersion() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4D444C54);
+        out.write(2);
+        out.write(0);
+
+        assertFails(IOException.class, new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    void rejectsUnknownOperation() throws Exception {
+        Delta delta = new Delta().data("a".getBytes());
+        delta.out.write(7);
+
+        assertFails(IOException.class, delta.stream());
+    }
+
+    @Test
+    void rejectsCopiesPastTheBase() throws Exception {
+        assertFails(IOException.class, new Delta().copy(baseBytes.length - 10, 11).end().stream());
+        assertFails(IOException.class, new Delta().copy(baseBytes.length + 1, 0).end().stream());
+        assertFails(IOException.class, new Delta().copy(Long.MAX_VALUE, 10).end().stream());
+    }
+
+    @Test
+    void rejectsNegativeOffsetsAndLengths() throws Exception {
+        assertFails(IOException.class, new Delta().copy(-1, 10).end().stream());
+        assertFails(IOException.class, new Delta().copy(0, -1).end().stream());
+
+        Delta negativeData = new Delta();
+        negativeData.out.write(2);
+        negativeData.out.writeInt(-5);
+        assertFails(IOException.class, negativeData.stream());
+    }
+
+    @Test
+    void rejectsTruncatedDeltas() throws Exception {
+        Delta cutInData = new Delta();
+        cutInData.out.write(2);
+        cutInData.out.writeInt(100);
+        cutInData.out.write(new byte[50]);
+        assertFails(EOFException.class, cutInData.stream());
+
+        assertFails(EOFException.class, new Delta().copy(0, 10).stream());
+
+        Delta cutInCopy = new Delta();
+        cutInCopy.out.write(1);
+        cutInCopy.out.writeInt(0);
+        assertFails(EOFException.class, cutInCopy.stream());
+    }
+
+    @Test
+    void quarantinesResultWithWrongHash() throws Exception {
+        Files.createDirectories(mods);
+        Files.writeString(target, "previous version");
+        byte[] patched = Arrays.copyOfRange(baseBytes, 0, 5000);
+
+        HashMismatchException e = assertThrows(HashMismatchException.class, () ->
+                DeltaPatcher.apply(base, new Delta().copy(0, 5000).end().stream(), target, "0".repeat(128),
+                        quarantine));
+
+        assertEquals(sha512(patched), e.getActualHash());
+        assertTrue(e.getQuarantinedFile().startsWith(quarantine));
+        assertArrayEquals(patched, Files.readAllBytes(e.getQuarantinedFile()));
+        assertEquals("previous version", Files.readString(target));
+        assertNoTempFiles();
+    }
+
+    /**
+     * Applies a delta that must fail, and checks that it left nothing behind.
+     */
+    private void assertFails(Class<? extends Exception> expected, ByteArrayInputStream delta) throws IOException {
+        assertThrows(expected, () -> DeltaPatcher.apply(base, delta, target, "0".repeat(128), quarantine));
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(quarantine));
+        assertNoTempFiles();
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        if (!Files.exists(mods)) return;
+        try (Stream<Path> files = Files.list(mods)) {
+            assertEquals(0, files.filter(file -> file.getFileName().toString().startsWith(".download-")).count());
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha512(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest(data));
+    }
+
+    /**
+     * Writes a delta in the format {@link DeltaPatcher} reads, starting with its header.
+     */
+    private static final class Delta {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        Delta() throws IOException {
+            out.writeInt(0x4D444C54);
+            out.write(1);
+        }
+
+        Delta copy(long offset, int length) throws IOException {
+            out.write(1);
+            out.writeLong(offset);
+            out.writeInt(length);
+            return this;
+        }
+
+        Delta data(byte[] data) throws IOException {
+            out.write(2);
+            out.writeInt(data.length);
+            out.write(data);
+            return this;
+        }
+
+        Delta end() throws IOException {
+            out.write(0);
+            return this;
+        }
+
+        ByteArrayInputStream stream() {
+            return new ByteArrayInputStream(bytes.toByteArray());
+        }
+    }
+}
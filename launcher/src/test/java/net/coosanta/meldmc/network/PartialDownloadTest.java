@@ -0,0 +1,171 @@
+package net.coosanta.meldmc.network;
+
+import net.coosanta.meldmc.network.http.DownloadPolicy;
+import net.coosanta.meldmc.network.http.HttpStatusException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartialDownloadTest {
+    private static final String SOURCE = "https://cdn.example.com/mod.jar";
+    private static final byte[] FILE = bytes(1000);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesWithRangeGuardedByValidator() throws Exception {
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, 400, -1);
+
+        PartialDownload partial = PartialDownload.open(target, SOURCE, -1, null);
+        Map<String, String> request = new HashMap<>();
+        partial.addRangeHeaders(request::put);
+
+        assertEquals(400, partial.offset());
+        assertEquals(Map.of("Range", "bytes=400-", "If-Range", "\"v1\""), request);
+
+        assertTrue(partial.beginResponse(206, headers("Content-Range", "bytes 400-999/1000")));
+        partial.write(new ByteArrayInputStream(FILE, 400, 600), true);
+        partial.complete();
+
+        assertArrayEquals(FILE, Files.readAllBytes(target));
+        assertFalse(Files.exists(partial.partFile()));
+    }
+
+    @Test
+    void partialDataOfAnotherDownloadIsDiscarded() throws Exception {
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, 400, -1);
+
+        PartialDownload partial = PartialDownload.open(target, "https://elsewhere.example.com/mod.jar", -1, null);
+
+        assertEquals(0, partial.offset());
+        assertFalse(Files.exists(partial.partFile()));
+    }
+
+    @Test
+    void wholeFileRestartsPartialData() throws Exception {
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, 400, -1);
+        PartialDownload partial = PartialDownload.open(target, SOURCE, -1, null);
+        partial.addRangeHeaders((name, value) -> {
+        });
+
+        assertFalse(partial.beginResponse(200, headers("ETag", "\"v2\"")));
+        partial.write(new ByteArrayInputStream(FILE), false);
+        partial.complete();
+
+        assertArrayEquals(FILE, Files.readAllBytes(target));
+    }
+
+    @Test
+    void unexpectedContentRangeDiscardsPartialData() throws Exception {
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, 400, -1);
+        PartialDownload partial = PartialDownload.open(target, SOURCE, -1, null);
+
+        assertThrows(IOException.class, () -> partial.beginResponse(206, headers("Content-Range", "bytes 0-999/1000")));
+        assertFalse(Files.exists(partial.partFile()));
+    }
+
+    @Test
+    void partialDataOfExpectedSizeIsComplete() throws Exception {
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, FILE.length, FILE.length);
+
+        PartialDownload partial = PartialDownload.open(target, SOURCE, FILE.length, null);
+
+        assertTrue(partial.isComplete());
+        assertFalse(PartialDownload.open(dir.resolve("other.jar"), SOURCE, 0, null).isComplete());
+    }
+
+    @Test
+    void unsatisfiableRangeFinishesCompletePartialData() throws Exception {
+        // Stopped between the last write and complete(), without knowing the size up front
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, FILE.length, -1);
+        PartialDownload partial = PartialDownload.open(target, SOURCE, -1, null);
+        partial.addRangeHeaders((name, value) -> {
+        });
+
+        assertTrue(partial.beginResponse(416, headers("Content-Range", "bytes */1000")));
+        assertTrue(partial.isComplete());
+        partial.complete();
+
+        assertArrayEquals(FILE, Files.readAllBytes(target));
+    }
+
+    @Test
+    void unsatisfiableRangeRestartsMismatchingPartialData() throws Exception {
+        Path target = dir.resolve("mod.jar");
+        interruptAfter(target, 400, -1);
+        PartialDownload partial = PartialDownload.open(target, SOURCE, -1, null);
+        partial.addRangeHeaders((name, value) -> {
+        });
+
+        IOException e = assertThrows(IOException.class,
+                () -> partial.beginResponse(416, headers("Content-Range", "bytes */300")));
+
+        assertFalse(e instanceof HttpStatusException);
+        assertTrue(DownloadPolicy.isRetryable(e));
+        assertFalse(Files.exists(partial.partFile()));
+        assertEquals(0, PartialDownload.open(target, SOURCE, -1, null).offset());
+    }
+
+    @Test
+    void otherStatusesFail() throws Exception {
+        PartialDownload partial = PartialDownload.open(dir.resolve("mod.jar"), SOURCE, -1, null);
+
+        HttpStatusException e = assertThrows(HttpStatusException.class,
+                () -> partial.beginResponse(404, headers()));
+        assertEquals(404, e.getStatusCode());
+    }
+
+    @Test
+    void targetNameOfPartialFiles() {
+        assertEquals("mod.jar", PartialDownload.targetName("mod.jar.part"));
+        assertEquals("mod.jar", PartialDownload.targetName("mod.jar.part.json"));
+        assertEquals(null, PartialDownload.targetName("mod.jar"));
+    }
+
+    /**
+     * Leaves the first {@code length} bytes of {@link #FILE} behind as an attempt cut off by a dropped connection would.
+     */
+    private static void interruptAfter(Path target, int length, long expectedSize) throws IOException {
+        PartialDownload partial = PartialDownload.open(target, SOURCE, expectedSize, null);
+        boolean append = partial.beginResponse(200, headers("ETag", "\"v1\""));
+        partial.write(new ByteArrayInputStream(Arrays.copyOf(FILE, length)), append);
+    }
+
+    private static Function<String, Optional<String>> headers(String... namesAndValues) {
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return name -> Optional.ofNullable(headers.get(name));
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
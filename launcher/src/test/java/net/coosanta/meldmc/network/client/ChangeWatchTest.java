@@ -0,0 +1,165 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChangeWatchTest {
+    private static final String HASH_A = "a".repeat(128);
+    private static final String HASH_B = "b".repeat(128);
+
+    private HttpServer server;
+    // One response per connection, in order; once they run out, connections are answered with a 204
+    private final Queue<String> streams = new ConcurrentLinkedQueue<>();
+    private final List<String> lastEventIds = new CopyOnWriteArrayList<>();
+    private final List<ModChangeNotice> notices = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/changes", this::answer);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void dispatchesCompleteEvents() throws Exception {
+        streams.add("""
+                : keep-alive
+                retry: 10
+                data: {"version": "1", "changedHashes": ["%s"]}
+
+                event: changes
+                data:{"version": "2",
+                data: "changedHashes": ["%s", "%s"], "unknown": true}
+
+                event: other
+                data: {"version": "3", "changedHashes": []}
+
+                """.formatted(HASH_A, HASH_A, HASH_B));
+
+        watch();
+
+        assertEquals(2, notices.size());
+        assertEquals(new ModChangeNotice("1", Set.of(HASH_A)), notices.get(0));
+        assertEquals(new ModChangeNotice("2", Set.of(HASH_A, HASH_B)), notices.get(1));
+    }
+
+    @Test
+    void resumesFromLastCompleteEvent() throws Exception {
+        streams.add("""
+                retry: 10
+                id: 7
+                data: {"version": "7", "changedHashes": []}
+
+                id: 8
+                data: {"version": "8",
+                """);
+        streams.add("""
+                id: 8
+                data: {"version": "8", "changedHashes": []}
+
+                """);
+
+        watch();
+
+        List<String> versions = new ArrayList<>();
+        notices.forEach(notice -> versions.add(notice.version()));
+        assertIterableEquals(List.of("7", "8"), versions);
+        assertNull(lastEventIds.get(0));
+        assertEquals("7", lastEventIds.get(1));
+        assertEquals("8", lastEventIds.get(2));
+    }
+
+    @Test
+    void skipsUnreadableAndFailingNotices() throws Exception {
+        streams.add("""
+                retry: 10
+                data: not json
+
+                data: {"version": "boom", "changedHashes": []}
+
+                data: {"version": "ok", "changedHashes": []}
+
+                """);
+
+        watch(notice -> {
+            if (notice.version().equals("boom")) throw new IllegalStateException("listener failed");
+            notices.add(notice);
+        });
+
+        assertEquals(List.of(new ModChangeNotice("ok", Set.of())), notices);
+    }
+
+    @Test
+    void stopsForServersWithoutStream() throws Exception {
+        server.removeContext("/changes");
+        server.createContext("/changes", exchange -> {
+            lastEventIds.add(exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+
+        watch();
+
+        assertEquals(1, lastEventIds.size());
+    }
+
+    private void watch() throws Exception {
+        watch(notices::add);
+    }
+
+    /**
+     * Runs a watch until the server tells it to stop reconnecting.
+     */
+    private void watch(Consumer<ModChangeNotice> listener) throws Exception {
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/changes");
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            ChangeWatch watch = new ChangeWatch(client, uri, new ObjectMapper(), listener);
+            watch.start();
+            watch.stopped().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        lastEventIds.add(exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+        String stream = streams.poll();
+        if (stream == null) {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(stream.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
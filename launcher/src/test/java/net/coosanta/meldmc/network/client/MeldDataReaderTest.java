@@ -0,0 +1,215 @@
+package net.coosanta.meldmc.network.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MeldDataReaderTest {
+    private static final String HASH_A = "a".repeat(128);
+    private static final String HASH_B = "b".repeat(128);
+
+    @Test
+    void readsWhatMeldDataSerializesTo() throws IOException {
+        Map<String, MeldData.ClientMod> modMap = new LinkedHashMap<>();
+        modMap.put(HASH_A, mod(HASH_A, "a.jar", null));
+        modMap.put(HASH_B, mod(HASH_B, "b.jar", null));
+        MeldData data = new MeldData("1.21.1", MeldData.ModLoader.FABRIC, "0.16.5", "fabric-1.21.1", modMap);
+
+        assertEquals(data, read(new ObjectMapper().writeValueAsString(data), mod -> {
+        }));
+    }
+
+    @Test
+    void handsOutModsInDocumentOrder() throws IOException {
+        List<String> arrived = new ArrayList<>();
+        MeldData data = read(document(), mod -> arrived.add(mod.filename()));
+
+        assertIterableEquals(List.of("b.jar", "a.jar"), arrived);
+        assertIterableEquals(List.of(HASH_B, HASH_A), data.modMap().keySet());
+    }
+
+    @Test
+    void skipsDescriptions() throws IOException {
+        MeldData data = read(document(), mod -> {
+        });
+
+        assertNull(data.modMap().get(HASH_A).description());
+        assertEquals("a.jar", data.modMap().get(HASH_A).filename());
+        assertEquals(2048, data.modMap().get(HASH_A).fileSize());
+    }
+
+    @Test
+    void readsDescriptionsOnRequest() throws IOException {
+        Map<String, String> descriptions = MeldDataReader.readDescriptions(stream(document()),
+                MeldDataFormat.JSON.factory());
+
+        assertEquals(Map.of(HASH_A, "Adds \"A\"\nand more", HASH_B, "B"), descriptions);
+    }
+
+    @Test
+    void readsCompactLayout() throws IOException {
+        String json = """
+                {"mods": [{"hash": "%s", "filename": "a.jar"}, {"hash": "%s", "filename": "b.jar"}],
+                 "mcVersion": "1.20.1"}
+                """.formatted(HASH_A, HASH_B);
+
+        MeldData data = read(json, mod -> {
+        });
+
+        assertIterableEquals(List.of(HASH_A, HASH_B), data.modMap().keySet());
+        assertEquals("b.jar", data.modMap().get(HASH_B).filename());
+        assertEquals("1.20.1", data.mcVersion());
+    }
+
+    @Test
+    void skipsUnknownFields() throws IOException {
+        String json = """
+                {"future": {"nested": [1, 2, {"x": null}]}, "mcVersion": "1.20.1",
+                 "modMap": {"%s": {"hash": "%s", "extra": [{"y": 1}], "filename": "a.jar"}}}
+                """.formatted(HASH_A, HASH_A);
+
+        MeldData data = read(json, mod -> {
+        });
+
+        assertEquals("1.20.1", data.mcVersion());
+        assertEquals("a.jar", data.modMap().get(HASH_A).filename());
+    }
+
+    @Test
+    void toleratesMissingMods() throws IOException {
+        MeldData data = read("{\"mcVersion\": \"1.20.1\", \"modMap\": null}", mod -> {
+        });
+
+        assertEquals(Map.of(), data.modMap());
+        assertNull(data.modLoader());
+    }
+
+    @Test
+    void rejectsUnknownModLoader() {
+        assertThrows(IOException.class, () -> read("{\"modLoader\": \"RIFT\"}", mod -> {
+        }));
+    }
+
+    @Test
+    void rejectsMalformedDocuments() {
+        assertThrows(IOException.class, () -> read("[]", mod -> {
+        }));
+        assertThrows(IOException.class, () -> read("{\"modMap\": [1]}", mod -> {
+        }));
+        assertThrows(IOException.class, () -> read("{\"mods\": {\"hash\": \"a\"}}", mod -> {
+        }));
+    }
+
+    @Test
+    void readsCompactSmileWithRawHashes() throws IOException {
+        List<String> arrived = new ArrayList<>();
+        MeldData data = MeldDataReader.read(new ByteArrayInputStream(compactSmile()), MeldDataFormat.SMILE.factory(),
+                mod -> arrived.add(mod.hash()));
+
+        assertIterableEquals(List.of(HASH_B, HASH_A), arrived);
+        assertIterableEquals(List.of(HASH_B, HASH_A), data.modMap().keySet());
+        assertEquals(MeldData.ModLoader.FABRIC, data.modLoader());
+        assertEquals("a.jar", data.modMap().get(HASH_A).filename());
+        assertEquals(2048, data.modMap().get(HASH_A).fileSize());
+        assertNull(data.modMap().get(HASH_A).description());
+    }
+
+    @Test
+    void readsDescriptionsFromCompactSmile() throws IOException {
+        Map<String, String> descriptions = MeldDataReader.readDescriptions(new ByteArrayInputStream(compactSmile()),
+                MeldDataFormat.SMILE.factory());
+
+        assertEquals(Map.of(HASH_A, "Adds A", HASH_B, "B"), descriptions);
+    }
+
+    @Test
+    void readsSmileInTheJsonLayout() throws IOException {
+        Map<String, MeldData.ClientMod> modMap = new LinkedHashMap<>();
+        modMap.put(HASH_A, mod(HASH_A, "a.jar", null));
+        MeldData data = new MeldData("1.21.1", MeldData.ModLoader.QUILT, "0.26.0", "quilt-1.21.1", modMap);
+        byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(data);
+
+        assertEquals(data, MeldDataReader.read(new ByteArrayInputStream(smile), MeldDataFormat.SMILE.factory(), mod -> {
+        }));
+    }
+
+    @Test
+    void negotiatesFormatByContentType() {
+        assertEquals(MeldDataFormat.SMILE, MeldDataFormat.of("application/x-jackson-smile"));
+        assertEquals(MeldDataFormat.SMILE, MeldDataFormat.of("Application/X-Jackson-Smile; q=1"));
+        assertEquals(MeldDataFormat.JSON, MeldDataFormat.of("application/json; charset=utf-8"));
+        assertEquals(MeldDataFormat.JSON, MeldDataFormat.of("text/html"));
+        assertEquals(MeldDataFormat.JSON, MeldDataFormat.of(null));
+    }
+
+    /**
+     * The layout a server sends when asked for Smile: a {@code mods} array with raw 64-byte hashes.
+     */
+    private static byte[] compactSmile() throws IOException {
+        SmileFactory factory = SmileFactory.builder().disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT).build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("mcVersion", "1.21.1");
+            generator.writeStringField("modLoader", "FABRIC");
+            generator.writeArrayFieldStart("mods");
+            writeCompactMod(generator, HASH_B, "b.jar", "B", 1024);
+            writeCompactMod(generator, HASH_A, "a.jar", "Adds A", 2048);
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeCompactMod(JsonGenerator generator, String hash, String filename, String description,
+                                        long fileSize) throws IOException {
+        generator.writeStartObject();
+        generator.writeBinaryField("hash", HexFormat.of().parseHex(hash));
+        generator.writeStringField("filename", filename);
+        generator.writeStringField("description", description);
+        generator.writeNumberField("fileSize", fileSize);
+        generator.writeEndObject();
+    }
+
+    private static String document() {
+        return """
+                {"mcVersion": "1.21.1", "modLoader": "NEOFORGE", "modLoaderVersion": "21.1.1", "versionId": "neo",
+                 "modMap": {
+                   "%s": {"modVersion": "2.0", "hash": "%s", "filename": "b.jar", "description": "B"},
+                   "%s": {"modVersion": "1.0", "hash": "%s", "filename": "a.jar",
+                          "description": "Adds \\"A\\"\\nand more", "fileSize": 2048}
+                 }}
+                """.formatted(HASH_B, HASH_B, HASH_A, HASH_A);
+    }
+
+    private static MeldData read(String json, Consumer<MeldData.ClientMod> onMod) throws IOException {
+        return MeldDataReader.read(stream(json), MeldDataFormat.JSON.factory(), onMod);
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MeldData.ClientMod mod(String hash, String filename, String description) {
+        return new MeldData.ClientMod("1.0", hash, "https://cdn.modrinth.com/data/x/" + filename, null, "x",
+                filename, filename, filename, "someone", description, 1024);
+    }
+}
@@ -0,0 +1,103 @@
+package net.coosanta.meldmc.network.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostConcurrencyLimiterTest {
+    private static final URI HOST = URI.create("https://cdn.example.com/a.jar");
+    // Deep enough to overflow the stack if every queued task started the next one from within itself
+    private static final int MANY = 100_000;
+
+    @Test
+    void startsAtMostTheLimitPerHost() {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(2);
+        List<CompletableFuture<String>> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<String> request = new CompletableFuture<>();
+            requests.add(request);
+            limiter.submit(HOST, () -> request);
+        }
+        limiter.submit(URI.create("https://other.example.com/b.jar"), CompletableFuture::new);
+
+        assertEquals(2, limiter.active("cdn.example.com"));
+        assertEquals(1, limiter.active("other.example.com"));
+
+        requests.get(0).complete("done");
+        assertEquals(2, limiter.active("cdn.example.com"));
+    }
+
+    @Test
+    void startsQueuedRequestsInSubmissionOrder() {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1);
+        List<Integer> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        limiter.submit(HOST, () -> first);
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            limiter.submit(HOST, () -> {
+                started.add(index);
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        first.complete(null);
+
+        assertEquals(List.of(0, 1, 2), started);
+        assertEquals(0, limiter.active("cdn.example.com"));
+    }
+
+    @Test
+    void passesResultsAndFailuresThrough() {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1);
+
+        assertEquals("ok", limiter.submit(HOST, () -> CompletableFuture.completedFuture("ok")).join());
+        CompletableFuture<Object> failed = limiter.submit(HOST, () -> {
+            throw new IllegalStateException("boom");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertEquals(0, limiter.active("cdn.example.com"));
+    }
+
+    @Test
+    void cancellingALongQueueDoesNotNest() {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        limiter.submit(HOST, () -> running);
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (int i = 0; i < MANY; i++) {
+            queued.add(limiter.submit(HOST, CompletableFuture::new));
+        }
+
+        queued.forEach(request -> request.cancel(true));
+        running.complete(null);
+
+        assertEquals(0, limiter.active("cdn.example.com"));
+    }
+
+    @Test
+    void requestsFailingRightAwayDoNotNest() {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        limiter.submit(HOST, () -> running);
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (int i = 0; i < MANY; i++) {
+            queued.add(limiter.submit(HOST, () -> CompletableFuture.failedFuture(new RuntimeException("refused"))));
+        }
+
+        running.complete(null);
+
+        assertTrue(queued.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+        assertEquals(0, limiter.active("cdn.example.com"));
+    }
+}
@@ -0,0 +1,145 @@
+package net.coosanta.meldmc.utility;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class FileHasherTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void multiDigestMatchesMessageDigest() throws Exception {
+        // Spans several reads of the hashing buffer, the last one partial
+        byte[] data = randomBytes(3 * 1024 * 1024 + 17);
+        Path file = write("mod.jar", data);
+
+        Map<FileHasher.Algorithm, String> digests =
+                FileHasher.hash(file, EnumSet.of(FileHasher.Algorithm.SHA_1, FileHasher.Algorithm.SHA_512));
+
+        assertEquals(2, digests.size());
+        assertEquals(digest("SHA-1", data), digests.get(FileHasher.Algorithm.SHA_1));
+        assertEquals(digest("SHA-512", data), digests.get(FileHasher.Algorithm.SHA_512));
+    }
+
+    @Test
+    void singleDigestMatchesMultiDigest() throws Exception {
+        Path file = write("mod.jar", randomBytes(100_000));
+
+        Map<FileHasher.Algorithm, String> digests = FileHasher.hash(file, EnumSet.allOf(FileHasher.Algorithm.class));
+
+        for (FileHasher.Algorithm algorithm : FileHasher.Algorithm.values()) {
+            assertEquals(digests.get(algorithm), FileHasher.hash(file, algorithm));
+        }
+    }
+
+    @Test
+    void emptyFileDigests() throws Exception {
+        Path file = write("empty.jar", new byte[0]);
+
+        assertEquals(digest("SHA-1", new byte[0]), FileHasher.hash(file, FileHasher.Algorithm.SHA_1));
+        assertEquals(digest("SHA-512", new byte[0]), FileHasher.hash(file, FileHasher.Algorithm.SHA_512));
+    }
+
+    @Test
+    void crc32cMatchesChecksum() throws Exception {
+        byte[] data = randomBytes(1024 * 1024 + 1);
+        Path file = write("mod.jar", data);
+
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        String expected = HexFormat.of().toHexDigits((int) crc.getValue());
+        assertEquals(expected, FileHasher.hash(file, FileHasher.Algorithm.CRC32C));
+    }
+
+    @Test
+    void hashAllHashesEveryReadableFile() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            files.add(write("mod" + i + ".jar", randomBytes(10_000 + i)));
+        }
+        Path missing = dir.resolve("missing.jar");
+        files.add(missing);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Map<Path, Map<FileHasher.Algorithm, String>> results =
+                    FileHasher.hashAll(files, EnumSet.of(FileHasher.Algorithm.SHA_512), 3, executor).get();
+
+            assertEquals(8, results.size());
+            assertFalse(results.containsKey(missing));
+            for (Path file : files.subList(0, 8)) {
+                String expected = digest("SHA-512", Files.readAllBytes(file));
+                assertEquals(expected, results.get(file).get(FileHasher.Algorithm.SHA_512));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void fingerprintSeesFirstAndLastBlocksAndSize() throws Exception {
+        byte[] data = randomBytes(512 * 1024);
+        Path file = write("mod.jar", data);
+        String fingerprint = FileHasher.fingerprint(file);
+
+        assertEquals(fingerprint, FileHasher.fingerprint(file));
+        assertNotEquals(fingerprint, fingerprintWith(file, data, 0));
+        assertNotEquals(fingerprint, fingerprintWith(file, data, data.length - 1));
+
+        Files.write(file, Arrays.copyOf(data, data.length + 1));
+        assertNotEquals(fingerprint, FileHasher.fingerprint(file));
+    }
+
+    @Test
+    void fingerprintOfSmallFileCoversAllOfIt() throws Exception {
+        byte[] data = randomBytes(1000);
+        Path file = write("small.jar", data);
+        String fingerprint = FileHasher.fingerprint(file);
+
+        assertNotEquals(fingerprint, fingerprintWith(file, data, data.length / 2));
+    }
+
+    private String fingerprintWith(Path file, byte[] data, int flipped) throws IOException {
+        byte[] changed = data.clone();
+        changed[flipped] ^= 1;
+        Files.write(file, changed);
+        try {
+            return FileHasher.fingerprint(file);
+        } finally {
+            Files.write(file, data);
+        }
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(dir.resolve(name), data);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static String digest(String algorithm, byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance(algorithm).digest(data));
+    }
+}
@@ -0,0 +1,76 @@
+package net.coosanta.meldmc.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class XxHash64Test {
+    private static final long PRIME32 = 2654435761L;
+    // 11400714785074694797, as in xxhsum; not XXH64's PRIME64_1
+    private static final long BYTE_GEN_MULTIPLIER = 0x9E3779B185EBCA8DL;
+
+    /**
+     * The buffer xxHash's own sanity check ({@code xxhsum -b}) hashes prefixes of.
+     */
+    private static final byte[] SANITY_BUFFER = sanityBuffer(2367);
+
+    @Test
+    void matchesReferenceSanityVectors() {
+        assertEquals(0xEF46DB3751D8E999L, hash(0, 0));
+        assertEquals(0xAC75FDA2929B17EFL, hash(0, PRIME32));
+        assertEquals(0xE934A84ADB052768L, hash(1, 0));
+        assertEquals(0x5014607643A9B4C3L, hash(1, PRIME32));
+        assertEquals(0x9136A0DCA57457EEL, hash(4, 0));
+        assertEquals(0x8282DCC4994E35C8L, hash(14, 0));
+        assertEquals(0xC3BD6BF63DEB6DF0L, hash(14, PRIME32));
+        // Long enough for the four-lane loop
+        assertEquals(0xB641AE8CB691C174L, hash(222, 0));
+        assertEquals(0x20CB8AB7AE10C14AL, hash(222, PRIME32));
+    }
+
+    @Test
+    void matchesReferenceStringVectors() {
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    void hashesOnlyRemainingBytesAndLeavesBufferAlone() {
+        ByteBuffer buffer = ByteBuffer.allocate(300).order(ByteOrder.BIG_ENDIAN);
+        buffer.put(new byte[40]).put(SANITY_BUFFER, 0, 222).flip().position(40);
+
+        assertEquals(0xB641AE8CB691C174L, XxHash64.hash(buffer, 0));
+        assertEquals(40, buffer.position());
+        assertEquals(262, buffer.limit());
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+    }
+
+    @Test
+    void directBufferHashesLikeHeapBuffer() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(222).put(SANITY_BUFFER, 0, 222).flip();
+
+        assertEquals(hash(222, 0), XxHash64.hash(direct, 0));
+    }
+
+    private static long hash(int length, long seed) {
+        return XxHash64.hash(ByteBuffer.wrap(SANITY_BUFFER, 0, length), seed);
+    }
+
+    private static long hash(String input) {
+        return XxHash64.hash(ByteBuffer.wrap(input.getBytes(StandardCharsets.US_ASCII)), 0);
+    }
+
+    private static byte[] sanityBuffer(int length) {
+        byte[] buffer = new byte[length];
+        long byteGen = PRIME32;
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) (byteGen >>> 56);
+            byteGen *= BYTE_GEN_MULTIPLIER;
+        }
+        return buffer;
+    }
+}
@@ -12,3 +12,4 @@ plugins {
 
 rootProject.name = "MeldMC"
 include("launcher")
+include("benchmarks")